@@ -0,0 +1,182 @@
+package billboard.benchmark;
+
+import billboard.server.DbBillboard;
+import billboard.server.DbConnection;
+import billboard.server.DbSchedule;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+
+/**
+ * Benchmark comparing getAllSchedules against the query-per-schedule version it replaced.
+ *
+ * Seeds a benchmark billboard with thousands of schedules in the database from db.props, times both versions
+ * reading them back, then deletes everything it added. The database needs at least one user (the server adds
+ * one the first time it starts).
+ *
+ * Usage: ScheduleQueryBenchmark [schedules] [timesPerSchedule] [iterations]
+ */
+public class ScheduleQueryBenchmark {
+    /**
+     * Reads every schedule the way getAllSchedules used to, with two extra queries per schedule
+     * @return ArrayList containing each schedule's data
+     * @throws Exception if a query fails
+     */
+    private static ArrayList<HashMap> getAllSchedulesPerRow() throws Exception {
+        Connection connection = DbConnection.getInstance();
+
+        Statement statement = connection.createStatement();
+        ResultSet rs = statement.executeQuery("SELECT * FROM Schedule");
+
+        ArrayList<HashMap> schedules = new ArrayList<HashMap>();
+        while (rs.next()) {
+            int scheduleId = rs.getInt("scheduleId");
+            int billboardId = rs.getInt("billboardId");
+
+            HashMap scheduleData = new HashMap();
+            scheduleData.put("scheduleId", scheduleId);
+            scheduleData.put("billboardId", billboardId);
+            scheduleData.put("billboardName", DbBillboard.getBillboardName(billboardId));
+            scheduleData.put("creationTime", rs.getTimestamp("creationTime"));
+            scheduleData.put("userId", rs.getInt("userId"));
+            scheduleData.put("day", rs.getInt("day"));
+            scheduleData.put("minutesStart", rs.getInt("minutesStart"));
+            scheduleData.put("minutesDuration", rs.getInt("minutesDuration"));
+            scheduleData.put("repeating", rs.getBoolean("repeating"));
+            scheduleData.put("minutesRepeatGap", rs.getInt("minutesRepeatGap"));
+
+            PreparedStatement statement2 = connection.prepareStatement("SELECT * FROM ScheduleTimes WHERE scheduleId=?");
+            statement2.setInt(1, scheduleId);
+            ResultSet rs2 = statement2.executeQuery();
+
+            ArrayList<HashMap> scheduleTimes = new ArrayList<HashMap>();
+            while (rs2.next()) {
+                HashMap scheduleTimeData = new HashMap();
+                scheduleTimeData.put("scheduleTimeId", rs2.getInt("scheduleTimeId"));
+                scheduleTimeData.put("day", rs2.getInt("day"));
+                scheduleTimeData.put("startMinutes", rs2.getInt("startMinutes"));
+                scheduleTimeData.put("endMinutes", rs2.getInt("endMinutes"));
+
+                scheduleTimes.add(scheduleTimeData);
+            }
+            scheduleData.put("scheduleTimes", scheduleTimes);
+
+            schedules.add(scheduleData);
+        }
+
+        return schedules;
+    }
+
+    /**
+     * Adds the benchmark schedules straight into the tables, in batches
+     * @param billboardId - Billboard to schedule
+     * @param userId - User to add the schedules as
+     * @param schedules - Number of schedules
+     * @param timesPerSchedule - Number of times for each schedule
+     * @throws SQLException if an insert fails
+     */
+    private static void seed(int billboardId, int userId, int schedules, int timesPerSchedule) throws SQLException {
+        Connection connection = DbConnection.getInstance();
+        connection.setAutoCommit(false);
+
+        PreparedStatement scheduleStatement = connection.prepareStatement("INSERT INTO Schedule(billboardId, creationTime, userId, day, minutesStart, minutesDuration, repeating, minutesRepeatGap) VALUES (?, ?, ?, ?, ?, ?, ?, ?)", Statement.RETURN_GENERATED_KEYS);
+        for (int i = 0; i < schedules; i++) {
+            scheduleStatement.setInt(1, billboardId);
+            scheduleStatement.setTimestamp(2, new Timestamp(System.currentTimeMillis()));
+            scheduleStatement.setInt(3, userId);
+            scheduleStatement.setInt(4, i % 7 + 1);
+            scheduleStatement.setInt(5, i % 1380);
+            scheduleStatement.setInt(6, 30);
+            scheduleStatement.setBoolean(7, timesPerSchedule > 1);
+            scheduleStatement.setInt(8, 60);
+            scheduleStatement.addBatch();
+        }
+        scheduleStatement.executeBatch();
+
+        ArrayList<Integer> scheduleIds = new ArrayList<Integer>();
+        ResultSet keys = scheduleStatement.getGeneratedKeys();
+        while (keys.next()) {
+            scheduleIds.add(keys.getInt(1));
+        }
+
+        PreparedStatement timeStatement = connection.prepareStatement("INSERT INTO ScheduleTimes(scheduleId, day, startMinutes, endMinutes) VALUES (?, ?, ?, ?)");
+        for (int i = 0; i < scheduleIds.size(); i++) {
+            for (int j = 0; j < timesPerSchedule; j++) {
+                int start = (i + j * 60) % 1380;
+
+                timeStatement.setInt(1, scheduleIds.get(i));
+                timeStatement.setInt(2, i % 7 + 1);
+                timeStatement.setInt(3, start);
+                timeStatement.setInt(4, start + 30);
+                timeStatement.addBatch();
+            }
+        }
+        timeStatement.executeBatch();
+
+        connection.commit();
+        connection.setAutoCommit(true);
+    }
+
+    /**
+     * Runs the benchmark
+     * @param args - Optional schedule count, times per schedule and iterations
+     * @throws Exception if the benchmark can't be run
+     */
+    public static void main(String[] args) throws Exception {
+        int schedules = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int timesPerSchedule = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        Connection connection = DbConnection.getInstance();
+
+        ResultSet rs = connection.createStatement().executeQuery("SELECT userId FROM Users LIMIT 1");
+        if (!rs.next()) {
+            System.out.println("No users in the database, start the server once first");
+            return;
+        }
+        int userId = rs.getInt("userId");
+
+        String billboardName = "Schedule benchmark " + System.currentTimeMillis();
+        DbBillboard.createBillboard(billboardName, "<billboard><message>Benchmark</message></billboard>", userId);
+        int billboardId = DbBillboard.getBillboardId(billboardName);
+
+        try {
+            System.out.printf("Seeding %d schedules with %d times each\n", schedules, timesPerSchedule);
+            seed(billboardId, userId, schedules, timesPerSchedule);
+
+            // Warm up both versions first
+            getAllSchedulesPerRow();
+            DbSchedule.getAllSchedules();
+
+            ArrayList<Long> perRowTimes = new ArrayList<Long>();
+            ArrayList<Long> joinedTimes = new ArrayList<Long>();
+            int rows = 0;
+
+            for (int i = 0; i < iterations; i++) {
+                long start = System.nanoTime();
+                getAllSchedulesPerRow();
+                perRowTimes.add(System.nanoTime() - start);
+
+                start = System.nanoTime();
+                rows = DbSchedule.getAllSchedules().size();
+                joinedTimes.add(System.nanoTime() - start);
+            }
+
+            Collections.sort(perRowTimes);
+            Collections.sort(joinedTimes);
+
+            long perRowMedian = perRowTimes.get(perRowTimes.size() / 2);
+            long joinedMedian = joinedTimes.get(joinedTimes.size() / 2);
+
+            System.out.printf("Read %d schedules\n", rows);
+            System.out.printf("Query per schedule: %.1f ms median\n", perRowMedian / 1e6);
+            System.out.printf("Joined queries:     %.1f ms median (%.1fx faster)\n", joinedMedian / 1e6, (double) perRowMedian / joinedMedian);
+        } finally {
+            DbSchedule.deleteSchedulesForBillboard(billboardId);
+            DbBillboard.deleteBillboard(billboardId);
+            DbConnection.release();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package billboard.benchmark;
+
+import billboard.server.ServerResponse;
+
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Load test for comparing the server's request handling modes.
+ *
+ * Start the server with server.mode set to "single", run this, then restart it with "pool" or
+ * "virtual" and run it again. Each simulated client opens a new connection per request, the same
+ * way the viewer and control panel do.
+ *
+ * Usage: ServerLoadTest [host] [port] [clients] [requestsPerClient] [requestType]
+ */
+public class ServerLoadTest {
+    /**
+     * Sends a single request to the server and waits for the response
+     * @param host - Server host
+     * @param port - Server port
+     * @param requestType - Type of request
+     * @return Whether the server responded without an error
+     * @throws Exception if the request fails
+     */
+    private static boolean sendRequest(String host, int port, String requestType) throws Exception {
+        try (Socket socket = new Socket(host, port)) {
+            ObjectOutputStream oos = new ObjectOutputStream(socket.getOutputStream());
+            ObjectInputStream ois = new ObjectInputStream(socket.getInputStream());
+
+            oos.writeUTF(requestType);
+            oos.writeUTF("");
+            oos.flush();
+
+            ServerResponse response = (ServerResponse) ois.readObject();
+
+            return response.error == null;
+        }
+    }
+
+    /**
+     * Runs the load test
+     * @param args - Optional host, port, client count, requests per client and request type
+     * @throws Exception if the load test can't be run
+     */
+    public static void main(String[] args) throws Exception {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 4000;
+        int clients = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+        int requestsPerClient = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+        String requestType = args.length > 4 ? args[4] : "getCurrentBillboard";
+
+        System.out.printf("Sending %d x %d %s requests to %s:%d\n", clients, requestsPerClient, requestType, host, port);
+
+        ExecutorService executor = Executors.newFixedThreadPool(clients);
+        ArrayList<Future<ArrayList<Long>>> results = new ArrayList<Future<ArrayList<Long>>>();
+
+        long start = System.nanoTime();
+
+        for (int i = 0; i < clients; i++) {
+            results.add(executor.submit(() -> {
+                ArrayList<Long> latencies = new ArrayList<Long>();
+
+                for (int j = 0; j < requestsPerClient; j++) {
+                    long requestStart = System.nanoTime();
+                    try {
+                        if (sendRequest(host, port, requestType)) {
+                            latencies.add(System.nanoTime() - requestStart);
+                        }
+                    } catch (Exception e) {
+                        // Counted as a failed request
+                    }
+                }
+
+                return latencies;
+            }));
+        }
+
+        // Gather the latencies of every successful request
+        ArrayList<Long> latencies = new ArrayList<Long>();
+        for (var result : results) {
+            latencies.addAll(result.get());
+        }
+
+        long elapsed = System.nanoTime() - start;
+        executor.shutdown();
+
+        int total = clients * requestsPerClient;
+        int failed = total - latencies.size();
+
+        Collections.sort(latencies);
+
+        System.out.printf("Completed %d requests (%d failed) in %.2f s\n", latencies.size(), failed, elapsed / 1e9);
+        System.out.printf("Throughput: %.1f requests/s\n", latencies.size() / (elapsed / 1e9));
+
+        if (!latencies.isEmpty()) {
+            System.out.printf("Latency p50: %.2f ms, p95: %.2f ms, p99: %.2f ms, max: %.2f ms\n",
+                    percentile(latencies, 50) / 1e6, percentile(latencies, 95) / 1e6,
+                    percentile(latencies, 99) / 1e6, latencies.get(latencies.size() - 1) / 1e6);
+        }
+    }
+
+    /**
+     * Gets a percentile from a sorted list of latencies
+     * @param sorted - Sorted latencies
+     * @param percent - Percentile to get (0-100)
+     * @return Latency at the percentile
+     */
+    private static long percentile(ArrayList<Long> sorted, int percent) {
+        int index = (int) Math.ceil(percent / 100.0 * sorted.size()) - 1;
+
+        return sorted.get(Math.max(index, 0));
+    }
+}
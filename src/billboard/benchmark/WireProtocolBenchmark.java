@@ -0,0 +1,226 @@
+package billboard.benchmark;
+
+import billboard.server.BinaryProtocol;
+import billboard.server.ServerResponse;
+
+import java.io.*;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Benchmark comparing the bytes on the wire and encode/decode time of Java serialization and the binary protocol,
+ * using responses shaped like the ones the server sends.
+ *
+ * Usage: WireProtocolBenchmark [iterations]
+ */
+public class WireProtocolBenchmark {
+    /**
+     * Creates a response like listBillboards
+     * @param count - Number of billboards
+     * @return Response
+     */
+    private static ServerResponse listBillboardsResponse(int count) {
+        ArrayList<HashMap> billboards = new ArrayList<HashMap>();
+        for (int i = 1; i <= count; i++) {
+            HashMap billboardData = new HashMap();
+            billboardData.put("billboardId", i);
+            billboardData.put("name", "Billboard " + i);
+            billboardData.put("creatorId", i % 10);
+            billboardData.put("creatorUsername", "user" + (i % 10));
+
+            billboards.add(billboardData);
+        }
+
+        ServerResponse response = new ServerResponse();
+        response.data = billboards;
+        return response;
+    }
+
+    /**
+     * Creates a response like getAllSchedules
+     * @param count - Number of schedules
+     * @param timesPerSchedule - Number of schedule times for each schedule
+     * @return Response
+     */
+    private static ServerResponse getAllSchedulesResponse(int count, int timesPerSchedule) {
+        ArrayList<HashMap> schedules = new ArrayList<HashMap>();
+        int scheduleTimeId = 0;
+        for (int i = 1; i <= count; i++) {
+            HashMap scheduleData = new HashMap();
+            scheduleData.put("scheduleId", i);
+            scheduleData.put("billboardId", i % 50);
+            scheduleData.put("billboardName", "Billboard " + (i % 50));
+            scheduleData.put("creationTime", new Timestamp(1590000000000L + i * 1000L));
+            scheduleData.put("userId", 1);
+            scheduleData.put("day", i % 7 + 1);
+            scheduleData.put("minutesStart", 600);
+            scheduleData.put("minutesDuration", 30);
+            scheduleData.put("repeating", true);
+            scheduleData.put("minutesRepeatGap", 120);
+
+            ArrayList<HashMap> scheduleTimes = new ArrayList<HashMap>();
+            for (int j = 0; j < timesPerSchedule; j++) {
+                HashMap scheduleTimeData = new HashMap();
+                scheduleTimeData.put("scheduleTimeId", ++scheduleTimeId);
+                scheduleTimeData.put("day", i % 7 + 1);
+                scheduleTimeData.put("startMinutes", 600 + j * 120);
+                scheduleTimeData.put("endMinutes", 630 + j * 120);
+
+                scheduleTimes.add(scheduleTimeData);
+            }
+            scheduleData.put("scheduleTimes", scheduleTimes);
+
+            schedules.add(scheduleData);
+        }
+
+        ServerResponse response = new ServerResponse();
+        response.data = schedules;
+        return response;
+    }
+
+    /**
+     * Creates a response like getCurrentBillboard
+     * @param pictureBytes - Size of the embedded picture
+     * @return Response
+     */
+    private static ServerResponse getCurrentBillboardResponse(int pictureBytes) {
+        StringBuilder picture = new StringBuilder();
+        while (picture.length() < pictureBytes) {
+            picture.append("iVBORw0KGgoAAAANSUhEUgAAAAEAAAABCAYAAAAfFcSJAAAADUlEQVR42mNkYPhfDwAChwGA60e6kgAAAABJRU5ErkJggg");
+        }
+
+        HashMap currentBillboardData = new HashMap();
+        currentBillboardData.put("name", "Current billboard");
+        currentBillboardData.put("data", "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>\n" +
+                "<billboard>\n" +
+                "    <message>Basic message-only billboard</message>\n" +
+                "    <picture data=\"" + picture + "\"/>\n" +
+                "</billboard>\n");
+
+        ServerResponse response = new ServerResponse();
+        response.data = currentBillboardData;
+        return response;
+    }
+
+    /**
+     * Encodes a response with Java serialization, the way the server does
+     * @param response - Response to encode
+     * @return Encoded bytes
+     * @throws IOException if encoding fails
+     */
+    private static byte[] encodeSerialized(ServerResponse response) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bytes);
+        oos.writeObject(response);
+        oos.flush();
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes a Java serialized response
+     * @param bytes - Encoded bytes
+     * @return Response
+     * @throws Exception if decoding fails
+     */
+    private static ServerResponse decodeSerialized(byte[] bytes) throws Exception {
+        ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes));
+
+        return (ServerResponse) ois.readObject();
+    }
+
+    /**
+     * Encodes a response with the binary protocol
+     * @param response - Response to encode
+     * @return Encoded bytes
+     * @throws IOException if encoding fails
+     */
+    private static byte[] encodeBinary(ServerResponse response) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        BinaryProtocol.writeResponse(out, 1, response);
+        out.flush();
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes a binary protocol response
+     * @param bytes - Encoded bytes
+     * @return Response
+     * @throws IOException if decoding fails
+     */
+    private static ServerResponse decodeBinary(byte[] bytes) throws IOException {
+        ServerResponse response = new ServerResponse();
+        BinaryProtocol.readResponse(new DataInputStream(new ByteArrayInputStream(bytes)), response);
+
+        return response;
+    }
+
+    /**
+     * Benchmarks one response in both formats and prints the results
+     * @param name - Name of the response
+     * @param response - Response to benchmark
+     * @param iterations - Number of times to encode and decode it
+     * @throws Exception if encoding or decoding fails
+     */
+    private static void benchmark(String name, ServerResponse response, int iterations) throws Exception {
+        byte[] serialized = encodeSerialized(response);
+        byte[] binary = encodeBinary(response);
+
+        // Warm up both paths before timing
+        for (int i = 0; i < iterations / 10 + 1; i++) {
+            decodeSerialized(encodeSerialized(response));
+            decodeBinary(encodeBinary(response));
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            encodeSerialized(response);
+        }
+        long serializedEncode = (System.nanoTime() - start) / iterations;
+
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            decodeSerialized(serialized);
+        }
+        long serializedDecode = (System.nanoTime() - start) / iterations;
+
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            encodeBinary(response);
+        }
+        long binaryEncode = (System.nanoTime() - start) / iterations;
+
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            decodeBinary(binary);
+        }
+        long binaryDecode = (System.nanoTime() - start) / iterations;
+
+        System.out.printf("%-28s %12d %12d %10.1f%% %12.1f %12.1f %12.1f %12.1f\n", name,
+                serialized.length, binary.length, 100.0 * binary.length / serialized.length,
+                serializedEncode / 1000.0, binaryEncode / 1000.0, serializedDecode / 1000.0, binaryDecode / 1000.0);
+    }
+
+    /**
+     * Runs the benchmark
+     * @param args - Optional number of iterations
+     * @throws Exception if encoding or decoding fails
+     */
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+
+        System.out.printf("%-28s %12s %12s %11s %12s %12s %12s %12s\n", "Response",
+                "Serial B", "Binary B", "Size", "Serial enc", "Binary enc", "Serial dec", "Binary dec");
+        System.out.println("(encode/decode times in microseconds)");
+
+        benchmark("listBillboards (50)", listBillboardsResponse(50), iterations);
+        benchmark("listBillboards (1000)", listBillboardsResponse(1000), iterations / 10);
+        benchmark("getAllSchedules (100x5)", getAllSchedulesResponse(100, 5), iterations / 10);
+        benchmark("getAllSchedules (1000x10)", getAllSchedulesResponse(1000, 10), iterations / 100);
+        benchmark("getCurrentBillboard (1KB)", getCurrentBillboardResponse(1024), iterations);
+        benchmark("getCurrentBillboard (500KB)", getCurrentBillboardResponse(500 * 1024), iterations / 100);
+    }
+}
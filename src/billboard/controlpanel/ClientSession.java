@@ -0,0 +1,189 @@
+package billboard.controlpanel;
+
+import billboard.server.BinaryProtocol;
+import billboard.server.ServerResponse;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A persistent connection to the server that many requests are sent over
+ */
+public class ClientSession {
+    private final Socket socket;
+
+    // Streams for Java serialized sessions
+    private ObjectOutputStream oos = null;
+    private ObjectInputStream ois = null;
+
+    // Streams for binary sessions
+    private DataOutputStream binaryOut = null;
+    private DataInputStream binaryIn = null;
+
+    private final Object writeLock = new Object();
+
+    private final AtomicInteger nextRequestId = new AtomicInteger();
+    private final ConcurrentHashMap<Integer, CompletableFuture<ServerResponse>> pending = new ConcurrentHashMap<Integer, CompletableFuture<ServerResponse>>();
+
+    private volatile boolean open = true;
+
+    /**
+     * Opens a session with the server
+     * @param socket - Connected server socket
+     * @param token - Session token
+     * @param binary - Whether to use the binary protocol instead of Java serialization
+     * @throws IOException if the connection fails
+     * @throws BillboardServerException if the server won't open a session
+     */
+    public ClientSession(Socket socket, String token, boolean binary) throws IOException, BillboardServerException {
+        this.socket = socket;
+
+        if (binary) {
+            binaryOut = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            binaryIn = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+            // Ask the server to keep the connection open
+            BinaryProtocol.writeHeader(binaryOut);
+            BinaryProtocol.writeRequest(binaryOut, 0, "openSession", token, null);
+            binaryOut.flush();
+
+            ServerResponse response = new ServerResponse();
+            BinaryProtocol.readResponse(binaryIn, response);
+            if (response.error != null) {
+                socket.close();
+                throw new BillboardServerException(response.error);
+            }
+        } else {
+            oos = new ObjectOutputStream(socket.getOutputStream());
+            ois = new ObjectInputStream(socket.getInputStream());
+
+            // Ask the server to keep the connection open
+            oos.writeUTF("openSession");
+            oos.writeUTF(token);
+            oos.flush();
+
+            try {
+                ServerResponse response = (ServerResponse) ois.readObject();
+                if (response.error != null) {
+                    socket.close();
+                    throw new BillboardServerException(response.error);
+                }
+            } catch (ClassNotFoundException e) {
+                socket.close();
+                throw new IOException(e);
+            }
+        }
+
+        // Responses are read on their own thread, as they can arrive in any order
+        Thread readerThread = new Thread(this::readResponses, "client-session-reader");
+        readerThread.setDaemon(true);
+        readerThread.start();
+    }
+
+    /**
+     * Reads responses and hands them to the requests waiting on them
+     */
+    private void readResponses() {
+        try {
+            while (true) {
+                int requestId;
+                ServerResponse response;
+
+                if (binaryIn != null) {
+                    response = new ServerResponse();
+                    requestId = BinaryProtocol.readResponse(binaryIn, response);
+                } else {
+                    requestId = ois.readInt();
+                    response = (ServerResponse) ois.readObject();
+                }
+
+                CompletableFuture<ServerResponse> future = pending.remove(requestId);
+                if (future != null) {
+                    future.complete(response);
+                }
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            close();
+        }
+    }
+
+    /**
+     * Whether the session can still be used
+     * @return Open status
+     */
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Sends a request over the session and waits for its response
+     * @param requestType - Type of request
+     * @param token - Session token
+     * @param data - Object containing request data
+     * @param timeoutMs - How long to wait for the response
+     * @return Server response
+     * @throws IOException if the request couldn't be sent, in which case it is safe to send again
+     * @throws TimeoutException if the request was sent but no response came back
+     */
+    public ServerResponse sendRequest(String requestType, String token, Object data, long timeoutMs) throws IOException, TimeoutException {
+        int requestId = nextRequestId.incrementAndGet();
+
+        CompletableFuture<ServerResponse> future = new CompletableFuture<ServerResponse>();
+        pending.put(requestId, future);
+
+        try {
+            synchronized (writeLock) {
+                if (binaryOut != null) {
+                    BinaryProtocol.writeRequest(binaryOut, requestId, requestType, token, data);
+                    binaryOut.flush();
+                } else {
+                    oos.writeInt(requestId);
+                    oos.writeUTF(requestType);
+                    oos.writeUTF(token);
+                    oos.writeObject(data);
+
+                    // Don't keep references to every request sent in the stream's handle table
+                    oos.reset();
+
+                    oos.flush();
+                }
+            }
+        } catch (IOException e) {
+            pending.remove(requestId);
+            close();
+            throw e;
+        }
+
+        try {
+            return future.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException | ExecutionException e) {
+            throw new TimeoutException(e.getMessage());
+        } finally {
+            pending.remove(requestId);
+        }
+    }
+
+    /**
+     * Closes the session, failing any requests still waiting on a response
+     */
+    public void close() {
+        open = false;
+
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Already closed
+        }
+
+        for (var future : pending.values()) {
+            future.completeExceptionally(new IOException("Session closed"));
+        }
+        pending.clear();
+    }
+}
@@ -5,6 +5,8 @@ import org.xml.sax.SAXException;
 
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.xml.parsers.ParserConfigurationException;
 import java.awt.*;
 import java.io.IOException;
@@ -16,8 +18,15 @@ import java.util.HashMap;
  * GUI for listing billboards
  */
 public class ListBillboards extends JFrame {
+    // Sort orders sent to the server, in the order of the sort box
+    private static final String[] SORT_ORDERS = {"name", "creator", "created"};
+
     private BillboardPreview preview = new BillboardPreview();
 
+    // Search the list is showing, set on the event dispatch thread and read when fetching pages
+    private volatile String filter = null;
+    private volatile int sortIndex = 0;
+
     /**
      * Main GUI
      * @param userPermissions - HashMap of user permissions
@@ -39,13 +48,64 @@ public class ListBillboards extends JFrame {
         mainLabel.setFont(new Font(mainLabel.getFont().getName(), Font.BOLD, 16));
         panel.add(mainLabel, gbc);
 
-        JPanel billboardList = new JPanel();
-        billboardList.setLayout(new GridLayout(0, 1));
+        JPanel searchPanel = new JPanel();
+        panel.add(searchPanel, gbc);
+
+        JTextField filterField = new JTextField(14);
+        searchPanel.add(new JLabel("Search:"));
+        searchPanel.add(filterField);
+
+        JComboBox<String> sortBox = new JComboBox<String>(new String[] {"Name", "Creator", "Newest"});
+        searchPanel.add(sortBox);
+
+        // Billboards are fetched from the server a page at a time as they're scrolled into view
+        PagedListModel billboards = new PagedListModel((after, limit) -> {
+            HashMap page = ServerBillboards.listBillboardsPage(SORT_ORDERS[sortIndex], sortIndex == 2, filter, after, limit);
+
+            return (ArrayList<HashMap>) page.get("billboards");
+        }, e -> JOptionPane.showMessageDialog(frame, e.getMessage()));
+
+        JList<HashMap> billboardList = new JList<HashMap>(billboards);
+        billboardList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        billboardList.setCellRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
+                String text = "Loading...";
+                if (value != null) {
+                    HashMap billboardData = (HashMap) value;
+                    boolean ourBillboard = (Integer) billboardData.get("creatorId") == Token.getUserId();
+
+                    text = billboardData.get("name") + (ourBillboard ? " (yours)" : " (creator: " + billboardData.get("creatorUsername") + ")");
+                }
+
+                return super.getListCellRendererComponent(list, text, index, isSelected, cellHasFocus);
+            }
+        });
+
+        // Fixed cell sizes so the list only asks the model for the rows it is showing
+        billboardList.setFixedCellWidth(280);
+        billboardList.setFixedCellHeight(billboardList.getFontMetrics(billboardList.getFont()).getHeight() + 4);
 
         JScrollPane scrollPane = new JScrollPane(billboardList, ScrollPaneConstants.VERTICAL_SCROLLBAR_AS_NEEDED, ScrollPaneConstants.HORIZONTAL_SCROLLBAR_AS_NEEDED);
         scrollPane.setPreferredSize(new Dimension(300, 300));
         panel.add(scrollPane, gbc);
 
+        // Start again from the first page once the user stops typing
+        Timer filterTimer = new Timer(300, e -> {
+            filter = filterField.getText().isBlank() ? null : filterField.getText();
+            billboards.reset();
+        });
+        filterTimer.setRepeats(false);
+        filterField.getDocument().addDocumentListener(new DocumentListener() {
+            public void insertUpdate(DocumentEvent e) { filterTimer.restart(); }
+            public void removeUpdate(DocumentEvent e) { filterTimer.restart(); }
+            public void changedUpdate(DocumentEvent e) { filterTimer.restart(); }
+        });
+        sortBox.addActionListener(e -> {
+            sortIndex = sortBox.getSelectedIndex();
+            billboards.reset();
+        });
+
         JPanel billboardButtons = new JPanel();
         panel.add(billboardButtons, gbc);
 
@@ -65,53 +125,18 @@ public class ListBillboards extends JFrame {
         billboardButtons.add(deleteBillboardButton);
         billboardButtons.add(editBillboardButton);
 
-        ButtonGroup radioButtons = new ButtonGroup();
-        HashMap<Integer, Integer> yourBillboards = new HashMap<Integer, Integer>();
-        HashMap<Integer, Integer> billbordIds = new HashMap<Integer, Integer>();
-
-        // Get billboards from server
-        try {
-            int index = 0;
-            ArrayList<HashMap> billboards = ServerBillboards.listBillboards();
-            for (HashMap billboardData : billboards) {
-                index++;
-
-                boolean ourBillboard = (Integer) billboardData.get("creatorId") == Token.getUserId();
-                String creatorName = (String) billboardData.get("creatorUsername");
-
-                // Add radio button
-                JRadioButton button = new JRadioButton(billboardData.get("name") + (ourBillboard ? " (yours)" : " (creator: " + creatorName + ")"));
-                button.setActionCommand(Integer.toString((Integer) billboardData.get("billboardId")));
-                radioButtons.add(button);
-                billboardList.add(button);
-
-                // Show preview/edit/delete buttons if they aren't already visible
-                billboardButtons.setVisible(true);
-
-                int billId = (Integer) billboardData.get("billboardId");
-                billbordIds.put(index, billId);
-
-                if (ourBillboard) {
-                    yourBillboards.put(index, billId);
-                }
-            }
-        } catch (BillboardServerException e) {
-            e.printStackTrace();
-
-            JOptionPane.showMessageDialog(frame, e.getMessage());
-        }
-
         frame.pack();
         frame.setLocationRelativeTo(null);
         frame.setVisible(true);
 
         // Previewing selected billboard
         previewBillboardButton.addActionListener(e -> {
-            if (radioButtons.getSelection() == null) {
+            HashMap selected = billboardList.getSelectedValue();
+            if (selected == null) {
                 return;
             }
 
-            int selectedBillboardId = Integer.parseInt(radioButtons.getSelection().getActionCommand());
+            int selectedBillboardId = (Integer) selected.get("billboardId");
 
             try {
                 String billboardData = ServerBillboards.getBillboardData(selectedBillboardId);
@@ -126,11 +151,13 @@ public class ListBillboards extends JFrame {
 
         // Editing selected billboard
         editBillboardButton.addActionListener(e -> {
-            if (radioButtons.getSelection() == null) {
+            HashMap selected = billboardList.getSelectedValue();
+            if (selected == null) {
                 return;
             }
 
-            int selectedBillboardId = Integer.parseInt(radioButtons.getSelection().getActionCommand());
+            int selectedBillboardId = (Integer) selected.get("billboardId");
+            boolean ourBillboard = (Integer) selected.get("creatorId") == Token.getUserId();
             boolean checkSchedule = false;
             try {
                 checkSchedule = CheckSchedule(selectedBillboardId);
@@ -138,7 +165,7 @@ public class ListBillboards extends JFrame {
                 ex.printStackTrace();
             }
 
-            if ((yourBillboards.containsValue(selectedBillboardId) && !checkSchedule) || userPermissions.get("editBillboards")) {
+            if ((ourBillboard && !checkSchedule) || userPermissions.get("editBillboards")) {
                 try {
                     EditBillboard.edit(selectedBillboardId);
                 } catch (BillboardServerException | SAXException | ParserConfigurationException | IOException ex) {
@@ -151,11 +178,13 @@ public class ListBillboards extends JFrame {
 
         // Deleting selected billboard
         deleteBillboardButton.addActionListener(e -> {
-            if (radioButtons.getSelection() == null) {
+            HashMap selected = billboardList.getSelectedValue();
+            if (selected == null) {
                 return;
             }
 
-            Integer selectedBillboardId = Integer.parseInt(radioButtons.getSelection().getActionCommand());
+            int selectedBillboardId = (Integer) selected.get("billboardId");
+            boolean ourBillboard = (Integer) selected.get("creatorId") == Token.getUserId();
             boolean checkSchedule = false;
             try {
                 checkSchedule = CheckSchedule(selectedBillboardId);
@@ -163,7 +192,7 @@ public class ListBillboards extends JFrame {
                 ex.printStackTrace();
             }
 
-            if((yourBillboards.containsValue(selectedBillboardId) && !checkSchedule) || userPermissions.get("editBillboards")){
+            if((ourBillboard && !checkSchedule) || userPermissions.get("editBillboards")){
                 // Warning message to see if the user wants to delete the billboard
                 int delete = JOptionPane.showConfirmDialog(frame, "Are you sure you want to delete the billboard?", "Billboard deletion", JOptionPane.YES_NO_OPTION);
                 if (delete == JOptionPane.YES_OPTION) {
@@ -0,0 +1,145 @@
+package billboard.controlpanel;
+
+import javax.swing.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * List model that fetches its rows from the server a page at a time, as they are scrolled into view.
+ *
+ * While there are more pages the model has one extra row at the end, which is null. The list only asks for the
+ * rows it is drawing (as long as it has a fixed cell width and height), so the next page is only fetched once that
+ * row is drawn, on a background thread, and the list never holds more than has been scrolled past.
+ */
+public class PagedListModel extends AbstractListModel<HashMap> {
+    /**
+     * Fetches one page of rows
+     */
+    public interface PageLoader {
+        /**
+         * @param after - Last row of the previous page, or null for the first page
+         * @param limit - Number of rows in the page
+         * @return Rows in the page, fewer than the limit if it is the last page
+         * @throws BillboardServerException if a billboard-server exception occurred
+         */
+        ArrayList<HashMap> load(HashMap after, int limit) throws BillboardServerException;
+    }
+
+    public static final int PAGE_SIZE = 50;
+
+    private final PageLoader loader;
+    private final Consumer<Exception> onError;
+
+    // Only touched on the event dispatch thread
+    private final ArrayList<HashMap> rows = new ArrayList<HashMap>();
+    private boolean hasMore = true;
+    private boolean loading = false;
+    private int generation = 0; // Pages fetched before the last reset are thrown away
+
+    /**
+     * Creates the model, the first page is fetched when the list is first drawn
+     * @param loader - Fetches pages
+     * @param onError - Called on the event dispatch thread if fetching a page fails
+     */
+    public PagedListModel(PageLoader loader, Consumer<Exception> onError) {
+        this.loader = loader;
+        this.onError = onError;
+    }
+
+    @Override
+    public int getSize() {
+        return rows.size() + (hasMore ? 1 : 0);
+    }
+
+    @Override
+    public HashMap getElementAt(int index) {
+        if (index < rows.size()) {
+            return rows.get(index);
+        }
+
+        loadMore();
+
+        return null; // Drawn as "Loading..." until the page arrives
+    }
+
+    /**
+     * Throws away the rows and starts again from the first page, after the filter or sort order changes
+     */
+    public void reset() {
+        int oldSize = getSize();
+
+        generation++;
+        rows.clear();
+        hasMore = true;
+        loading = false;
+
+        if (oldSize > 1) {
+            fireIntervalRemoved(this, 1, oldSize - 1);
+        }
+        fireContentsChanged(this, 0, 0);
+    }
+
+    /**
+     * Starts fetching the next page, unless one is already being fetched
+     */
+    private void loadMore() {
+        if (loading || !hasMore) {
+            return;
+        }
+
+        loading = true;
+
+        int requestGeneration = generation;
+        HashMap after = rows.isEmpty() ? null : rows.get(rows.size() - 1);
+
+        new SwingWorker<ArrayList<HashMap>, Void>() {
+            @Override
+            protected ArrayList<HashMap> doInBackground() throws BillboardServerException {
+                return loader.load(after, PAGE_SIZE);
+            }
+
+            @Override
+            protected void done() {
+                if (requestGeneration != generation) {
+                    return;
+                }
+
+                loading = false;
+
+                ArrayList<HashMap> page;
+                try {
+                    page = get();
+                } catch (InterruptedException | ExecutionException e) {
+                    e.printStackTrace();
+
+                    // Stop trying, so a failing server isn't asked again every time the list is drawn
+                    int oldSize = getSize();
+                    hasMore = false;
+                    fireIntervalRemoved(PagedListModel.this, oldSize - 1, oldSize - 1);
+
+                    onError.accept(e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+                    return;
+                }
+
+                int loadingRow = rows.size();
+                rows.addAll(page);
+                hasMore = page.size() >= PAGE_SIZE;
+
+                // The loading row becomes the first new row, or goes away if the page was empty
+                if (loadingRow < rows.size()) {
+                    fireContentsChanged(PagedListModel.this, loadingRow, loadingRow);
+                } else if (!hasMore) {
+                    fireIntervalRemoved(PagedListModel.this, loadingRow, loadingRow);
+                    return;
+                }
+
+                int newSize = getSize();
+                if (newSize > loadingRow + 1) {
+                    fireIntervalAdded(PagedListModel.this, loadingRow + 1, newSize - 1);
+                }
+            }
+        }.execute();
+    }
+}
@@ -2,6 +2,11 @@ package billboard.controlpanel;
 
 import billboard.server.ServerResponse;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.HashMap;
 
@@ -9,6 +14,12 @@ import java.util.HashMap;
  * Class for sending requests to the server relating to billboards
  */
 public class ServerBillboards {
+    // Billboards bigger than this are sent in chunks rather than in one request
+    private static final int STREAM_THRESHOLD_CHARS = 256 * 1024;
+
+    // Most characters asked for in one download request, the server may send fewer
+    private static final int DOWNLOAD_CHUNK_CHARS = 64 * 1024;
+
     /**
      * Gets a list of billboards
      * @return List of billboards
@@ -25,6 +36,68 @@ public class ServerBillboards {
         return billboards;
     }
 
+    /**
+     * Searches the name, message and information of every billboard
+     * @param query - Words to search for, a word ending in * matches any word starting with it
+     * @param limit - Maximum number of billboards to return
+     * @return HashMap containing "billboards" (billboard ids, names and creators, best match first) and "total"
+     * (number of billboards matching)
+     * @throws BillboardServerException if a billboard-server exception occurred
+     */
+    public static HashMap searchBillboards(String query, int limit) throws BillboardServerException {
+        HashMap data = new HashMap();
+        data.put("query", query);
+        data.put("limit", limit);
+
+        ServerResponse response = ServerConnection.sendRequest("searchBillboards", data);
+        if (response.error != null) {
+            throw new BillboardServerException(response.error);
+        }
+
+        return (HashMap) response.data;
+    }
+
+    /**
+     * Gets one page of billboards, without their data
+     * @param sort - Order to list them in: "name", "creator" or "created"
+     * @param descending - Whether to reverse the order
+     * @param filter - Text the name or creator username has to contain, or null for every billboard
+     * @param after - Last billboard of the previous page, or null for the first page
+     * @param limit - Number of billboards in the page
+     * @return HashMap containing "billboards" (billboard ids, names and creators) and "total" (number of billboards matching)
+     * @throws BillboardServerException if a billboard-server exception occurred
+     */
+    public static HashMap listBillboardsPage(String sort, boolean descending, String filter, HashMap after, int limit) throws BillboardServerException {
+        HashMap data = new HashMap();
+        data.put("sort", sort);
+        data.put("descending", descending);
+        data.put("filter", filter);
+        data.put("after", after);
+        data.put("limit", limit);
+
+        ServerResponse response = ServerConnection.sendRequest("listBillboardsPage", data);
+        if (response.error != null) {
+            throw new BillboardServerException(response.error);
+        }
+
+        return (HashMap) response.data;
+    }
+
+    /**
+     * Gets a picture from the server's blob store
+     * @param hash - Picture's hash, from a billboard's XML
+     * @return Picture bytes
+     * @throws BillboardServerException if a billboard-server exception occurred
+     */
+    public static byte[] getBlob(String hash) throws BillboardServerException {
+        ServerResponse response = ServerConnection.sendRequest("getBlob", hash);
+        if (response.error != null) {
+            throw new BillboardServerException(response.error);
+        }
+
+        return (byte[]) response.data;
+    }
+
     /**
      * Creates a billboard
      * @param billboardName - Billboard name
@@ -32,6 +105,11 @@ public class ServerBillboards {
      * @throws BillboardServerException if a billboard-server exception occurred
      */
     public static void createBillboard(String billboardName, String billboardData) throws BillboardServerException {
+        if (billboardData != null && billboardData.length() > STREAM_THRESHOLD_CHARS) {
+            uploadBillboard(billboardName, null, billboardData);
+            return;
+        }
+
         HashMap data = new HashMap();
         data.put("billboardName", billboardName);
         data.put("billboardData", billboardData);
@@ -50,6 +128,11 @@ public class ServerBillboards {
      * @throws BillboardServerException if a billboard-server exception occurred
      */
     public static void updateBillboard(String billboardName, String billboardData, Integer billboardId) throws BillboardServerException {
+        if (billboardData != null && billboardData.length() > STREAM_THRESHOLD_CHARS) {
+            uploadBillboard(billboardName, billboardId, billboardData);
+            return;
+        }
+
         HashMap data = new HashMap();
         data.put("billboardName", billboardName);
         data.put("billboardData", billboardData);
@@ -68,14 +151,120 @@ public class ServerBillboards {
      * @throws BillboardServerException if a billboard-server exception occurred
      */
     public static String getBillboardData(int billboardId) throws BillboardServerException {
-        ServerResponse response = ServerConnection.sendRequest("getBillboardData", billboardId);
+        // Fetched in chunks so the server never has to hold a large billboard in memory, small ones take one request
+        StringWriter data = new StringWriter();
+        try {
+            downloadBillboard(billboardId, data);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // Writing to a StringWriter doesn't do any IO
+        }
+
+        return data.toString();
+    }
+
+    /**
+     * Uploads a billboard's data in chunks, for billboards too big to send in one request
+     * @param billboardName - Billboard name
+     * @param billboardId - Billboard ID to update, or null to create a new billboard
+     * @param billboardData - Billboard data
+     * @throws BillboardServerException if a billboard-server exception occurred
+     */
+    private static void uploadBillboard(String billboardName, Integer billboardId, String billboardData) throws BillboardServerException {
+        try {
+            uploadBillboard(billboardName, billboardId, new StringReader(billboardData));
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // Reading a StringReader doesn't do any IO
+        }
+    }
+
+    /**
+     * Uploads a billboard's data in chunks, reading one chunk at a time so the data never has to be held in memory
+     * @param billboardName - Billboard name
+     * @param billboardId - Billboard ID to update, or null to create a new billboard
+     * @param billboardData - Reader for the billboard data
+     * @throws BillboardServerException if a billboard-server exception occurred
+     * @throws IOException if reading the billboard data fails
+     */
+    public static void uploadBillboard(String billboardName, Integer billboardId, Reader billboardData) throws BillboardServerException, IOException {
+        ServerResponse response = ServerConnection.sendRequest("beginBillboardUpload");
         if (response.error != null) {
             throw new BillboardServerException(response.error);
         }
 
-        String data = (String) response.data;
+        HashMap upload = (HashMap) response.data;
+        String uploadId = (String) upload.get("uploadId");
+        char[] buffer = new char[(int) upload.get("limit")];
 
-        return data;
+        try {
+            int read;
+            while ((read = billboardData.read(buffer)) != -1) {
+                HashMap chunk = new HashMap();
+                chunk.put("uploadId", uploadId);
+                chunk.put("data", new String(buffer, 0, read));
+
+                response = ServerConnection.sendRequest("uploadBillboardChunk", chunk);
+                if (response.error != null) {
+                    throw new BillboardServerException(response.error);
+                }
+            }
+        } catch (BillboardServerException | IOException e) {
+            // Let the server throw the partial upload away now rather than when it times out
+            ServerConnection.sendRequest("cancelBillboardUpload", uploadId);
+            throw e;
+        }
+
+        HashMap data = new HashMap();
+        data.put("uploadId", uploadId);
+        data.put("billboardName", billboardName);
+        data.put("billboardId", billboardId);
+
+        response = ServerConnection.sendRequest("finishBillboardUpload", data);
+        if (response.error != null) {
+            throw new BillboardServerException(response.error);
+        }
+    }
+
+    /**
+     * Downloads a billboard's data in chunks, writing each chunk out as it arrives
+     * @param billboardId - Billboard ID to get the data for
+     * @param out - Writer for the billboard data
+     * @throws BillboardServerException if a billboard-server exception occurred, or the billboard changed while it
+     * was being downloaded
+     * @throws IOException if writing the billboard data fails
+     */
+    public static void downloadBillboard(int billboardId, Writer out) throws BillboardServerException, IOException {
+        long offset = 0;
+        String dataHash = null;
+
+        while (true) {
+            HashMap request = new HashMap();
+            request.put("billboardId", billboardId);
+            request.put("offset", offset);
+            request.put("limit", DOWNLOAD_CHUNK_CHARS);
+
+            ServerResponse response = ServerConnection.sendRequest("getBillboardDataChunk", request);
+            if (response.error != null) {
+                throw new BillboardServerException(response.error);
+            }
+
+            HashMap chunk = (HashMap) response.data;
+
+            // Chunks of two different versions of the billboard can't be put together
+            if (dataHash != null && !dataHash.equals(chunk.get("dataHash"))) {
+                throw new BillboardServerException("Billboard changed while it was being downloaded");
+            }
+            dataHash = (String) chunk.get("dataHash");
+
+            String data = (String) chunk.get("data");
+            out.write(data);
+
+            // The server counts in code points, which an emoji is one of but takes two chars for
+            offset += data.codePointCount(0, data.length());
+
+            if (data.isEmpty() || offset >= (long) chunk.get("length")) {
+                return;
+            }
+        }
     }
 
     /**
@@ -1,10 +1,13 @@
 package billboard.controlpanel;
 
+import billboard.server.BinaryProtocol;
 import billboard.server.ServerResponse;
 
 import java.io.*;
 import java.net.Socket;
 import java.util.Properties;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 
 /**
  * Class for connecting to the server
@@ -12,13 +15,32 @@ import java.util.Properties;
 public class ServerConnection {
     private static String url;
     private static String port;
+    private static boolean propsLoaded = false;
+
+    // Persistent session settings, loaded from server.props
+    private static boolean persistent = false;
+    private static int responseTimeoutMs = 30000;
+
+    // Whether to use the binary protocol instead of Java serialization
+    private static boolean binary = false;
+
+    // Viewer subscription settings, loaded from server.props
+    private static boolean subscribe = false;
+    private static int subscriptionTimeoutMs = 90000;
+
+    // Channel this viewer is on, null if it isn't on one
+    private static String channel = null;
+
+    private static ClientSession session = null;
 
     /**
-     * Gets the server socket using data from server.props
-     * @return Server socket
-     * @throws IOException if starting the socket fails
+     * Loads the server connection information from server.props, the first time it is needed
      */
-    public static Socket getSocket() throws IOException {
+    private static synchronized void loadProps() {
+        if (propsLoaded) {
+            return;
+        }
+
         // Load in server props
         Properties props = new Properties();
         FileInputStream in = null;
@@ -33,15 +55,49 @@ public class ServerConnection {
             url = props.getProperty("url");
             port = props.getProperty("port");
 
+            persistent = Boolean.parseBoolean(props.getProperty("client.persistentConnection", "false"));
+            responseTimeoutMs = Integer.parseInt(props.getProperty("client.responseTimeoutMs", String.valueOf(responseTimeoutMs)));
+            binary = props.getProperty("client.protocol", "serialized").equals("binary");
+
+            subscribe = Boolean.parseBoolean(props.getProperty("client.subscribe", "false"));
+            subscriptionTimeoutMs = Integer.parseInt(props.getProperty("client.subscriptionTimeoutMs", String.valueOf(subscriptionTimeoutMs)));
+
+            String channelName = props.getProperty("client.channel", "").trim();
+            channel = channelName.isEmpty() ? null : channelName;
+
+            propsLoaded = true;
         }
         catch (Exception e){
             e.printStackTrace();
         }
+    }
+
+    /**
+     * Gets the server socket using data from server.props
+     * @return Server socket
+     * @throws IOException if starting the socket fails
+     */
+    public static Socket getSocket() throws IOException {
+        loadProps();
 
         // set up socket (or HTTP) connection with server
         return new Socket(url, Integer.parseInt(port));
     }
 
+    /**
+     * Gets the persistent session with the server, opening a new one if there isn't one open
+     * @return Open session
+     * @throws IOException if connecting fails
+     * @throws BillboardServerException if the server won't open a session
+     */
+    private static synchronized ClientSession getSession() throws IOException, BillboardServerException {
+        if (session == null || !session.isOpen()) {
+            session = new ClientSession(getSocket(), Token.getToken(), binary);
+        }
+
+        return session;
+    }
+
     /**
      * Sends a server request with data
      * @param requestType - Type of request
@@ -49,6 +105,46 @@ public class ServerConnection {
      * @return Server response
      */
     public static ServerResponse sendRequest(String requestType, Object data) {
+        loadProps();
+
+        if (persistent) {
+            try {
+                try {
+                    return getSession().sendRequest(requestType, Token.getToken(), data, responseTimeoutMs);
+                } catch (IOException e) {
+                    // The session dropped before the request was sent, so it's safe to send it on a new one
+                    return getSession().sendRequest(requestType, Token.getToken(), data, responseTimeoutMs);
+                }
+            } catch (BillboardServerException e) {
+                // Send this request on its own connection. Only stop trying sessions if the server doesn't allow
+                // them, other errors (e.g. "Too many sessions") may have gone by the next request
+                System.out.println("Persistent connection unavailable: " + e.getMessage());
+                if (e.getMessage().equals("Sessions not supported")) {
+                    persistent = false;
+                }
+            } catch (IOException | TimeoutException e) {
+                e.printStackTrace();
+
+                ServerResponse failedResponse = new ServerResponse();
+                failedResponse.error = "Failed to connect to server";
+                return failedResponse;
+            }
+        }
+
+        return sendSingleRequest(requestType, data);
+    }
+
+    /**
+     * Sends a server request over a new connection, which is closed once the response is received
+     * @param requestType - Type of request
+     * @param data - Object containing request data
+     * @return Server response
+     */
+    private static ServerResponse sendSingleRequest(String requestType, Object data) {
+        if (binary) {
+            return sendSingleBinaryRequest(requestType, data);
+        }
+
         try {
             Socket socket = ServerConnection.getSocket();
 
@@ -89,6 +185,115 @@ public class ServerConnection {
         }
     }
 
+    /**
+     * Sends a server request using the binary protocol over a new connection, which is closed once the response is received
+     * @param requestType - Type of request
+     * @param data - Object containing request data
+     * @return Server response
+     */
+    private static ServerResponse sendSingleBinaryRequest(String requestType, Object data) {
+        try (Socket socket = ServerConnection.getSocket()) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+            // Send request
+            BinaryProtocol.writeHeader(out);
+            BinaryProtocol.writeRequest(out, 0, requestType, Token.getToken(), data);
+            out.flush();
+
+            // Get response
+            ServerResponse outputData = new ServerResponse();
+            BinaryProtocol.readResponse(in, outputData);
+
+            return outputData;
+        } catch (IOException e) {
+            e.printStackTrace();
+
+            ServerResponse failedResponse = new ServerResponse();
+            failedResponse.error = "Failed to connect to server";
+            return failedResponse;
+        }
+    }
+
+    /**
+     * Gets whether viewers should subscribe to billboard changes rather than polling for them
+     * @return Whether subscriptions are enabled
+     */
+    public static boolean isSubscribeEnabled() {
+        loadProps();
+
+        return subscribe;
+    }
+
+    /**
+     * Gets the channel this viewer is on, which decides which schedules it shows
+     * @return Channel name, or null if it isn't on one
+     */
+    public static String getChannel() {
+        loadProps();
+
+        return channel;
+    }
+
+    /**
+     * Sends a subscription request and passes each response the server pushes back to a listener. This blocks
+     * until the connection drops, keepalives from the server (responses without data) aren't passed on
+     * @param requestType - Type of subscription request
+     * @param data - Object containing request data, always sent
+     * @param listener - Listener for pushed data
+     * @throws IOException if the connection fails or the server stops responding
+     * @throws BillboardServerException if the server won't accept the subscription
+     */
+    public static void subscribe(String requestType, Object data, Consumer<Object> listener) throws IOException, BillboardServerException {
+        try (Socket socket = ServerConnection.getSocket()) {
+            // The server sends keepalives, so if nothing arrives for a while the connection is dead
+            socket.setSoTimeout(subscriptionTimeoutMs);
+
+            DataInputStream binaryIn = null;
+            ObjectInputStream ois = null;
+
+            if (binary) {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                binaryIn = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+                BinaryProtocol.writeHeader(out);
+                BinaryProtocol.writeRequest(out, 0, requestType, Token.getToken(), data);
+                out.flush();
+            } else {
+                ObjectOutputStream oos = new ObjectOutputStream(socket.getOutputStream());
+                ois = new ObjectInputStream(socket.getInputStream());
+
+                oos.writeUTF(requestType);
+                oos.writeUTF(Token.getToken());
+                oos.writeObject(data);
+                oos.flush();
+            }
+
+            while (true) {
+                ServerResponse response;
+
+                if (binaryIn != null) {
+                    response = new ServerResponse();
+                    BinaryProtocol.readResponse(binaryIn, response);
+                } else {
+                    try {
+                        response = (ServerResponse) ois.readObject();
+                    } catch (ClassNotFoundException e) {
+                        throw new IOException(e);
+                    }
+                }
+
+                if (response.error != null) {
+                    throw new BillboardServerException(response.error);
+                }
+
+                if (response.data != null) {
+                    listener.accept(response.data);
+                }
+            }
+        }
+    }
+
     /**
      * Sends a server request without data
      * @param requestType - Type of request
@@ -2,8 +2,11 @@ package billboard.controlpanel;
 
 import billboard.server.ServerResponse;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.function.Consumer;
 
 /**
  * Class for sending requests to the server relating to schedules
@@ -20,6 +23,21 @@ public class ServerSchedules {
      * @throws BillboardServerException if a billboard-server exception occurred
      */
     public static void addSchedule(int billboardId, int day, int minutesStart, int minutesDuration, boolean repeating, int minutesRepeatGap) throws BillboardServerException {
+        addSchedule(billboardId, day, minutesStart, minutesDuration, repeating, minutesRepeatGap, null);
+    }
+
+    /**
+     * Adds a schedule for a billboard on one channel of screens
+     * @param billboardId - Billboard ID to add schedule for
+     * @param day - Schedule day
+     * @param minutesStart - Schedule minutes start
+     * @param minutesDuration - Schedule minutes duration
+     * @param repeating - If the schedule is repeating or not
+     * @param minutesRepeatGap - Schedule repeat minutes gap
+     * @param channel - Channel the schedule is for, or null for every screen
+     * @throws BillboardServerException if a billboard-server exception occurred
+     */
+    public static void addSchedule(int billboardId, int day, int minutesStart, int minutesDuration, boolean repeating, int minutesRepeatGap, String channel) throws BillboardServerException {
         HashMap data = new HashMap();
         data.put("billboardId", billboardId);
         data.put("day", day);
@@ -27,6 +45,43 @@ public class ServerSchedules {
         data.put("minutesDuration", minutesDuration);
         data.put("repeating", repeating);
         data.put("minutesRepeatGap", minutesRepeatGap);
+        data.put("channel", channel);
+
+        ServerResponse response = ServerConnection.sendRequest("addSchedule", data);
+        if (response.error != null) {
+            throw new BillboardServerException(response.error);
+        }
+    }
+
+    /**
+     * Adds a dated schedule for a billboard, which only shows between its start and end dates
+     * @param billboardId - Billboard ID to add schedule for
+     * @param day - Day of the week of the first showing
+     * @param minutesStart - Schedule minutes start
+     * @param minutesDuration - Schedule minutes duration
+     * @param repeating - If the schedule is repeating or not (repeats carry on across days until the end date)
+     * @param minutesRepeatGap - Schedule repeat minutes gap
+     * @param startDate - First date the schedule can show on (yyyy-mm-dd)
+     * @param endDate - Last date a showing can start on (yyyy-mm-dd), or null to never stop
+     * @param timezone - Time zone ID, e.g. "Australia/Brisbane", or null for the server's
+     * @param exceptionDates - Dates the schedule doesn't show on (yyyy-mm-dd)
+     * @param channel - Channel the schedule is for, or null for every screen
+     * @throws BillboardServerException if a billboard-server exception occurred
+     */
+    public static void addDatedSchedule(int billboardId, int day, int minutesStart, int minutesDuration, boolean repeating, int minutesRepeatGap,
+                                        String startDate, String endDate, String timezone, ArrayList<String> exceptionDates, String channel) throws BillboardServerException {
+        HashMap data = new HashMap();
+        data.put("billboardId", billboardId);
+        data.put("day", day);
+        data.put("minutesStart", minutesStart);
+        data.put("minutesDuration", minutesDuration);
+        data.put("repeating", repeating);
+        data.put("minutesRepeatGap", minutesRepeatGap);
+        data.put("startDate", startDate);
+        data.put("endDate", endDate);
+        data.put("timezone", timezone);
+        data.put("exceptionDates", exceptionDates);
+        data.put("channel", channel);
 
         ServerResponse response = ServerConnection.sendRequest("addSchedule", data);
         if (response.error != null) {
@@ -54,7 +109,20 @@ public class ServerSchedules {
      * @throws BillboardServerException if a billboard-server exception occurred
      */
     public static HashMap getCurrentBillboard() throws BillboardServerException {
-        ServerResponse response = ServerConnection.sendRequest("getCurrentBillboard", null);
+        return getCurrentBillboard(null);
+    }
+
+    /**
+     * Gets the billboard currently scheduled on a channel
+     * @param channel - Channel name, or null for screens without one
+     * @return HashMap containing the current billboard's data
+     * @throws BillboardServerException if a billboard-server exception occurred
+     */
+    public static HashMap getCurrentBillboard(String channel) throws BillboardServerException {
+        // Screens without a channel use the original request, which has no data
+        ServerResponse response = channel == null
+                ? ServerConnection.sendRequest("getCurrentBillboard")
+                : ServerConnection.sendRequest("getChannelBillboard", channel);
         if (response.error != null) {
             throw new BillboardServerException(response.error);
         }
@@ -64,6 +132,70 @@ public class ServerSchedules {
         return currentBillboard;
     }
 
+    /**
+     * Gets the currently scheduled billboard, unless it's the one already being shown
+     * @param dataHash - Data hash of the billboard being shown, or null if there isn't one
+     * @return HashMap containing the current billboard's data, or null if it hasn't changed
+     * @throws BillboardServerException if a billboard-server exception occurred
+     */
+    public static HashMap getCurrentBillboardIfChanged(String dataHash) throws BillboardServerException {
+        return getCurrentBillboardIfChanged(null, dataHash);
+    }
+
+    /**
+     * Gets the billboard currently scheduled on a channel, unless it's the one already being shown
+     * @param channel - Channel name, or null for screens without one
+     * @param dataHash - Data hash of the billboard being shown, or null if there isn't one
+     * @return HashMap containing the current billboard's data, or null if it hasn't changed
+     * @throws BillboardServerException if a billboard-server exception occurred
+     */
+    public static HashMap getCurrentBillboardIfChanged(String channel, String dataHash) throws BillboardServerException {
+        HashMap data = new HashMap();
+        data.put("dataHash", dataHash);
+        data.put("channel", channel);
+
+        ServerResponse response = ServerConnection.sendRequest("getCurrentBillboardIfChanged", data);
+        if (response.error != null) {
+            throw new BillboardServerException(response.error);
+        }
+
+        return (HashMap) response.data;
+    }
+
+    /**
+     * Subscribes to the billboard scheduled on a channel, blocking until the connection drops
+     * @param channel - Channel name, or null for screens without one
+     * @param listener - Listener given the current billboard's data straight away, then each time it changes
+     * @throws IOException if the connection fails
+     * @throws BillboardServerException if the server won't accept the subscription
+     */
+    public static void subscribeCurrentBillboard(String channel, Consumer<HashMap> listener) throws IOException, BillboardServerException {
+        ServerConnection.subscribe("subscribeCurrentBillboard", channel == null ? "" : channel, data -> listener.accept((HashMap) data));
+    }
+
+    /**
+     * Gets what a channel will show over the coming minutes, for viewers to keep in case the server goes down
+     * @param channel - Channel name, or null for screens without one
+     * @param minutes - Length of the window (at most a week)
+     * @param knownHashes - Data hashes of the billboards already stored, which aren't sent again
+     * @return HashMap containing "showings" (start, end and data hash of each billboard shown, in order) and
+     * "billboards" (data of the billboards not already stored, by data hash)
+     * @throws BillboardServerException if a billboard-server exception occurred
+     */
+    public static HashMap getScheduleWindow(String channel, int minutes, Collection<String> knownHashes) throws BillboardServerException {
+        HashMap data = new HashMap();
+        data.put("channel", channel);
+        data.put("minutes", minutes);
+        data.put("knownHashes", new ArrayList<String>(knownHashes));
+
+        ServerResponse response = ServerConnection.sendRequest("getScheduleWindow", data);
+        if (response.error != null) {
+            throw new BillboardServerException(response.error);
+        }
+
+        return (HashMap) response.data;
+    }
+
     /**
      * Gets the schedule for a billboard
      * @param searchingBillboardId - Billboard ID to get schedule for
@@ -28,6 +28,30 @@ public class ServerUsers {
         return usernames;
     }
 
+    /**
+     * Gets one page of users in username order
+     * @param filter - Text the username has to contain, or null for every user
+     * @param descending - Whether to list them in reverse order
+     * @param after - Last username of the previous page, or null for the first page
+     * @param limit - Number of users in the page
+     * @return HashMap containing "users" (each user's ID and username) and "total" (number of users matching)
+     * @throws BillboardServerException if a billboard-server exception occurred
+     */
+    public static HashMap listUsersPage(String filter, boolean descending, String after, int limit) throws BillboardServerException {
+        HashMap data = new HashMap();
+        data.put("filter", filter);
+        data.put("descending", descending);
+        data.put("after", after);
+        data.put("limit", limit);
+
+        ServerResponse response = ServerConnection.sendRequest("listUsersPage", data);
+        if (response.error != null) {
+            throw new BillboardServerException(response.error);
+        }
+
+        return (HashMap) response.data;
+    }
+
     /**
      * Updates the password of the userId that is given
      * @param userId - User ID to update
@@ -2,12 +2,19 @@ package billboard.controlpanel;
 
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import java.awt.*;
+import java.util.ArrayList;
+import java.util.HashMap;
 
 /**
  * GUI for the user list
  */
 public class Users extends JFrame {
+    // Search the list is showing, set on the event dispatch thread and read when fetching pages
+    private volatile String filter = null;
+
     /**
      * Main GUI
      */
@@ -27,8 +34,34 @@ public class Users extends JFrame {
         mainLabel.setFont(new Font(mainLabel.getFont().getName(), Font.BOLD, 16));
         panel.add(mainLabel, gbc);
 
-        JPanel userList = new JPanel();
-        userList.setLayout(new GridLayout(0, 1));
+        JPanel searchPanel = new JPanel();
+        panel.add(searchPanel, gbc);
+
+        JTextField filterField = new JTextField(18);
+        searchPanel.add(new JLabel("Search:"));
+        searchPanel.add(filterField);
+
+        // Users are fetched from the server a page at a time as they're scrolled into view
+        PagedListModel users = new PagedListModel((after, limit) -> {
+            HashMap page = ServerUsers.listUsersPage(filter, false, after == null ? null : (String) after.get("username"), limit);
+
+            return (ArrayList<HashMap>) page.get("users");
+        }, e -> JOptionPane.showMessageDialog(frame, e.getMessage()));
+
+        JList<HashMap> userList = new JList<HashMap>(users);
+        userList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        userList.setCellRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
+                String text = value == null ? "Loading..." : (String) ((HashMap) value).get("username");
+
+                return super.getListCellRendererComponent(list, text, index, isSelected, cellHasFocus);
+            }
+        });
+
+        // Fixed cell sizes so the list only asks the model for the rows it is showing
+        userList.setFixedCellWidth(280);
+        userList.setFixedCellHeight(userList.getFontMetrics(userList.getFont()).getHeight() + 4);
 
         JScrollPane scrollPane = new JScrollPane(userList, ScrollPaneConstants.VERTICAL_SCROLLBAR_AS_NEEDED, ScrollPaneConstants.HORIZONTAL_SCROLLBAR_AS_NEEDED);
         scrollPane.setPreferredSize(new Dimension(300, 300));
@@ -46,33 +79,29 @@ public class Users extends JFrame {
         JButton deleteUserButton = new JButton("Delete User");
         userButtons.add(deleteUserButton);
 
-        ButtonGroup radioButtons = new ButtonGroup();
-
-        // Get billboards from server
-        try {
-            ServerUsers.getUsernames().forEach((userId, username) -> {
-                JRadioButton button = new JRadioButton(username);
-                button.setActionCommand(Integer.toString(userId));
-                radioButtons.add(button);
-                userList.add(button);
-                userButtons.setVisible(true);
-            });
-        } catch (BillboardServerException e) {
-            e.printStackTrace();
-            
-            JOptionPane.showMessageDialog(frame, e.getMessage());
-        }
+        // Start again from the first page once the user stops typing
+        Timer filterTimer = new Timer(300, e -> {
+            filter = filterField.getText().isBlank() ? null : filterField.getText();
+            users.reset();
+        });
+        filterTimer.setRepeats(false);
+        filterField.getDocument().addDocumentListener(new DocumentListener() {
+            public void insertUpdate(DocumentEvent e) { filterTimer.restart(); }
+            public void removeUpdate(DocumentEvent e) { filterTimer.restart(); }
+            public void changedUpdate(DocumentEvent e) { filterTimer.restart(); }
+        });
 
         frame.pack();
         frame.setLocationRelativeTo(null);
         frame.setVisible(true);
 
         editPasswordButton.addActionListener(e -> {
-            if (radioButtons.getSelection() == null) {
+            HashMap selected = userList.getSelectedValue();
+            if (selected == null) {
                 return;
             }
 
-            int selectedUserId = Integer.parseInt(radioButtons.getSelection().getActionCommand());
+            int selectedUserId = (Integer) selected.get("userId");
 
             try {
                 new EditUserPassword(selectedUserId);
@@ -85,11 +114,12 @@ public class Users extends JFrame {
 
         //editing the users permissions
         editPermissionsButton.addActionListener(e -> {
-            if (radioButtons.getSelection() == null) {
+            HashMap selected = userList.getSelectedValue();
+            if (selected == null) {
                 return;
             }
 
-            int selectedUserId = Integer.parseInt(radioButtons.getSelection().getActionCommand());
+            int selectedUserId = (Integer) selected.get("userId");
 
             try {
                 new EditUser(selectedUserId);
@@ -103,11 +133,12 @@ public class Users extends JFrame {
 
         // Deleting the users
         deleteUserButton.addActionListener(e -> {
-            if (radioButtons.getSelection() == null) {
+            HashMap selected = userList.getSelectedValue();
+            if (selected == null) {
                 return;
             }
 
-            int selectedUserId = Integer.parseInt(radioButtons.getSelection().getActionCommand());
+            int selectedUserId = (Integer) selected.get("userId");
             if (selectedUserId == Token.getUserId()){
                 JOptionPane.showMessageDialog(frame, "Cannot delete yourself!");
                 return;
@@ -0,0 +1,18 @@
+package billboard.server;
+
+import java.util.HashMap;
+
+/**
+ * Class for the user and permissions behind a session token
+ */
+public class AuthContext {
+    public final int userId;
+
+    // Shared with the session cache, so it must not be changed
+    public final HashMap<String, Boolean> permissions;
+
+    public AuthContext(int userId, HashMap<String, Boolean> permissions) {
+        this.userId = userId;
+        this.permissions = permissions;
+    }
+}
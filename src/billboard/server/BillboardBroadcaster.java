@@ -0,0 +1,320 @@
+package billboard.server;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Objects;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pushes the current billboard to subscribed viewers as soon as it changes, instead of viewers polling for it.
+ *
+ * The broadcaster wakes up at the next schedule transition (from the {@link CurrentBillboardCache}), or straight
+ * away when a schedule or billboard is changed, and only sends the billboard to subscribers that are showing
+ * something different. Writes are handed to a pool of writer threads, so one slow viewer doesn't hold up pushes
+ * to the rest. Subscribers are also sent an empty keepalive response every so often, which is how
+ * viewers that have gone away are noticed and removed. Each subscriber is sent the billboard for its own
+ * channel, which is only read once per check however many viewers are on it.
+ */
+public class BillboardBroadcaster {
+    /**
+     * Writes a pushed response to a subscriber's connection
+     */
+    public interface PushWriter {
+        void write(ServerResponse response) throws IOException;
+    }
+
+    /**
+     * Helper class for holding a subscribed viewer.
+     *
+     * Pushes are queued on the subscriber and written by one of the writer threads, so a slow viewer only holds up
+     * its own pushes. Only the newest billboard is kept while a write is in progress, older ones are never sent
+     */
+    private static class Subscriber {
+        public final Socket socket;
+        public final PushWriter writer;
+        public final String channel; // Null if the viewer isn't on a channel
+
+        private HashMap lastSent = null; // Last billboard sent to the subscriber, only touched by the writing thread
+        private HashMap pendingBillboard = null; // Newest billboard waiting to be sent
+        private boolean pendingKeepalive = false;
+        private boolean writing = false; // Whether a writer thread is sending the subscriber's pushes
+
+        public Subscriber(Socket socket, PushWriter writer, String channel) {
+            this.socket = socket;
+            this.writer = writer;
+            this.channel = channel;
+        }
+
+        /**
+         * Queues a billboard to send to the subscriber, it's only sent if it isn't the one it already has
+         * @param billboard - Current billboard
+         */
+        public synchronized void sendBillboard(HashMap billboard) {
+            pendingBillboard = billboard;
+            startWriting();
+        }
+
+        /**
+         * Queues a keepalive to send to the subscriber
+         */
+        public synchronized void sendKeepalive() {
+            pendingKeepalive = true;
+            startWriting();
+        }
+
+        /**
+         * Hands the subscriber to a writer thread, unless one is already sending its pushes
+         */
+        private synchronized void startWriting() {
+            if (writing) {
+                return;
+            }
+
+            writing = true;
+            try {
+                writers.execute(this::writePending);
+            } catch (RejectedExecutionException e) {
+                writing = false; // Shutting down
+            }
+        }
+
+        /**
+         * Sends queued pushes until there are none left
+         */
+        private void writePending() {
+            while (true) {
+                HashMap billboard;
+                boolean keepalive;
+                synchronized (this) {
+                    billboard = pendingBillboard;
+                    keepalive = pendingKeepalive;
+                    pendingBillboard = null;
+                    pendingKeepalive = false;
+
+                    if (billboard == null && !keepalive) {
+                        writing = false;
+                        return;
+                    }
+                }
+
+                ServerResponse response = new ServerResponse();
+                if (billboard != null && (lastSent == null || !sameBillboard(billboard, lastSent))) {
+                    lastSent = billboard;
+                    response.data = billboard;
+                } else if (!keepalive) {
+                    continue; // Already showing it
+                }
+
+                // A billboard push counts as a keepalive too
+                if (!write(response)) {
+                    synchronized (this) {
+                        pendingBillboard = null;
+                        pendingKeepalive = false;
+                        writing = false;
+                    }
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Writes a response to the subscriber, dropping it if the write fails
+         * @param response - Response to send
+         * @return Whether the write succeeded
+         */
+        private boolean write(ServerResponse response) {
+            if (socket.isClosed()) {
+                subscribers.remove(this);
+                return false;
+            }
+
+            ScheduledFuture<?> writeTimeout = Server.startWriteTimeout(socket);
+            try {
+                writer.write(response);
+                return true;
+            } catch (IOException e) {
+                // The viewer has gone
+                subscribers.remove(this);
+
+                try {
+                    socket.close();
+                } catch (IOException e2) {
+                    e2.printStackTrace();
+                }
+
+                return false;
+            } finally {
+                writeTimeout.cancel(false);
+            }
+        }
+    }
+
+    private static final CopyOnWriteArrayList<Subscriber> subscribers = new CopyOnWriteArrayList<Subscriber>();
+
+    private static ScheduledExecutorService pusher = null;
+    private static ExecutorService writers = null;
+    private static ScheduledFuture<?> nextCheck = null;
+
+    // Longest time between checks, in case the clock jumps
+    private static final long MAX_CHECK_INTERVAL_MS = 60000;
+
+    /**
+     * Starts the thread that checks for billboard changes, and the threads that write them to subscribers
+     * @param keepaliveIntervalMs - Time between keepalives
+     * @param writerThreads - Number of threads writing to subscribers
+     */
+    public static synchronized void start(long keepaliveIntervalMs, int writerThreads) {
+        if (pusher != null) {
+            return;
+        }
+
+        pusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "billboard-broadcaster");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        AtomicInteger writerCount = new AtomicInteger();
+        writers = Executors.newFixedThreadPool(Math.max(writerThreads, 1), runnable -> {
+            Thread thread = new Thread(runnable, "billboard-push-" + writerCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        pusher.scheduleWithFixedDelay(() -> {
+            for (Subscriber subscriber : subscribers) {
+                subscriber.sendKeepalive();
+            }
+        }, keepaliveIntervalMs, keepaliveIntervalMs, TimeUnit.MILLISECONDS);
+
+        scheduleCheck(0);
+    }
+
+    /**
+     * Subscribes a viewer to billboard changes, sending it the current billboard straight away
+     * @param socket - Viewer's socket, closed if a push to it fails
+     * @param writer - Writer for the viewer's connection
+     * @param channel - Channel the viewer is on, or null if it isn't on one
+     * @param maxSubscribers - Most viewers that can be subscribed at once
+     * @return Whether the viewer was subscribed
+     * @throws SQLException if reading the current billboard fails
+     */
+    public static boolean subscribe(Socket socket, PushWriter writer, String channel, int maxSubscribers) throws SQLException {
+        if (subscribers.size() >= maxSubscribers) {
+            return false;
+        }
+
+        Subscriber subscriber = new Subscriber(socket, writer, channel);
+
+        // Queue the initial billboard before it's added, so a push can't be sent before it
+        subscriber.sendBillboard(CurrentBillboardCache.get(channel));
+        subscribers.add(subscriber);
+
+        // Checks stop while nobody is subscribed, so start them again for the first subscriber
+        if (subscribers.size() == 1) {
+            notifyChanged();
+        }
+
+        return true;
+    }
+
+    /**
+     * Gets the number of subscribed viewers
+     * @return Subscriber count
+     */
+    public static int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    /**
+     * Lets the broadcaster know a schedule or billboard has changed, so it can check whether the current
+     * billboard is different now
+     */
+    public static void notifyChanged() {
+        scheduleCheck(0);
+    }
+
+    /**
+     * Schedules the next check of the current billboard, replacing any check already scheduled
+     * @param delayMs - Time until the check
+     */
+    private static synchronized void scheduleCheck(long delayMs) {
+        if (pusher == null) {
+            return;
+        }
+
+        if (nextCheck != null) {
+            // Keep a check that's already due sooner, e.g. from a change while the last check was running
+            if (nextCheck.getDelay(TimeUnit.MILLISECONDS) <= delayMs) {
+                return;
+            }
+
+            nextCheck.cancel(false);
+        }
+
+        nextCheck = pusher.schedule(BillboardBroadcaster::check, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Pushes the current billboard to subscribers if it has changed, then waits for the next transition
+     */
+    private static void check() {
+        synchronized (BillboardBroadcaster.class) {
+            nextCheck = null;
+        }
+
+        // Nothing to do until someone subscribes, they are sent the current billboard when they do
+        if (subscribers.isEmpty()) {
+            scheduleCheck(MAX_CHECK_INTERVAL_MS);
+            return;
+        }
+
+        long delayMs = MAX_CHECK_INTERVAL_MS;
+
+        try {
+            // Each channel's billboard is only read once, however many subscribers are on it
+            HashMap<String, HashMap> currentByChannel = new HashMap<String, HashMap>();
+
+            for (Subscriber subscriber : subscribers) {
+                String key = subscriber.channel == null ? "" : subscriber.channel;
+
+                HashMap current = currentByChannel.get(key);
+                if (current == null) {
+                    current = CurrentBillboardCache.get(subscriber.channel);
+                    currentByChannel.put(key, current);
+
+                    // Check again at the soonest transition of any channel
+                    long validUntil = CurrentBillboardCache.getValidUntil(subscriber.channel);
+                    delayMs = Math.min(delayMs, validUntil == 0 ? 1000 : Math.max(validUntil - System.currentTimeMillis(), 0));
+                }
+
+                // Only subscribers showing something else are sent it, by the writer threads
+                subscriber.sendBillboard(current);
+            }
+        } catch (SQLException e) {
+            System.out.println("- Error: Failed to check the current billboard: " + e.getMessage());
+            delayMs = 1000;
+        } finally {
+            DbConnection.release();
+        }
+
+        scheduleCheck(delayMs);
+    }
+
+    /**
+     * Checks whether two current billboard results show the same thing
+     * @param a - First billboard
+     * @param b - Second billboard
+     * @return Whether they are the same
+     */
+    private static boolean sameBillboard(HashMap a, HashMap b) {
+        if (a.get("dataHash") != null && b.get("dataHash") != null) {
+            return a.get("dataHash").equals(b.get("dataHash"));
+        }
+
+        return a == b || Objects.equals(a.get("data"), b.get("data"));
+    }
+}
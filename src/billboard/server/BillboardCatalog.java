@@ -0,0 +1,303 @@
+package billboard.server;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * In-memory catalog of every billboard's name and creator, for listing billboards without reading their XML.
+ *
+ * The catalog is loaded once with a query that leaves out the data column, then kept up to date as billboards
+ * are created, updated and deleted, so listing costs the same however big the billboards are. Each version is
+ * kept sorted by each of the orders billboards can be listed in, and replaced rather than changed, so it can be
+ * read without locking.
+ */
+public class BillboardCatalog {
+    /**
+     * Helper class for one billboard in the catalog
+     */
+    private static class Entry {
+        public final int billboardId;
+        public final String name;
+        public final int creatorId;
+        public final String creatorUsername;
+
+        public Entry(int billboardId, String name, int creatorId, String creatorUsername) {
+            this.billboardId = billboardId;
+            this.name = name;
+            this.creatorId = creatorId;
+            this.creatorUsername = creatorUsername;
+        }
+
+        /**
+         * Converts the entry to the format sent to clients
+         * @return HashMap containing the billboard ID, name, creator ID and creator username
+         */
+        public HashMap toHashMap() {
+            HashMap billboardData = new HashMap();
+            billboardData.put("billboardId", billboardId);
+            billboardData.put("name", name);
+            billboardData.put("creatorId", creatorId);
+            billboardData.put("creatorUsername", creatorUsername);
+
+            return billboardData;
+        }
+    }
+
+    // Orders billboards can be listed in, each ending on the billboard ID so no two billboards are equal
+    private static final Comparator<Entry> BY_ID = Comparator.comparingInt(entry -> entry.billboardId);
+    private static final Comparator<Entry> BY_NAME = Comparator.comparing((Entry entry) -> entry.name, String.CASE_INSENSITIVE_ORDER).thenComparing(BY_ID);
+    private static final Comparator<Entry> BY_CREATOR = Comparator.comparing((Entry entry) -> entry.creatorUsername, String.CASE_INSENSITIVE_ORDER).thenComparing(BY_NAME);
+
+    /**
+     * Helper class for one version of the catalog
+     */
+    private static class Snapshot {
+        public final Entry[] byId;
+        public final Entry[] byName;
+        public final Entry[] byCreator;
+
+        public Snapshot(Entry[] entries) {
+            this.byId = sorted(entries, BY_ID);
+            this.byName = sorted(entries, BY_NAME);
+            this.byCreator = sorted(entries, BY_CREATOR);
+        }
+
+        private static Entry[] sorted(Entry[] entries, Comparator<Entry> order) {
+            Entry[] sorted = entries.clone();
+            Arrays.sort(sorted, order);
+
+            return sorted;
+        }
+    }
+
+    // Maximum billboards in one page
+    static final int MAX_PAGE_SIZE = 500;
+
+    // Null until it's first needed
+    private static volatile Snapshot snapshot = null;
+
+    /**
+     * Loads the catalog from the database
+     * @throws SQLException if an SQL exception occurs
+     */
+    public static synchronized void load() throws SQLException {
+        Connection connection = DbConnection.getInstance();
+
+        Statement statement = connection.createStatement();
+        ResultSet rs = statement.executeQuery("SELECT b.billboardId, b.name, b.userId, u.username FROM Billboards as b " +
+                "INNER JOIN Users as u ON u.userId = b.userId");
+
+        ArrayList<Entry> entries = new ArrayList<Entry>();
+        while (rs.next()) {
+            entries.add(fromRow(rs));
+        }
+
+        snapshot = new Snapshot(entries.toArray(new Entry[0]));
+    }
+
+    /**
+     * Gets the current catalog, loading it the first time
+     * @return Catalog
+     * @throws SQLException if an SQL exception occurs
+     */
+    private static Snapshot getSnapshot() throws SQLException {
+        Snapshot current = snapshot;
+        if (current == null) {
+            load();
+            current = snapshot;
+        }
+
+        return current;
+    }
+
+    /**
+     * Creates a catalog entry from a row
+     * @param rs - Result set on the row
+     * @return Catalog entry
+     * @throws SQLException if an SQL exception occurs
+     */
+    private static Entry fromRow(ResultSet rs) throws SQLException {
+        return new Entry(rs.getInt("billboardId"), rs.getString("name"), rs.getInt("userId"), rs.getString("username"));
+    }
+
+    /**
+     * Reads a billboard's catalog entry again, after it has been created or updated
+     * @param billboardId - Billboard ID
+     * @throws SQLException if an SQL exception occurs
+     */
+    public static synchronized void reload(int billboardId) throws SQLException {
+        if (snapshot == null) {
+            return; // It'll be read with the rest when the catalog is loaded
+        }
+
+        Connection connection = DbConnection.getInstance();
+
+        PreparedStatement statement = connection.prepareStatement("SELECT b.billboardId, b.name, b.userId, u.username FROM Billboards as b " +
+                "INNER JOIN Users as u ON u.userId = b.userId WHERE b.billboardId=?");
+        statement.setInt(1, billboardId);
+        ResultSet rs = statement.executeQuery();
+
+        ArrayList<Entry> entries = without(billboardId);
+        if (rs.next()) {
+            entries.add(fromRow(rs));
+        }
+
+        snapshot = new Snapshot(entries.toArray(new Entry[0]));
+    }
+
+    /**
+     * Removes a billboard from the catalog, after it has been deleted
+     * @param billboardId - Billboard ID
+     */
+    public static synchronized void remove(int billboardId) {
+        if (snapshot == null) {
+            return;
+        }
+
+        snapshot = new Snapshot(without(billboardId).toArray(new Entry[0]));
+    }
+
+    /**
+     * Gets every catalog entry except one billboard's
+     * @param billboardId - Billboard ID to leave out
+     * @return Catalog entries
+     */
+    private static ArrayList<Entry> without(int billboardId) {
+        ArrayList<Entry> entries = new ArrayList<Entry>(Arrays.asList(snapshot.byId));
+        entries.removeIf(entry -> entry.billboardId == billboardId);
+
+        return entries;
+    }
+
+    /**
+     * Throws away the catalog, it will be loaded again when it's next needed
+     */
+    public static synchronized void invalidate() {
+        snapshot = null;
+    }
+
+    /**
+     * Gets every billboard
+     * @return ArrayList containing a HashMap with each billboard's ID, name, creator ID and creator username
+     * @throws SQLException if an SQL exception occurs
+     */
+    public static ArrayList<HashMap> list() throws SQLException {
+        ArrayList<HashMap> billboards = new ArrayList<HashMap>();
+        for (Entry entry : getSnapshot().byId) {
+            billboards.add(entry.toHashMap());
+        }
+
+        return billboards;
+    }
+
+    /**
+     * Gets one billboard
+     * @param billboardId - Billboard ID
+     * @return HashMap containing the billboard's ID, name, creator ID and creator username, or null if it doesn't exist
+     * @throws SQLException if an SQL exception occurs
+     */
+    public static HashMap get(int billboardId) throws SQLException {
+        Entry[] byId = getSnapshot().byId;
+
+        int position = Arrays.binarySearch(byId, new Entry(billboardId, "", 0, ""), BY_ID);
+
+        return position < 0 ? null : byId[position].toHashMap();
+    }
+
+    /**
+     * Gets one page of billboards, carrying on after the last billboard of the previous page. As the page starts
+     * from where that billboard is in the order rather than from a count, billboards added or deleted while a list
+     * is being paged through don't make it skip or repeat any
+     * @param sort - Order to list them in: "name", "creator" or "created" (oldest first)
+     * @param descending - Whether to reverse the order
+     * @param filter - Text the name or creator username has to contain (ignoring case), or null for every billboard
+     * @param after - Last billboard of the previous page, as sent to the client, or null for the first page
+     * @param limit - Number of billboards in the page (at most 500)
+     * @return HashMap containing "billboards" (each billboard's ID, name, creator ID and creator username) and
+     * "total" (number of billboards matching the filter)
+     * @throws SQLException if an SQL exception occurs
+     * @throws DBException if the sort order is unknown
+     */
+    public static HashMap getPage(String sort, boolean descending, String filter, HashMap after, int limit) throws SQLException, DBException {
+        Snapshot current = getSnapshot();
+
+        Entry[] ordered;
+        Comparator<Entry> order;
+        switch (sort == null ? "name" : sort) {
+            case "name":
+                ordered = current.byName;
+                order = BY_NAME;
+                break;
+
+            case "creator":
+                ordered = current.byCreator;
+                order = BY_CREATOR;
+                break;
+
+            case "created":
+                ordered = current.byId;
+                order = BY_ID;
+                break;
+
+            default:
+                throw new DBException("Unknown sort order");
+        }
+
+        int step = descending ? -1 : 1;
+
+        // Find where the previous page ended, even if its last billboard has since been deleted or renamed
+        int start = descending ? ordered.length - 1 : 0;
+        if (after != null) {
+            // Sent back by the client, so checked like the rest of the request
+            Entry last = new Entry(RequestReader.field(after, "billboardId", Integer.class), RequestReader.field(after, "name", String.class), 0,
+                    RequestReader.field(after, "creatorUsername", String.class));
+
+            int position = Arrays.binarySearch(ordered, last, order);
+            if (position >= 0) {
+                start = position + step;
+            } else {
+                int insertion = -position - 1;
+                start = descending ? insertion - 1 : insertion;
+            }
+        }
+
+        String search = filter == null || filter.isBlank() ? null : filter.trim().toLowerCase();
+        int pageSize = Math.max(Math.min(limit, MAX_PAGE_SIZE), 0);
+
+        ArrayList<HashMap> billboards = new ArrayList<HashMap>();
+        for (int i = start; i >= 0 && i < ordered.length && billboards.size() < pageSize; i += step) {
+            if (matches(ordered[i], search)) {
+                billboards.add(ordered[i].toHashMap());
+            }
+        }
+
+        int total = ordered.length;
+        if (search != null) {
+            total = 0;
+            for (Entry entry : ordered) {
+                if (matches(entry, search)) {
+                    total++;
+                }
+            }
+        }
+
+        HashMap page = new HashMap();
+        page.put("billboards", billboards);
+        page.put("total", total);
+
+        return page;
+    }
+
+    /**
+     * Checks if a billboard matches a filter
+     * @param entry - Catalog entry
+     * @param search - Lower case text to look for, or null to match everything
+     * @return Whether the name or creator username contains the text
+     */
+    private static boolean matches(Entry entry, String search) {
+        return search == null || entry.name.toLowerCase().contains(search) || entry.creatorUsername.toLowerCase().contains(search);
+    }
+}
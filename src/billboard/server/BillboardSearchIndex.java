@@ -0,0 +1,378 @@
+package billboard.server;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.IOException;
+import java.io.StringReader;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * In-memory full-text index of billboards, for finding billboards by the words in their name, message and
+ * information without reading and parsing every billboard's XML.
+ *
+ * Each word maps to the billboards it's in and how often (name words count 3 times, message words twice and
+ * information words once). The words are kept sorted, so a prefix query reads the run of words starting with it.
+ * Results are ranked with BM25, so rare words and short billboards rank higher. The index is loaded once from the
+ * database, then updated as billboards are created, updated and deleted. Updates are made one at a time, while
+ * searches read the index without locking, so a search running during an update may or may not see it.
+ */
+public class BillboardSearchIndex {
+    /**
+     * Helper class for one indexed billboard
+     */
+    private static class Indexed {
+        public final HashMap<String, Integer> terms; // Word to weighted count
+        public final int length; // Weighted count of every word
+
+        public Indexed(HashMap<String, Integer> terms) {
+            this.terms = terms;
+            this.length = terms.values().stream().mapToInt(Integer::intValue).sum();
+        }
+    }
+
+    // Maximum results in one search
+    static final int MAX_RESULTS = 100;
+
+    // Words longer than this are cut short, so one long string can't bloat the index
+    private static final int MAX_TERM_LENGTH = 64;
+
+    private static final int NAME_WEIGHT = 3;
+    private static final int MESSAGE_WEIGHT = 2;
+    private static final int INFORMATION_WEIGHT = 1;
+
+    // BM25 parameters
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    // Word to billboard ID to weighted count
+    private static final ConcurrentSkipListMap<String, ConcurrentHashMap<Integer, Integer>> postings = new ConcurrentSkipListMap<String, ConcurrentHashMap<Integer, Integer>>();
+    private static final ConcurrentHashMap<Integer, Indexed> billboards = new ConcurrentHashMap<Integer, Indexed>();
+    private static volatile long totalLength = 0;
+
+    private static volatile boolean loaded = false;
+
+    /**
+     * Loads the index from the database, reading each billboard once
+     * @throws SQLException if an SQL exception occurs
+     */
+    public static synchronized void load() throws SQLException {
+        clear();
+
+        Connection connection = DbConnection.getInstance();
+
+        Statement statement = connection.createStatement();
+        ResultSet rs = statement.executeQuery("SELECT billboardId, name, data FROM Billboards");
+
+        while (rs.next()) {
+            add(rs.getInt("billboardId"), rs.getString("name"), rs.getString("data"));
+        }
+
+        loaded = true;
+    }
+
+    /**
+     * Makes sure the index is loaded, loading it the first time it's needed
+     * @throws SQLException if an SQL exception occurs
+     */
+    private static void ensureLoaded() throws SQLException {
+        if (!loaded) {
+            synchronized (BillboardSearchIndex.class) {
+                if (!loaded) {
+                    load();
+                }
+            }
+        }
+    }
+
+    /**
+     * Indexes a billboard again, after it has been created or updated
+     * @param billboardId - Billboard ID
+     * @param name - Billboard name
+     * @param data - Billboard XML
+     */
+    public static synchronized void update(int billboardId, String name, String data) {
+        if (!loaded) {
+            return; // It'll be read with the rest when the index is loaded
+        }
+
+        removeIndexed(billboardId);
+        add(billboardId, name, data);
+    }
+
+    /**
+     * Indexes a billboard again from text already taken out of its XML, after it has been uploaded in chunks
+     * @param billboardId - Billboard ID
+     * @param name - Billboard name
+     * @param message - Text of the billboard's message
+     * @param information - Text of the billboard's information
+     */
+    public static synchronized void update(int billboardId, String name, String message, String information) {
+        if (!loaded) {
+            return;
+        }
+
+        removeIndexed(billboardId);
+        add(billboardId, name, message, information);
+    }
+
+    /**
+     * Removes a billboard from the index, after it has been deleted
+     * @param billboardId - Billboard ID
+     */
+    public static synchronized void remove(int billboardId) {
+        if (!loaded) {
+            return;
+        }
+
+        removeIndexed(billboardId);
+    }
+
+    /**
+     * Throws away the index, it will be loaded again when it's next needed
+     */
+    public static synchronized void invalidate() {
+        loaded = false;
+        clear();
+    }
+
+    /**
+     * Searches billboards. The query is a list of words, and billboards have to contain every one of them. A word
+     * ending in * matches any word starting with it
+     * @param query - Search query, e.g. "summer sale*"
+     * @param limit - Maximum number of billboards to return (at most 100)
+     * @return HashMap containing "billboards" (each billboard's ID, name, creator ID and creator username, best
+     * match first) and "total" (number of billboards matching)
+     * @throws SQLException if an SQL exception occurs
+     */
+    public static HashMap search(String query, int limit) throws SQLException {
+        ensureLoaded();
+
+        HashMap<Integer, Double> scores = null;
+        for (String word : (query == null ? "" : query).trim().split("\\s+")) {
+            boolean prefix = word.endsWith("*");
+
+            ArrayList<String> terms = tokenize(prefix ? word.substring(0, word.length() - 1) : word);
+            for (int i = 0; i < terms.size(); i++) {
+                // Only the end of a prefix word is a prefix, e.g. "e-mai*" is "e" and "mai*"
+                HashMap<Integer, Double> termScores = score(terms.get(i), prefix && i == terms.size() - 1);
+
+                if (scores == null) {
+                    scores = termScores;
+                } else {
+                    scores.keySet().retainAll(termScores.keySet());
+                    scores.replaceAll((billboardId, score) -> score + termScores.get(billboardId));
+                }
+            }
+        }
+
+        if (scores == null) {
+            scores = new HashMap<Integer, Double>(); // Nothing to search for
+        }
+
+        ArrayList<Map.Entry<Integer, Double>> ranked = new ArrayList<Map.Entry<Integer, Double>>(scores.entrySet());
+        ranked.sort(Map.Entry.<Integer, Double>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()));
+
+        int resultCount = Math.max(Math.min(limit, MAX_RESULTS), 0);
+
+        ArrayList<HashMap> results = new ArrayList<HashMap>();
+        for (Map.Entry<Integer, Double> match : ranked) {
+            if (results.size() >= resultCount) {
+                break;
+            }
+
+            HashMap billboard = BillboardCatalog.get(match.getKey());
+            if (billboard != null) { // Unless it was deleted mid-search
+                results.add(billboard);
+            }
+        }
+
+        HashMap response = new HashMap();
+        response.put("billboards", results);
+        response.put("total", ranked.size());
+
+        return response;
+    }
+
+    /**
+     * Scores the billboards containing a word
+     * @param term - Word, lower case
+     * @param prefix - Whether to match every word starting with it
+     * @return Billboard ID to BM25 score
+     */
+    private static HashMap<Integer, Double> score(String term, boolean prefix) {
+        HashMap<Integer, Double> scores = new HashMap<Integer, Double>();
+
+        int count = billboards.size();
+        double averageLength = count == 0 ? 1 : Math.max((double) totalLength / count, 1);
+
+        Map<String, ConcurrentHashMap<Integer, Integer>> matching;
+        if (prefix) {
+            matching = postings.subMap(term, true, term + Character.MAX_VALUE, true);
+        } else {
+            ConcurrentHashMap<Integer, Integer> exact = postings.get(term);
+            matching = exact == null ? Map.of() : Map.of(term, exact);
+        }
+
+        for (ConcurrentHashMap<Integer, Integer> billboardCounts : matching.values()) {
+            int found = billboardCounts.size();
+            double idf = Math.log(1 + (count - found + 0.5) / (found + 0.5));
+
+            billboardCounts.forEach((billboardId, frequency) -> {
+                Indexed indexed = billboards.get(billboardId);
+                int length = indexed == null ? 0 : indexed.length;
+
+                double score = idf * frequency * (K1 + 1) / (frequency + K1 * (1 - B + B * length / averageLength));
+                scores.merge(billboardId, score, Double::sum);
+            });
+        }
+
+        return scores;
+    }
+
+    /**
+     * Adds a billboard to the index
+     * @param billboardId - Billboard ID
+     * @param name - Billboard name
+     * @param data - Billboard XML
+     */
+    private static void add(int billboardId, String name, String data) {
+        Document doc = parse(data);
+        if (doc == null) {
+            add(billboardId, name, "", "");
+        } else {
+            add(billboardId, name, textOf(doc, "message"), textOf(doc, "information"));
+        }
+    }
+
+    /**
+     * Adds a billboard to the index
+     * @param billboardId - Billboard ID
+     * @param name - Billboard name
+     * @param message - Text of the billboard's message
+     * @param information - Text of the billboard's information
+     */
+    private static void add(int billboardId, String name, String message, String information) {
+        HashMap<String, Integer> terms = new HashMap<String, Integer>();
+        addTerms(terms, name, NAME_WEIGHT);
+        addTerms(terms, message, MESSAGE_WEIGHT);
+        addTerms(terms, information, INFORMATION_WEIGHT);
+
+        Indexed indexed = new Indexed(terms);
+        terms.forEach((term, frequency) -> postings.computeIfAbsent(term, key -> new ConcurrentHashMap<Integer, Integer>()).put(billboardId, frequency));
+
+        billboards.put(billboardId, indexed);
+        totalLength += indexed.length;
+    }
+
+    /**
+     * Removes a billboard's words from the index
+     * @param billboardId - Billboard ID
+     */
+    private static void removeIndexed(int billboardId) {
+        Indexed indexed = billboards.remove(billboardId);
+        if (indexed == null) {
+            return;
+        }
+
+        for (String term : indexed.terms.keySet()) {
+            ConcurrentHashMap<Integer, Integer> billboardCounts = postings.get(term);
+            if (billboardCounts != null) {
+                billboardCounts.remove(billboardId);
+                if (billboardCounts.isEmpty()) {
+                    postings.remove(term, billboardCounts);
+                }
+            }
+        }
+
+        totalLength -= indexed.length;
+    }
+
+    /**
+     * Empties the index
+     */
+    private static void clear() {
+        postings.clear();
+        billboards.clear();
+        totalLength = 0;
+    }
+
+    /**
+     * Counts the words in some text
+     * @param terms - Word counts to add to
+     * @param text - Text to read
+     * @param weight - How much each word counts for
+     */
+    private static void addTerms(HashMap<String, Integer> terms, String text, int weight) {
+        for (String term : tokenize(text)) {
+            terms.merge(term, weight, Integer::sum);
+        }
+    }
+
+    /**
+     * Splits text into lower case words, on anything that isn't a letter or digit
+     * @param text - Text to split
+     * @return Words, in order
+     */
+    private static ArrayList<String> tokenize(String text) {
+        ArrayList<String> terms = new ArrayList<String>();
+        if (text == null) {
+            return terms;
+        }
+
+        for (String term : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (!term.isEmpty()) {
+                terms.add(term.length() > MAX_TERM_LENGTH ? term.substring(0, MAX_TERM_LENGTH) : term);
+            }
+        }
+
+        return terms;
+    }
+
+    /**
+     * Parses billboard XML
+     * @param data - Billboard XML
+     * @return Parsed document, or null if it isn't valid XML or has a DOCTYPE
+     */
+    private static Document parse(String data) {
+        if (data == null) {
+            return null;
+        }
+
+        try {
+            DocumentBuilder builder = SecureXML.newDocumentBuilder(); // So entities can't pull server files into the index
+            builder.setErrorHandler(null); // Don't print errors for billboards that aren't valid XML
+
+            return builder.parse(new InputSource(new StringReader(data)));
+        } catch (ParserConfigurationException | SAXException | IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Gets the text of every element with a tag name
+     * @param doc - Billboard document
+     * @param tagName - Tag name
+     * @return Text of the elements, separated by spaces
+     */
+    private static String textOf(Document doc, String tagName) {
+        StringBuilder text = new StringBuilder();
+
+        NodeList elements = doc.getElementsByTagName(tagName);
+        for (int i = 0; i < elements.getLength(); i++) {
+            text.append(elements.item(i).getTextContent()).append(' ');
+        }
+
+        return text.toString();
+    }
+}
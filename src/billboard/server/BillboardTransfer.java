@@ -0,0 +1,452 @@
+package billboard.server;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.*;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Chunked transfer of billboard XML, so a large billboard is never held in memory as one string.
+ *
+ * An upload is sent a chunk at a time, and each chunk is written straight to a temporary file. When the upload is
+ * finished the file is first read through to check it is well formed, then read back as a stream of XML events:
+ * embedded pictures are moved into the blob store one at a time, and the result is written to a second file while its data hash is worked out. That file is then handed
+ * to the database as a character stream. Downloads read one chunk of a billboard's data per request.
+ */
+public class BillboardTransfer {
+    /**
+     * Helper class for an upload in progress
+     */
+    private static class Upload {
+        public final int userId;
+        public final Path file;
+        public final Writer writer;
+        public long length = 0; // Characters received
+        public volatile long lastUsed = System.currentTimeMillis();
+
+        public Upload(int userId, Path file) throws IOException {
+            this.userId = userId;
+            this.file = file;
+            this.writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Helper class for finished upload data, ready to be stored
+     */
+    public static class Prepared {
+        public final Path file;
+        public final String dataHash;
+        public final String message; // Text for the search index
+        public final String information;
+
+        public Prepared(Path file, String dataHash, String message, String information) {
+            this.file = file;
+            this.dataHash = dataHash;
+            this.message = message;
+            this.information = information;
+        }
+
+        /**
+         * Opens the data for reading
+         * @return Reader over the billboard XML
+         * @throws IOException if the file can't be opened
+         */
+        public Reader open() throws IOException {
+            return Files.newBufferedReader(file, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Deletes the data once it has been stored
+         */
+        public void delete() {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // Most text kept from a billboard's message or information for the search index
+    private static final int MAX_SEARCH_TEXT = 64 * 1024;
+
+    // Settings, loaded from server.props
+    private static boolean propsLoaded = false;
+    private static int chunkChars = 64 * 1024;
+    private static int maxUploads = 32;
+    private static int maxUploadsPerUser = 4;
+    private static long uploadIdleTimeoutMs = 300000;
+    private static long maxBillboardChars = 64L * 1024 * 1024;
+
+    private static final ConcurrentHashMap<String, Upload> uploads = new ConcurrentHashMap<String, Upload>();
+    private static final SecureRandom random = new SecureRandom();
+
+    /**
+     * Loads the transfer settings from server.props, the first time they are needed
+     */
+    private static synchronized void loadProps() {
+        if (propsLoaded) {
+            return;
+        }
+
+        propsLoaded = true;
+
+        Properties props = new Properties();
+        try (FileInputStream in = new FileInputStream("resources/server.props")) {
+            props.load(in);
+
+            chunkChars = Integer.parseInt(props.getProperty("server.transferChunkKb", String.valueOf(chunkChars / 1024))) * 1024;
+            maxUploads = Integer.parseInt(props.getProperty("server.maxUploads", String.valueOf(maxUploads)));
+            maxUploadsPerUser = Integer.parseInt(props.getProperty("server.maxUploadsPerUser", String.valueOf(maxUploadsPerUser)));
+            uploadIdleTimeoutMs = Long.parseLong(props.getProperty("server.uploadIdleTimeoutMs", String.valueOf(uploadIdleTimeoutMs)));
+            maxBillboardChars = Long.parseLong(props.getProperty("server.maxBillboardMb", String.valueOf(maxBillboardChars / 1024 / 1024))) * 1024 * 1024;
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Gets the most characters sent in one chunk
+     * @return Chunk size in characters
+     */
+    public static int getChunkChars() {
+        loadProps();
+
+        return Math.max(chunkChars, 1024);
+    }
+
+    /**
+     * Starts an upload
+     * @param userId - ID of the user uploading
+     * @return Upload ID, to send the chunks with
+     * @throws DBException if there are too many uploads in progress, on the server or for the user
+     * @throws IOException if the temporary file can't be created
+     */
+    public static String beginUpload(int userId) throws DBException, IOException {
+        loadProps();
+
+        byte[] idBytes = new byte[16];
+        random.nextBytes(idBytes);
+
+        String uploadId = PasswordHash.hashToString(idBytes, 32);
+
+        // Checked and added together, so uploads started at the same time can't go over the limit
+        synchronized (uploads) {
+            // Throw away uploads that were never finished
+            long now = System.currentTimeMillis();
+            uploads.forEach((id, upload) -> {
+                if (now - upload.lastUsed > uploadIdleTimeoutMs) {
+                    discard(id);
+                }
+            });
+
+            if (uploads.size() >= maxUploads) {
+                throw new DBException("Too many uploads in progress");
+            }
+
+            // So one user can't take every upload slot
+            long userUploads = uploads.values().stream().filter(upload -> upload.userId == userId).count();
+            if (userUploads >= maxUploadsPerUser) {
+                throw new DBException("Too many uploads in progress for this user");
+            }
+
+            uploads.put(uploadId, new Upload(userId, Files.createTempFile("billboard-upload", ".xml")));
+        }
+
+        return uploadId;
+    }
+
+    /**
+     * Adds a chunk to an upload
+     * @param uploadId - Upload ID
+     * @param userId - ID of the user uploading
+     * @param chunk - Next part of the billboard XML
+     * @throws DBException if the upload doesn't exist or the chunk is too big
+     * @throws IOException if writing the chunk fails
+     */
+    public static void appendChunk(String uploadId, int userId, String chunk) throws DBException, IOException {
+        Upload upload = getUpload(uploadId, userId);
+
+        if (chunk == null || chunk.length() > getChunkChars()) {
+            throw new DBException("Invalid chunk");
+        }
+
+        synchronized (upload) {
+            if (upload.length + chunk.length() > maxBillboardChars) {
+                discard(uploadId);
+                throw new DBException("Billboard is too large");
+            }
+
+            upload.writer.write(chunk);
+            upload.length += chunk.length();
+            upload.lastUsed = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Finishes an upload
+     * @param uploadId - Upload ID
+     * @param userId - ID of the user uploading
+     * @return File holding the uploaded XML, which has to be deleted once it has been stored
+     * @throws DBException if the upload doesn't exist
+     * @throws IOException if writing the last of the upload fails
+     */
+    public static Path finishUpload(String uploadId, int userId) throws DBException, IOException {
+        Upload upload = getUpload(uploadId, userId);
+        uploads.remove(uploadId);
+
+        synchronized (upload) {
+            try {
+                upload.writer.close();
+            } catch (IOException e) {
+                Files.deleteIfExists(upload.file);
+                throw e;
+            }
+        }
+
+        return upload.file;
+    }
+
+    /**
+     * Cancels an upload
+     * @param uploadId - Upload ID
+     * @param userId - ID of the user uploading
+     * @throws DBException if the upload doesn't exist
+     */
+    public static void cancelUpload(String uploadId, int userId) throws DBException {
+        getUpload(uploadId, userId);
+        discard(uploadId);
+    }
+
+    /**
+     * Gets an upload, checking it belongs to the user
+     * @param uploadId - Upload ID
+     * @param userId - ID of the user uploading
+     * @return Upload
+     * @throws DBException if the upload doesn't exist
+     */
+    private static Upload getUpload(String uploadId, int userId) throws DBException {
+        Upload upload = uploadId == null ? null : uploads.get(uploadId);
+        if (upload == null || upload.userId != userId) {
+            throw new DBException("Upload does not exist");
+        }
+
+        return upload;
+    }
+
+    /**
+     * Throws away an upload and its temporary file
+     * @param uploadId - Upload ID
+     */
+    private static void discard(String uploadId) {
+        Upload upload = uploads.remove(uploadId);
+        if (upload == null) {
+            return;
+        }
+
+        try {
+            synchronized (upload) {
+                upload.writer.close();
+            }
+            Files.deleteIfExists(upload.file);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Copies uploaded billboard XML, moving embedded pictures into the blob store and keeping the text of its
+     * message and information for the search index. Only one XML event (at most one picture) is held at a time.
+     * Uploads that aren't well formed XML are copied as they are, without storing any of their pictures
+     * @param upload - Uploaded XML
+     * @return Billboard data ready to store, which has to be deleted once it is stored
+     * @throws DBException if the picture data is invalid or refers to a picture that isn't stored
+     * @throws SQLException if storing a picture fails
+     * @throws IOException if reading or writing fails
+     */
+    public static Prepared prepare(Path upload) throws DBException, SQLException, IOException {
+        Path prepared = Files.createTempFile("billboard-prepared", ".xml");
+
+        try {
+            // Checked all the way through first, so pictures are only stored once the whole upload is known to parse
+            if (isWellFormed(upload)) {
+                try {
+                    return prepareXML(upload, prepared);
+                } catch (XMLStreamException e) {
+                    throw new IOException("Upload changed while being read", e);
+                }
+            }
+
+            // Not XML, so there aren't any pictures to move and it's stored as it is
+            MessageDigest digest = newDigest();
+            try (InputStream in = Files.newInputStream(upload); OutputStream out = new DigestOutputStream(Files.newOutputStream(prepared), digest)) {
+                in.transferTo(out);
+            }
+
+            return new Prepared(prepared, PasswordHash.hashContent(digest), "", "");
+        } catch (DBException | SQLException | IOException | RuntimeException e) {
+            Files.deleteIfExists(prepared);
+            throw e;
+        }
+    }
+
+    /**
+     * Reads uploaded billboard XML through without keeping any of it, to check it parses
+     * @param upload - Uploaded XML
+     * @return Whether it is well formed XML without a DTD
+     * @throws IOException if reading fails
+     */
+    private static boolean isWellFormed(Path upload) throws IOException {
+        try (Reader in = Files.newBufferedReader(upload, StandardCharsets.UTF_8)) {
+            XMLStreamReader reader = newInputFactory().createXMLStreamReader(in);
+            try {
+                while (reader.hasNext()) {
+                    reader.next();
+                }
+            } finally {
+                reader.close();
+            }
+
+            return true;
+        } catch (XMLStreamException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Creates a parser factory for billboard XML, with DTDs turned off so entities can't be used
+     * @return Parser factory
+     */
+    private static XMLInputFactory newInputFactory() {
+        XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+
+        return inputFactory;
+    }
+
+    /**
+     * Copies uploaded billboard XML event by event
+     * @param upload - Uploaded XML
+     * @param prepared - File to write the billboard data to
+     * @return Billboard data ready to store
+     * @throws XMLStreamException if the upload isn't valid XML
+     */
+    private static Prepared prepareXML(Path upload, Path prepared) throws XMLStreamException, DBException, SQLException, IOException {
+        XMLInputFactory inputFactory = newInputFactory();
+
+        XMLEventFactory eventFactory = XMLEventFactory.newInstance();
+
+        StringBuilder message = new StringBuilder();
+        StringBuilder information = new StringBuilder();
+        StringBuilder capturing = null;
+
+        MessageDigest digest = newDigest();
+
+        try (Reader in = Files.newBufferedReader(upload, StandardCharsets.UTF_8);
+             Writer out = new BufferedWriter(new OutputStreamWriter(new DigestOutputStream(Files.newOutputStream(prepared), digest), StandardCharsets.UTF_8))) {
+            XMLEventReader events = inputFactory.createXMLEventReader(in);
+            XMLEventWriter writer = XMLOutputFactory.newInstance().createXMLEventWriter(out);
+
+            try {
+                while (events.hasNext()) {
+                    XMLEvent event = events.nextEvent();
+
+                    if (event.isStartElement()) {
+                        StartElement element = event.asStartElement();
+                        String name = element.getName().getLocalPart();
+
+                        if (name.equals("picture")) {
+                            event = storePicture(element, eventFactory);
+                        } else if (name.equals("message")) {
+                            capturing = message;
+                        } else if (name.equals("information")) {
+                            capturing = information;
+                        }
+                    } else if (event.isEndElement()) {
+                        capturing = null;
+                    } else if (event.isCharacters() && capturing != null && capturing.length() < MAX_SEARCH_TEXT) {
+                        capturing.append(event.asCharacters().getData()).append(' ');
+                    }
+
+                    writer.add(event);
+                }
+
+                writer.flush();
+            } finally {
+                events.close();
+                writer.close();
+            }
+        }
+
+        return new Prepared(prepared, PasswordHash.hashContent(digest), message.toString(), information.toString());
+    }
+
+    /**
+     * Moves a picture's embedded data into the blob store
+     * @param picture - Picture element
+     * @param eventFactory - Factory for the replacement element
+     * @return Picture element with a blob reference in place of its data
+     * @throws DBException if the picture data is invalid or refers to a picture that isn't stored
+     * @throws SQLException if storing the picture fails
+     */
+    private static StartElement storePicture(StartElement picture, XMLEventFactory eventFactory) throws DBException, SQLException {
+        Attribute data = picture.getAttributeByName(new QName("data"));
+        Attribute blob = picture.getAttributeByName(new QName("blob"));
+
+        if (data == null || data.getValue().isEmpty()) {
+            if (blob != null && !blob.getValue().isEmpty() && !BlobStore.hasBlob(blob.getValue())) {
+                throw new DBException("Picture does not exist");
+            }
+
+            return picture;
+        }
+
+        byte[] bytes;
+        try {
+            bytes = Base64.getDecoder().decode(data.getValue().trim());
+        } catch (IllegalArgumentException e) {
+            throw new DBException("Invalid picture data");
+        }
+
+        ArrayList<Attribute> attributes = new ArrayList<Attribute>();
+        for (Iterator<Attribute> i = picture.getAttributes(); i.hasNext(); ) {
+            Attribute attribute = i.next();
+            String name = attribute.getName().getLocalPart();
+            if (!name.equals("data") && !name.equals("blob")) {
+                attributes.add(attribute);
+            }
+        }
+        attributes.add(eventFactory.createAttribute("blob", BlobStore.putBlob(bytes)));
+
+        return eventFactory.createStartElement(picture.getName(), attributes.iterator(), picture.getNamespaces());
+    }
+
+    /**
+     * Creates a digest for working out the data hash a piece at a time
+     * @return SHA-256 digest
+     */
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform has to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
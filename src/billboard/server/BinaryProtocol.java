@@ -0,0 +1,556 @@
+package billboard.server;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary wire format, used instead of Java serialization when a client asks for it.
+ *
+ * A binary connection starts with the magic bytes "BB" and the protocol version. After that it is a series
+ * of frames. A request frame is the request ID, the request's opcode, the token and the request data. A
+ * response frame is the request ID, a status byte and either the error message or the response data.
+ *
+ * Data is written as a tagged value, using the same HashMap/ArrayList shapes as the rest of the server so the
+ * request handlers don't change. Integers are variable length, and map keys that are known field names are
+ * written as a single byte from the field table.
+ */
+public class BinaryProtocol {
+    public static final int MAGIC_1 = 'B';
+    public static final int MAGIC_2 = 'B';
+    public static final int VERSION = 1;
+
+    /**
+     * Request types, the index of each is its opcode. New request types must only be added to the end
+     */
+    private static final String[] OPCODES = {
+            "getUsernames", "getUserData", "listBillboards", "createBillboard", "updateBillboard",
+            "billboardNameExists", "getBillboardData", "getBillboardCreatorName", "getBillboardName", "getBillboardId",
+            "deleteBillboard", "addSchedule", "logoutUser", "getAllSchedules", "getBillboardSchedule",
+            "deleteSchedule", "getUserId", "getOwnPermissions", "getPermissions", "updatePassword",
+            "updateUserPermissions", "addUser", "deleteUser", "loginUser", "checkSession",
+            "getCurrentBillboard", "subscribeCurrentBillboard", "getCurrentBillboardIfChanged",
+            "getScheduleWindow", "getBlob", "listBillboardsPage", "listUsersPage",
+            "searchBillboards", "beginBillboardUpload", "uploadBillboardChunk", "finishBillboardUpload",
+            "cancelBillboardUpload", "getBillboardDataChunk", "getChannelBillboard"
+    };
+
+    /**
+     * Field names used as map keys in requests and responses, the index of each is its field ID.
+     * New field names must only be added to the end
+     */
+    private static final String[] FIELDS = {
+            "billboardId", "billboardName", "billboardData", "name", "data", "creatorId", "creatorUsername",
+            "scheduleId", "scheduleTimeId", "scheduleTimes", "creationTime", "userId", "day", "minutesStart",
+            "minutesDuration", "repeating", "minutesRepeatGap", "startMinutes", "endMinutes", "username",
+            "password", "passwordHash", "newPasswordHash", "sessionKey", "editBillboards", "createBillboards",
+            "scheduleBillboards", "editUsers", "dataHash", "startDate", "endDate", "timezone", "exceptionDates", "channel",
+            "minutes", "knownHashes", "showings", "billboards", "start", "end",
+            "sort", "descending", "offset", "limit", "total", "filter", "after", "users",
+            "query", "uploadId", "length"
+    };
+
+    private static final HashMap<String, Integer> opcodeIds = new HashMap<String, Integer>();
+    private static final HashMap<String, Integer> fieldIds = new HashMap<String, Integer>();
+
+    static {
+        for (int i = 0; i < OPCODES.length; i++) {
+            opcodeIds.put(OPCODES[i], i);
+        }
+
+        for (int i = 0; i < FIELDS.length; i++) {
+            fieldIds.put(FIELDS[i], i);
+        }
+    }
+
+    // Value tags
+    private static final int TAG_NULL = 0;
+    private static final int TAG_TRUE = 1;
+    private static final int TAG_FALSE = 2;
+    private static final int TAG_INT = 3;
+    private static final int TAG_LONG = 4;
+    private static final int TAG_STRING = 5;
+    private static final int TAG_TIMESTAMP = 6;
+    private static final int TAG_MAP = 7;
+    private static final int TAG_LIST = 8;
+    private static final int TAG_BYTES = 9;
+    private static final int TAG_FIELD = 10;
+
+    // Response statuses
+    private static final int STATUS_OK = 0;
+    private static final int STATUS_ERROR = 1;
+
+    // Opcode for request types not in the table, followed by the request type as a string
+    private static final int OPCODE_NAMED = 255;
+
+    // Limits on what one frame can hold, checked before anything is allocated so a bad length can't run the
+    // server out of memory
+    private static final int MAX_STRING_BYTES = 64 * 1024 * 1024;
+    private static final int MAX_COLLECTION_SIZE = 1024 * 1024;
+    private static final long MAX_FRAME_BYTES = 128L * 1024 * 1024;
+    private static final int MAX_DEPTH = 64;
+
+    /**
+     * Helper class for how much more of a frame can be read
+     */
+    private static class FrameBudget {
+        public long remaining = MAX_FRAME_BYTES;
+
+        /**
+         * Takes some of the frame's budget
+         * @param amount - Bytes (or collection entries) about to be read
+         * @throws IOException if the frame is too big
+         */
+        public void take(long amount) throws IOException {
+            remaining -= amount;
+            if (remaining < 0) {
+                throw new IOException("Frame too large");
+            }
+        }
+    }
+
+    /**
+     * Checks if a connection is using the binary protocol, consuming the header if it is
+     * @param in - Connection input stream, must support mark/reset
+     * @return Whether the connection is binary
+     * @throws IOException if reading fails or the client is using an unsupported protocol version
+     */
+    public static boolean readHeader(InputStream in) throws IOException {
+        in.mark(3);
+
+        if (in.read() != MAGIC_1 || in.read() != MAGIC_2) {
+            in.reset();
+            return false;
+        }
+
+        int version = in.read();
+        if (version != VERSION) {
+            throw new IOException("Unsupported protocol version " + version);
+        }
+
+        return true;
+    }
+
+    /**
+     * Writes the binary connection header
+     * @param out - Connection output stream
+     * @throws IOException if writing fails
+     */
+    public static void writeHeader(OutputStream out) throws IOException {
+        out.write(MAGIC_1);
+        out.write(MAGIC_2);
+        out.write(VERSION);
+    }
+
+    /**
+     * Writes a request frame. The frame is encoded in full before any of it is written, so data that can't be
+     * encoded doesn't leave half a frame on the connection
+     * @param out - Output stream
+     * @param requestId - Request ID
+     * @param requestType - Type of request
+     * @param token - Session token
+     * @param data - Request data
+     * @throws IOException if writing fails or the data's type isn't supported
+     */
+    public static void writeRequest(DataOutputStream out, int requestId, String requestType, String token, Object data) throws IOException {
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        DataOutputStream frameOut = new DataOutputStream(frame);
+
+        writeVarInt(frameOut, requestId);
+
+        Integer opcode = opcodeIds.get(requestType);
+        if (opcode != null) {
+            frameOut.write(opcode);
+        } else {
+            frameOut.write(OPCODE_NAMED);
+            writeString(frameOut, requestType);
+        }
+
+        writeString(frameOut, token);
+        writeValue(frameOut, data);
+
+        frame.writeTo(out);
+    }
+
+    /**
+     * Reads a request frame
+     * @param in - Input stream
+     * @return Request
+     * @throws IOException if reading fails
+     */
+    public static RequestFrame readRequest(DataInputStream in) throws IOException {
+        int requestId = readVarInt(in);
+        FrameBudget budget = new FrameBudget();
+
+        int opcode = in.readUnsignedByte();
+        String requestType;
+        if (opcode == OPCODE_NAMED) {
+            requestType = readString(in, budget);
+        } else if (opcode < OPCODES.length) {
+            requestType = OPCODES[opcode];
+        } else {
+            throw new IOException("Unknown opcode " + opcode);
+        }
+
+        String token = readString(in, budget);
+        Object data = readValue(in, budget, 0);
+
+        return new RequestFrame(requestId, requestType, token, data);
+    }
+
+    /**
+     * Writes a response frame. The frame is encoded in full before any of it is written, so other responses on
+     * the same connection are never corrupted. If the data can't be encoded an error is sent back instead
+     * @param out - Output stream
+     * @param requestId - ID of the request being responded to
+     * @param response - Response
+     * @throws IOException if writing fails
+     */
+    public static void writeResponse(DataOutputStream out, int requestId, ServerResponse response) throws IOException {
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        DataOutputStream frameOut = new DataOutputStream(frame);
+
+        try {
+            writeResponseFrame(frameOut, requestId, response.error, response.data);
+        } catch (IOException e) {
+            // Writing to memory only fails for a type that can't be encoded, which is a server bug
+            e.printStackTrace();
+
+            frame.reset();
+            writeResponseFrame(frameOut, requestId, "Internal server error", null);
+        }
+
+        frame.writeTo(out);
+    }
+
+    /**
+     * Encodes a response frame
+     * @param out - Output stream
+     * @param requestId - ID of the request being responded to
+     * @param error - Error message, or null if the request succeeded
+     * @param data - Response data
+     * @throws IOException if writing fails or the data's type isn't supported
+     */
+    private static void writeResponseFrame(DataOutputStream out, int requestId, String error, Object data) throws IOException {
+        writeVarInt(out, requestId);
+
+        if (error != null) {
+            out.write(STATUS_ERROR);
+            writeString(out, error);
+        } else {
+            out.write(STATUS_OK);
+            writeValue(out, data);
+        }
+    }
+
+    /**
+     * Reads a response frame
+     * @param in - Input stream
+     * @param response - Response to read the error/data into
+     * @return ID of the request being responded to
+     * @throws IOException if reading fails
+     */
+    public static int readResponse(DataInputStream in, ServerResponse response) throws IOException {
+        int requestId = readVarInt(in);
+
+        FrameBudget budget = new FrameBudget();
+
+        int status = in.readUnsignedByte();
+        if (status == STATUS_ERROR) {
+            response.error = readString(in, budget);
+        } else {
+            response.data = readValue(in, budget, 0);
+        }
+
+        return requestId;
+    }
+
+    /**
+     * Writes a tagged value
+     * @param out - Output stream
+     * @param value - Value to write
+     * @throws IOException if writing fails or the value's type isn't supported
+     */
+    public static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.write(TAG_NULL);
+        } else if (value instanceof Boolean) {
+            out.write((Boolean) value ? TAG_TRUE : TAG_FALSE);
+        } else if (value instanceof Integer) {
+            out.write(TAG_INT);
+            writeVarLong(out, zigZag((Integer) value));
+        } else if (value instanceof Long) {
+            out.write(TAG_LONG);
+            writeVarLong(out, zigZag((Long) value));
+        } else if (value instanceof String) {
+            out.write(TAG_STRING);
+            writeString(out, (String) value);
+        } else if (value instanceof Timestamp) {
+            out.write(TAG_TIMESTAMP);
+            writeVarLong(out, zigZag(((Timestamp) value).getTime()));
+        } else if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+
+            out.write(TAG_MAP);
+            writeVarInt(out, map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                writeKey(out, entry.getKey());
+                writeValue(out, entry.getValue());
+            }
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+
+            out.write(TAG_LIST);
+            writeVarInt(out, list.size());
+            for (Object item : list) {
+                writeValue(out, item);
+            }
+        } else if (value instanceof byte[]) {
+            byte[] bytes = (byte[]) value;
+
+            out.write(TAG_BYTES);
+            writeVarInt(out, bytes.length);
+            out.write(bytes);
+        } else {
+            throw new IOException("Can't encode " + value.getClass().getName());
+        }
+    }
+
+    /**
+     * Writes a map key, using the field table if it is a known field name
+     * @param out - Output stream
+     * @param key - Map key
+     * @throws IOException if writing fails
+     */
+    private static void writeKey(DataOutputStream out, Object key) throws IOException {
+        Integer fieldId = key instanceof String ? fieldIds.get(key) : null;
+
+        if (fieldId != null) {
+            out.write(TAG_FIELD);
+            out.write(fieldId);
+        } else {
+            writeValue(out, key);
+        }
+    }
+
+    /**
+     * Reads a tagged value
+     * @param in - Input stream
+     * @return Value
+     * @throws IOException if reading fails or the tag is unknown
+     */
+    public static Object readValue(DataInputStream in) throws IOException {
+        return readValue(in, new FrameBudget(), 0);
+    }
+
+    /**
+     * Reads a tagged value, as part of a frame
+     * @param in - Input stream
+     * @param budget - How much more of the frame can be read
+     * @param depth - How many maps and lists the value is inside
+     * @return Value
+     * @throws IOException if reading fails, the tag is unknown or the frame is too big
+     */
+    private static Object readValue(DataInputStream in, FrameBudget budget, int depth) throws IOException {
+        if (depth > MAX_DEPTH) {
+            throw new IOException("Value nested too deeply");
+        }
+
+        int tag = in.readUnsignedByte();
+
+        switch (tag) {
+            case TAG_NULL:
+                return null;
+
+            case TAG_TRUE:
+                return true;
+
+            case TAG_FALSE:
+                return false;
+
+            case TAG_INT:
+                return (int) unZigZag(readVarLong(in));
+
+            case TAG_LONG:
+                return unZigZag(readVarLong(in));
+
+            case TAG_STRING:
+                return readString(in, budget);
+
+            case TAG_TIMESTAMP:
+                return new Timestamp(unZigZag(readVarLong(in)));
+
+            case TAG_MAP: {
+                int size = readLength(in, MAX_COLLECTION_SIZE);
+                budget.take(size);
+
+                // Sized by what has actually been read, not by what the client says is coming
+                HashMap map = new HashMap();
+                for (int i = 0; i < size; i++) {
+                    Object key = readValue(in, budget, depth + 1);
+                    map.put(key, readValue(in, budget, depth + 1));
+                }
+
+                return map;
+            }
+
+            case TAG_LIST: {
+                int size = readLength(in, MAX_COLLECTION_SIZE);
+                budget.take(size);
+
+                ArrayList list = new ArrayList(Math.min(size, 1024));
+                for (int i = 0; i < size; i++) {
+                    list.add(readValue(in, budget, depth + 1));
+                }
+
+                return list;
+            }
+
+            case TAG_BYTES: {
+                int length = readLength(in, MAX_STRING_BYTES);
+                budget.take(length);
+
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+
+                return bytes;
+            }
+
+            case TAG_FIELD: {
+                int fieldId = in.readUnsignedByte();
+                if (fieldId >= FIELDS.length) {
+                    throw new IOException("Unknown field " + fieldId);
+                }
+
+                return FIELDS[fieldId];
+            }
+
+            default:
+                throw new IOException("Unknown value tag " + tag);
+        }
+    }
+
+    /**
+     * Writes a length-prefixed UTF-8 string
+     * @param out - Output stream
+     * @param value - String to write
+     * @throws IOException if writing fails
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a length-prefixed UTF-8 string
+     * @param in - Input stream
+     * @param budget - How much more of the frame can be read
+     * @return String
+     * @throws IOException if reading fails or the string is too long
+     */
+    private static String readString(DataInputStream in, FrameBudget budget) throws IOException {
+        int length = readLength(in, MAX_STRING_BYTES);
+        budget.take(length);
+
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes an unsigned variable length integer, 7 bits per byte
+     * @param out - Output stream
+     * @param value - Value to write
+     * @throws IOException if writing fails
+     */
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        writeVarLong(out, value & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Reads an unsigned variable length integer
+     * @param in - Input stream
+     * @return Value
+     * @throws IOException if reading fails
+     */
+    private static int readVarInt(DataInputStream in) throws IOException {
+        return (int) readVarLong(in);
+    }
+
+    /**
+     * Reads a length or count, checking it is in range before it's used
+     * @param in - Input stream
+     * @param max - Largest length allowed
+     * @return Length
+     * @throws IOException if reading fails or the length is negative or too big
+     */
+    private static int readLength(DataInputStream in, int max) throws IOException {
+        long length = readVarLong(in);
+        if (length < 0 || length > max) {
+            throw new IOException("Invalid length " + length);
+        }
+
+        return (int) length;
+    }
+
+    /**
+     * Writes an unsigned variable length long, 7 bits per byte
+     * @param out - Output stream
+     * @param value - Value to write
+     * @throws IOException if writing fails
+     */
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+
+        out.write((int) value);
+    }
+
+    /**
+     * Reads an unsigned variable length long
+     * @param in - Input stream
+     * @return Value
+     * @throws IOException if reading fails
+     */
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+
+        throw new IOException("Malformed variable length integer");
+    }
+
+    /**
+     * Maps signed values to unsigned so small negative numbers stay short
+     * @param value - Signed value
+     * @return Zig-zag encoded value
+     */
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /**
+     * Reverses zig-zag encoding
+     * @param value - Zig-zag encoded value
+     * @return Signed value
+     */
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,168 @@
+package billboard.server;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.sql.*;
+import java.util.Base64;
+
+/**
+ * Store for billboard pictures, kept apart from the billboard XML.
+ *
+ * Pictures sent as base64 data are decoded and stored once in the Blobs table, keyed by the SHA-256 hash of their
+ * bytes, and the billboard XML keeps a blob="hash" reference in place of the data. Listing or showing a billboard
+ * then only moves the XML, and clients fetch each picture's bytes with getBlob the first time they need it.
+ * The same picture used by many billboards is only stored once.
+ */
+public class BlobStore {
+    /**
+     * Moves the embedded pictures of a billboard's XML into the store
+     * @param billboardData - Billboard XML
+     * @return Billboard XML with blob references in place of picture data, unchanged if it had no picture data
+     * @throws SQLException if an SQL exception occurs
+     * @throws DBException if the picture data is invalid or refers to a picture that isn't stored
+     */
+    public static String storePictures(String billboardData) throws SQLException, DBException {
+        Document doc;
+        try {
+            doc = SecureXML.newDocumentBuilder().parse(new InputSource(new StringReader(billboardData)));
+        } catch (ParserConfigurationException | SAXException | IOException e) {
+            return billboardData; // Not XML (or has a DOCTYPE), so there aren't any pictures to move
+        }
+
+        boolean changed = false;
+
+        NodeList pictures = doc.getElementsByTagName("picture");
+        for (int i = 0; i < pictures.getLength(); i++) {
+            Element picture = (Element) pictures.item(i);
+
+            String data = picture.getAttribute("data");
+            String blob = picture.getAttribute("blob");
+
+            if (!data.isEmpty()) {
+                byte[] bytes;
+                try {
+                    bytes = Base64.getDecoder().decode(data.trim());
+                } catch (IllegalArgumentException e) {
+                    throw new DBException("Invalid picture data");
+                }
+
+                picture.removeAttribute("data");
+                picture.setAttribute("blob", putBlob(bytes));
+                changed = true;
+            } else if (!blob.isEmpty() && !hasBlob(blob)) {
+                throw new DBException("Picture does not exist");
+            }
+        }
+
+        if (!changed) {
+            return billboardData;
+        }
+
+        try {
+            Transformer transformer = TransformerFactory.newInstance().newTransformer();
+            transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+
+            StringWriter writer = new StringWriter();
+            transformer.transform(new DOMSource(doc), new StreamResult(writer));
+
+            return writer.toString();
+        } catch (TransformerException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Moves the embedded pictures of billboards saved before the store was added into it
+     * @throws SQLException if an SQL exception occurs
+     */
+    public static void storeMissingPictures() throws SQLException {
+        Connection connection = DbConnection.getInstance();
+
+        Statement statement = connection.createStatement();
+        ResultSet rs = statement.executeQuery("SELECT billboardId, data FROM Billboards WHERE data LIKE '%<picture%data=%'");
+
+        PreparedStatement update = connection.prepareStatement("UPDATE Billboards SET data=?, dataHash=? WHERE billboardId=?");
+        while (rs.next()) {
+            String data;
+            try {
+                data = storePictures(rs.getString("data"));
+            } catch (DBException e) {
+                continue; // Left as it is, it still shows the same as before
+            }
+
+            update.setString(1, data);
+            update.setString(2, PasswordHash.hashContent(data));
+            update.setInt(3, rs.getInt("billboardId"));
+            update.execute();
+        }
+    }
+
+    /**
+     * Stores a picture, unless the same picture is already stored
+     * @param bytes - Picture bytes
+     * @return Picture's hash
+     * @throws SQLException if an SQL exception occurs
+     */
+    static String putBlob(byte[] bytes) throws SQLException {
+        String hash = PasswordHash.hashContent(bytes);
+
+        Connection connection = DbConnection.getInstance();
+
+        PreparedStatement statement = connection.prepareStatement("INSERT IGNORE INTO Blobs (hash, data) VALUES (?, ?)");
+        statement.setString(1, hash);
+        statement.setBytes(2, bytes);
+        statement.execute();
+
+        return hash;
+    }
+
+    /**
+     * Checks if a picture is stored
+     * @param hash - Picture's hash
+     * @return Whether it is stored
+     * @throws SQLException if an SQL exception occurs
+     */
+    static boolean hasBlob(String hash) throws SQLException {
+        Connection connection = DbConnection.getInstance();
+
+        PreparedStatement statement = connection.prepareStatement("SELECT 1 FROM Blobs WHERE hash=?");
+        statement.setString(1, hash);
+
+        return statement.executeQuery().next();
+    }
+
+    /**
+     * Gets a stored picture
+     * @param hash - Picture's hash
+     * @return Picture bytes
+     * @throws SQLException if an SQL exception occurs
+     * @throws DBException if the picture isn't stored
+     */
+    public static byte[] getBlob(String hash) throws SQLException, DBException {
+        Connection connection = DbConnection.getInstance();
+
+        PreparedStatement statement = connection.prepareStatement("SELECT data FROM Blobs WHERE hash=?");
+        statement.setString(1, hash);
+
+        ResultSet rs = statement.executeQuery();
+        if (!rs.next()) {
+            throw new DBException("Picture does not exist");
+        }
+
+        return rs.getBytes("data");
+    }
+}
@@ -0,0 +1,274 @@
+package billboard.server;
+
+import java.time.*;
+import java.time.zone.ZoneOffsetTransition;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+
+/**
+ * A dated schedule's recurrence rule, for schedules with a start date rather than ones that repeat every week.
+ *
+ * The first showing is on the first matching day on or after the start date, at minutesStart in the schedule's
+ * time zone. If it repeats, showing k starts k * minutesRepeatGap minutes of wall clock time later, carrying on
+ * across days and weeks, and the last showing is the last one to start on or before the end date (or it never
+ * stops without one). Nothing shows on an exception date. Times are worked out in minutes of local time since
+ * 1970-01-01 00:00 in the schedule's time zone, so a daily showing stays at the same time across daylight saving
+ * changes.
+ */
+public class CalendarRule {
+    private static final int MINUTES_IN_A_DAY = DbSchedule.MINUTES_IN_A_DAY;
+
+    /**
+     * Helper class for holding one showing of a dated schedule
+     */
+    public static class Occurrence {
+        public final long start; // Minutes of local time
+        public final long end;
+
+        public Occurrence(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    public final int scheduleId;
+    public final int billboardId;
+    public final String channel; // Null for every screen
+    public final ZoneId zone;
+
+    private final long firstStart; // Local minutes of the first showing
+    private final long duration;
+    private final long gap; // Minutes between showings, 0 if it doesn't repeat
+    private final long lastIndex; // Index of the last showing, -1 if it never shows
+    private final HashSet<Long> exceptionDays; // Epoch days of the exception dates
+
+    // Range the schedule could show in (minutes since the epoch), for the lookup index
+    final long windowStart;
+    final long windowEnd;
+
+    /**
+     * Creates a rule from a dated schedule's settings
+     * @param scheduleId - Schedule ID
+     * @param billboardId - Billboard ID the schedule shows
+     * @param day (1-7) - Day of the week of the first showing
+     * @param minutesStart - Schedule starting minutes
+     * @param minutesDuration - Schedule duration minutes
+     * @param repeating - Whether the schedule repeats
+     * @param minutesRepeatGap - Minutes between the start of each repeat
+     * @param startDate - First date the schedule can show on
+     * @param endDate - Last date a showing can start on, or null to never stop
+     * @param zone - Time zone the schedule is in
+     * @param exceptionDates - Dates the schedule doesn't show on
+     * @param channel - Channel the schedule is for, or null for every screen
+     */
+    public CalendarRule(int scheduleId, int billboardId, int day, int minutesStart, int minutesDuration, boolean repeating, int minutesRepeatGap,
+                        LocalDate startDate, LocalDate endDate, ZoneId zone, Collection<LocalDate> exceptionDates, String channel) {
+        this.scheduleId = scheduleId;
+        this.billboardId = billboardId;
+        this.channel = channel;
+        this.zone = zone;
+
+        int daysUntilDay = Math.floorMod(day - startDate.getDayOfWeek().getValue(), DbSchedule.DAYS_IN_A_WEEK);
+        this.firstStart = startDate.plusDays(daysUntilDay).toEpochDay() * MINUTES_IN_A_DAY + minutesStart;
+        this.duration = Math.max(minutesDuration, 0);
+        this.gap = repeating && minutesRepeatGap > 0 ? minutesRepeatGap : 0;
+
+        this.exceptionDays = new HashSet<Long>();
+        for (LocalDate date : exceptionDates) {
+            exceptionDays.add(date.toEpochDay());
+        }
+
+        long lastStartLimit = endDate == null ? Long.MAX_VALUE : (endDate.toEpochDay() + 1) * MINUTES_IN_A_DAY - 1;
+        if (day < 1 || day > DbSchedule.DAYS_IN_A_WEEK || firstStart > lastStartLimit) {
+            this.lastIndex = -1;
+        } else if (gap == 0) {
+            this.lastIndex = 0;
+        } else if (endDate == null) {
+            this.lastIndex = Long.MAX_VALUE / 2 / gap;
+        } else {
+            this.lastIndex = (lastStartLimit - firstStart) / gap;
+        }
+
+        // Padded by a day either side, as a zone's offset from UTC is always less than that
+        if (lastIndex < 0) {
+            this.windowStart = Long.MAX_VALUE;
+            this.windowEnd = Long.MIN_VALUE;
+        } else {
+            this.windowStart = firstStart - MINUTES_IN_A_DAY;
+            this.windowEnd = endDate == null && gap != 0 ? Long.MAX_VALUE : endOf(lastIndex) + MINUTES_IN_A_DAY;
+        }
+    }
+
+    /**
+     * Gets whether the schedule ever shows
+     * @return Whether it has any showings
+     */
+    public boolean hasShowings() {
+        return lastIndex >= 0;
+    }
+
+    /**
+     * Converts a time to minutes of local time in the schedule's time zone
+     * @param epochMinutes - Minutes since the epoch
+     * @return Local minutes
+     */
+    public long toLocal(long epochMinutes) {
+        ZoneOffset offset = zone.getRules().getOffset(Instant.ofEpochSecond(epochMinutes * 60));
+
+        return epochMinutes + offset.getTotalSeconds() / 60;
+    }
+
+    /**
+     * Converts minutes of local time in the schedule's time zone to a time
+     * @param localMinutes - Local minutes
+     * @return Minutes since the epoch
+     */
+    public long toEpoch(long localMinutes) {
+        LocalDateTime local = LocalDateTime.ofEpochSecond(localMinutes * 60, 0, ZoneOffset.UTC);
+
+        return local.atZone(zone).toEpochSecond() / 60;
+    }
+
+    private long startOf(long index) {
+        return firstStart + index * gap;
+    }
+
+    private long endOf(long index) {
+        return startOf(index) + duration;
+    }
+
+    /**
+     * Gets the last showing that started before a local minute
+     * @param localMinutes - Local minutes
+     * @return Showing index, or -1 if none have started
+     */
+    private long lastStartedBefore(long localMinutes) {
+        if (lastIndex < 0 || localMinutes - 1 < firstStart) {
+            return -1;
+        }
+
+        if (gap == 0) {
+            return 0;
+        }
+
+        return Math.min((localMinutes - 1 - firstStart) / gap, lastIndex);
+    }
+
+    /**
+     * Checks whether the schedule is showing at a time
+     * @param epochMinutes - Minutes since the epoch
+     * @return Whether it is showing
+     */
+    public boolean isActiveAt(long epochMinutes) {
+        long localMinutes = toLocal(epochMinutes);
+
+        if (exceptionDays.contains(Math.floorDiv(localMinutes, MINUTES_IN_A_DAY))) {
+            return false;
+        }
+
+        // The latest showing to start also ends the latest, so only it needs checking
+        long index = lastStartedBefore(localMinutes);
+
+        return index >= 0 && localMinutes < endOf(index);
+    }
+
+    /**
+     * Gets the next time at which the schedule could start or stop showing
+     * @param epochMinutes - Minutes since the epoch
+     * @return Minutes since the epoch of the next change, or Long.MAX_VALUE if there are none
+     */
+    public long getNextTransition(long epochMinutes) {
+        long localMinutes = toLocal(epochMinutes);
+
+        long next = Long.MAX_VALUE;
+
+        long index = lastStartedBefore(localMinutes);
+        if (index >= 0 && endOf(index) > localMinutes) {
+            next = endOf(index);
+        }
+
+        // Showings first show the minute after they start
+        if (index + 1 <= lastIndex) {
+            next = Math.min(next, startOf(index + 1) + 1);
+        }
+
+        // Exception dates start and stop at midnight
+        if (!exceptionDays.isEmpty() && next != Long.MAX_VALUE) {
+            next = Math.min(next, (Math.floorDiv(localMinutes, MINUTES_IN_A_DAY) + 1) * MINUTES_IN_A_DAY);
+        }
+
+        if (next == Long.MAX_VALUE) {
+            return next;
+        }
+
+        // Local times repeated when the clocks go back can convert to a time that has already passed
+        long nextEpoch = Math.max(toEpoch(next), epochMinutes + 1);
+
+        // Local time jumps when the clocks change, which can skip straight into or out of a showing
+        ZoneOffsetTransition offsetChange = zone.getRules().nextTransition(Instant.ofEpochSecond(epochMinutes * 60));
+        if (offsetChange != null) {
+            nextEpoch = Math.min(nextEpoch, offsetChange.toEpochSecond() / 60);
+        }
+
+        return nextEpoch;
+    }
+
+    /**
+     * Gets the showings that overlap a range of local time, cut down to the range and with exception dates left out
+     * @param from - Start of the range (local minutes)
+     * @param to - End of the range (exclusive)
+     * @return Each part of a showing within the range, in order
+     */
+    public ArrayList<Occurrence> getOccurrences(long from, long to) {
+        ArrayList<Occurrence> occurrences = new ArrayList<Occurrence>();
+        if (lastIndex < 0) {
+            return occurrences;
+        }
+
+        // First showing still going at the start of the range
+        long index = 0;
+        if (gap != 0) {
+            index = Math.max(Math.floorDiv(from - duration - firstStart, gap) + 1, 0);
+        }
+
+        for (; index <= lastIndex && startOf(index) < to; index++) {
+            long start = Math.max(startOf(index), from);
+            long end = Math.min(endOf(index), to);
+
+            // Split by day, leaving out exception dates
+            while (start < end) {
+                long dayStart = Math.floorDiv(start, MINUTES_IN_A_DAY) * MINUTES_IN_A_DAY;
+                long dayEnd = Math.min(end, dayStart + MINUTES_IN_A_DAY);
+
+                if (!exceptionDays.contains(dayStart / MINUTES_IN_A_DAY)) {
+                    occurrences.add(new Occurrence(start, dayEnd));
+                }
+
+                start = dayEnd;
+            }
+        }
+
+        return occurrences;
+    }
+
+    /**
+     * Gets the showings in the current week of the schedule's time zone, in the same format as the ScheduleTimes table
+     * @return Times for each day the schedule shows on this week
+     */
+    ArrayList<DbSchedule.ScheduleTime> getScheduleTimes() {
+        ArrayList<DbSchedule.ScheduleTime> times = new ArrayList<DbSchedule.ScheduleTime>();
+
+        LocalDate today = LocalDate.now(zone);
+        long weekStart = today.minusDays(today.getDayOfWeek().getValue() - 1).toEpochDay() * MINUTES_IN_A_DAY;
+
+        for (Occurrence occurrence : getOccurrences(weekStart, weekStart + DbSchedule.DAYS_IN_A_WEEK * MINUTES_IN_A_DAY)) {
+            long dayStart = Math.floorDiv(occurrence.start, MINUTES_IN_A_DAY) * MINUTES_IN_A_DAY;
+
+            times.add(new DbSchedule.ScheduleTime((int) ((dayStart - weekStart) / MINUTES_IN_A_DAY) + 1,
+                    (int) (occurrence.start - dayStart), (int) (occurrence.end - dayStart)));
+        }
+
+        return times;
+    }
+}
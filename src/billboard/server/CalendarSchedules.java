@@ -0,0 +1,292 @@
+package billboard.server;
+
+import java.sql.*;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Engine for dated schedules (ones with a start date), used alongside the weekly timetable or rule engine.
+ *
+ * Each schedule's {@link CalendarRule} covers a window of time, and the rules are kept sorted by when their
+ * window starts with the latest window end of each half stored over it (an interval tree laid out in an array),
+ * so finding the schedules that could be showing at a time only visits those whose windows cover it, however
+ * many years of schedules have built up. Dated schedules override the weekly ones, and the newest dated schedule
+ * wins when several are showing at once. Each channel has its own index (with the schedules for every screen
+ * under ""), and lookups only look at the one channel they are given.
+ */
+public class CalendarSchedules {
+    /**
+     * Helper class for one version of the index
+     */
+    private static class Snapshot {
+        public final CalendarRule[] rules; // Sorted by window start
+        public final long[] maxEnds; // Latest window end in the subtree rooted at each index
+
+        public Snapshot(CalendarRule[] rules) {
+            this.rules = rules;
+            this.maxEnds = new long[rules.length];
+
+            computeMaxEnds(0, rules.length - 1);
+        }
+
+        private long computeMaxEnds(int low, int high) {
+            if (low > high) {
+                return Long.MIN_VALUE;
+            }
+
+            int middle = (low + high) >>> 1;
+            maxEnds[middle] = Math.max(rules[middle].windowEnd, Math.max(computeMaxEnds(low, middle - 1), computeMaxEnds(middle + 1, high)));
+
+            return maxEnds[middle];
+        }
+
+        /**
+         * Finds the rules whose windows overlap a range of time
+         * @param from - Start of the range (minutes since the epoch)
+         * @param to - End of the range
+         * @param found - List to add the rules to
+         */
+        public void findOverlapping(long from, long to, ArrayList<CalendarRule> found) {
+            findOverlapping(0, rules.length - 1, from, to, found);
+        }
+
+        private void findOverlapping(int low, int high, long from, long to, ArrayList<CalendarRule> found) {
+            if (low > high) {
+                return;
+            }
+
+            int middle = (low + high) >>> 1;
+            if (maxEnds[middle] < from) {
+                return; // Everything under here has already finished
+            }
+
+            findOverlapping(low, middle - 1, from, to, found);
+
+            // Everything to the right starts even later
+            if (rules[middle].windowStart > to) {
+                return;
+            }
+
+            if (rules[middle].windowEnd >= from) {
+                found.add(rules[middle]);
+            }
+
+            findOverlapping(middle + 1, high, from, to, found);
+        }
+    }
+
+    private static final Snapshot EMPTY = new Snapshot(new CalendarRule[0]);
+
+    // Each channel's index, by channel name ("" for every screen)
+    private static volatile HashMap<String, Snapshot> snapshots = new HashMap<String, Snapshot>();
+
+    /**
+     * Loads every dated schedule's rule from the database
+     * @throws SQLException if an SQL exception occurs
+     */
+    public static synchronized void load() throws SQLException {
+        Connection connection = DbConnection.getInstance();
+
+        HashMap<Integer, ArrayList<LocalDate>> exceptions = getExceptionDates(connection);
+
+        Statement statement = connection.createStatement();
+        ResultSet rs = statement.executeQuery("SELECT * FROM Schedule WHERE startDate IS NOT NULL");
+
+        ArrayList<CalendarRule> loaded = new ArrayList<CalendarRule>();
+        while (rs.next()) {
+            CalendarRule rule = fromRow(rs, exceptions.getOrDefault(rs.getInt("scheduleId"), new ArrayList<LocalDate>()));
+            if (rule.hasShowings()) {
+                loaded.add(rule);
+            }
+        }
+
+        snapshots = build(loaded);
+    }
+
+    /**
+     * Gets the key a channel's index is stored under
+     * @param channel - Channel name, or null for every screen
+     * @return Channel key
+     */
+    private static String key(String channel) {
+        return channel == null ? "" : channel;
+    }
+
+    /**
+     * Gets whether any dated schedules are for a channel
+     * @param channel - Channel name
+     * @return Whether the channel has its own dated schedules
+     */
+    public static boolean hasChannel(String channel) {
+        return snapshots.containsKey(key(channel));
+    }
+
+    /**
+     * Gets every rule across all channels
+     * @return Every rule
+     */
+    private static ArrayList<CalendarRule> allRules() {
+        ArrayList<CalendarRule> all = new ArrayList<CalendarRule>();
+        for (Snapshot snapshot : snapshots.values()) {
+            all.addAll(Arrays.asList(snapshot.rules));
+        }
+
+        return all;
+    }
+
+    /**
+     * Reads the exception dates of every schedule
+     * @param connection - Database connection
+     * @return Exception dates, by schedule ID
+     * @throws SQLException if an SQL exception occurs
+     */
+    static HashMap<Integer, ArrayList<LocalDate>> getExceptionDates(Connection connection) throws SQLException {
+        return getExceptionDates(connection.prepareStatement("SELECT scheduleId, exceptionDate FROM ScheduleExceptions"));
+    }
+
+    /**
+     * Reads the exception dates of some schedules
+     * @param statement - Query for the scheduleId and exceptionDate of the schedules' exception dates
+     * @return Exception dates, by schedule ID
+     * @throws SQLException if an SQL exception occurs
+     */
+    static HashMap<Integer, ArrayList<LocalDate>> getExceptionDates(PreparedStatement statement) throws SQLException {
+        HashMap<Integer, ArrayList<LocalDate>> exceptions = new HashMap<Integer, ArrayList<LocalDate>>();
+
+        ResultSet rs = statement.executeQuery();
+        while (rs.next()) {
+            exceptions.computeIfAbsent(rs.getInt("scheduleId"), id -> new ArrayList<LocalDate>()).add(rs.getDate("exceptionDate").toLocalDate());
+        }
+
+        return exceptions;
+    }
+
+    /**
+     * Creates a rule from a dated Schedule row
+     * @param rs - Result set on the row
+     * @param exceptionDates - Schedule's exception dates
+     * @return Schedule's rule
+     * @throws SQLException if an SQL exception occurs
+     */
+    static CalendarRule fromRow(ResultSet rs, ArrayList<LocalDate> exceptionDates) throws SQLException {
+        Date endDate = rs.getDate("endDate");
+        String timezone = rs.getString("timezone");
+
+        return new CalendarRule(rs.getInt("scheduleId"), rs.getInt("billboardId"), rs.getInt("day"), rs.getInt("minutesStart"),
+                rs.getInt("minutesDuration"), rs.getBoolean("repeating"), rs.getInt("minutesRepeatGap"),
+                rs.getDate("startDate").toLocalDate(), endDate == null ? null : endDate.toLocalDate(),
+                timezone == null ? ZoneId.systemDefault() : ZoneId.of(timezone), exceptionDates, rs.getString("channel"));
+    }
+
+    /**
+     * Adds a dated schedule's rule, after it has been added to the database
+     * @param rule - Rule to add
+     */
+    public static synchronized void add(CalendarRule rule) {
+        if (!rule.hasShowings()) {
+            return;
+        }
+
+        ArrayList<CalendarRule> updated = new ArrayList<CalendarRule>(Arrays.asList(snapshots.getOrDefault(key(rule.channel), EMPTY).rules));
+        updated.add(rule);
+
+        HashMap<String, Snapshot> byChannel = new HashMap<String, Snapshot>(snapshots);
+        byChannel.put(key(rule.channel), new Snapshot(sort(updated)));
+
+        snapshots = byChannel;
+    }
+
+    /**
+     * Removes a dated schedule's rule
+     * @param scheduleId - Schedule ID to remove
+     */
+    public static synchronized void removeSchedule(int scheduleId) {
+        ArrayList<CalendarRule> updated = allRules();
+        if (updated.removeIf(rule -> rule.scheduleId == scheduleId)) {
+            snapshots = build(updated);
+        }
+    }
+
+    /**
+     * Removes the rules of every dated schedule for a billboard
+     * @param billboardId - Billboard ID to remove
+     */
+    public static synchronized void removeBillboard(int billboardId) {
+        ArrayList<CalendarRule> updated = allRules();
+        if (updated.removeIf(rule -> rule.billboardId == billboardId)) {
+            snapshots = build(updated);
+        }
+    }
+
+    /**
+     * Gets the billboard a channel's dated schedules show at a time
+     * @param channel - Channel name, or null for the schedules for every screen
+     * @param epochMinutes - Minutes since the epoch
+     * @return Billboard ID, or null if no dated schedule is showing
+     */
+    public static Integer getBillboardAt(String channel, long epochMinutes) {
+        ArrayList<CalendarRule> candidates = new ArrayList<CalendarRule>();
+        snapshots.getOrDefault(key(channel), EMPTY).findOverlapping(epochMinutes, epochMinutes, candidates);
+
+        CalendarRule newest = null;
+        for (CalendarRule rule : candidates) {
+            if ((newest == null || rule.scheduleId > newest.scheduleId) && rule.isActiveAt(epochMinutes)) {
+                newest = rule;
+            }
+        }
+
+        return newest == null ? null : newest.billboardId;
+    }
+
+    /**
+     * Gets the next time at which one of a channel's dated schedules could start or stop showing
+     * @param channel - Channel name, or null for the schedules for every screen
+     * @param epochMinutes - Minutes since the epoch
+     * @param limit - Latest time to look up to
+     * @return Minutes since the epoch of the next transition, or the limit if there are none before it
+     */
+    public static long getNextTransition(String channel, long epochMinutes, long limit) {
+        ArrayList<CalendarRule> candidates = new ArrayList<CalendarRule>();
+        snapshots.getOrDefault(key(channel), EMPTY).findOverlapping(epochMinutes, limit, candidates);
+
+        long next = limit;
+        for (CalendarRule rule : candidates) {
+            next = Math.min(next, rule.getNextTransition(epochMinutes));
+        }
+
+        return next;
+    }
+
+    /**
+     * Builds a new version of every channel's index
+     * @param rules - Every rule
+     * @return Each channel's index
+     */
+    private static HashMap<String, Snapshot> build(ArrayList<CalendarRule> rules) {
+        HashMap<String, ArrayList<CalendarRule>> grouped = new HashMap<String, ArrayList<CalendarRule>>();
+        for (CalendarRule rule : rules) {
+            grouped.computeIfAbsent(key(rule.channel), channel -> new ArrayList<CalendarRule>()).add(rule);
+        }
+
+        HashMap<String, Snapshot> byChannel = new HashMap<String, Snapshot>();
+        for (var entry : grouped.entrySet()) {
+            byChannel.put(entry.getKey(), new Snapshot(sort(entry.getValue())));
+        }
+
+        return byChannel;
+    }
+
+    /**
+     * Sorts rules by when their windows start, for the index
+     * @param rules - Rules to sort
+     * @return Sorted rules
+     */
+    private static CalendarRule[] sort(ArrayList<CalendarRule> rules) {
+        rules.sort((a, b) -> Long.compare(a.windowStart, b.windowStart));
+
+        return rules.toArray(new CalendarRule[0]);
+    }
+}
@@ -0,0 +1,134 @@
+package billboard.server;
+
+import java.sql.SQLException;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory copy of the currently showing billboard, so viewers polling the server don't each need a query.
+ * It is kept until the next time the schedule says a different billboard could be showing, or until a
+ * schedule or billboard is changed.
+ *
+ * Each channel has its own copy. Viewers asking for a channel that has no schedules of its own share the
+ * copy for screens without a channel, so made-up channel names can't fill up the cache.
+ */
+public class CurrentBillboardCache {
+    /**
+     * Helper class for holding the cached billboard
+     */
+    private static class Entry {
+        public final HashMap data;
+        public final long validUntil; // Time the next schedule transition happens (ms since the epoch)
+
+        public Entry(HashMap data, long validUntil) {
+            this.data = data;
+            this.validUntil = validUntil;
+        }
+    }
+
+    // Cached billboard for each channel, by channel name ("" for screens without one)
+    private static final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    // Bumped whenever schedules or billboards change, so a billboard read before the change isn't cached
+    private static final AtomicLong generation = new AtomicLong();
+
+    // Lock for rebuilding each channel's entry
+    private static final ConcurrentHashMap<String, Object> rebuildLocks = new ConcurrentHashMap<String, Object>();
+
+    /**
+     * Gets the currently showing billboard for screens without a channel
+     * @return HashMap containing billboard name and data
+     * @throws SQLException if an SQL exception occurs
+     */
+    public static HashMap get() throws SQLException {
+        return get(null);
+    }
+
+    /**
+     * Gets the billboard currently showing on a channel, only querying the database if the cached one is out of
+     * date. The returned HashMap is shared, so it must not be modified.
+     * @param channel - Channel name, or null for screens without one
+     * @return HashMap containing billboard name and data
+     * @throws SQLException if an SQL exception occurs
+     */
+    public static HashMap get(String channel) throws SQLException {
+        String key = channel == null ? "" : channel;
+
+        Entry entry = entries.get(key);
+        if (entry != null && System.currentTimeMillis() < entry.validUntil) {
+            return entry.data;
+        }
+
+        // Channels without their own schedules show the same as screens without a channel
+        if (channel != null && !DbSchedule.hasChannel(channel)) {
+            return get(null);
+        }
+
+        // Only let one request rebuild it, the rest can use its result
+        synchronized (rebuildLocks.computeIfAbsent(key, k -> new Object())) {
+            entry = entries.get(key);
+            if (entry != null && System.currentTimeMillis() < entry.validUntil) {
+                return entry.data;
+            }
+
+            long startGeneration = generation.get();
+
+            ZonedDateTime now = ZonedDateTime.now();
+            int currentDay = now.getDayOfWeek().getValue();
+            int currentMinutes = now.getHour() * 60 + now.getMinute();
+
+            long epochMinutes = now.toEpochSecond() / 60;
+
+            HashMap data = DbSchedule.loadCurrentBillboard(channel, currentDay, currentMinutes, epochMinutes);
+            int nextTransition = DbSchedule.getNextTransition(channel, currentDay, currentMinutes);
+
+            long validUntil = now.truncatedTo(ChronoUnit.DAYS).plusMinutes(nextTransition).toInstant().toEpochMilli();
+
+            // Dated schedules can start or stop before then, either the channel's or the ones for every screen
+            long limit = validUntil / 60000;
+            limit = CalendarSchedules.getNextTransition(null, epochMinutes, limit);
+            if (channel != null) {
+                limit = CalendarSchedules.getNextTransition(channel, epochMinutes, limit);
+            }
+            validUntil = Math.min(validUntil, limit * 60000);
+
+            // Don't keep it if something changed while it was being read
+            if (startGeneration == generation.get()) {
+                entries.put(key, new Entry(data, validUntil));
+            }
+
+            return data;
+        }
+    }
+
+    /**
+     * Gets the time the cached billboard for a channel is valid until
+     * @param channel - Channel name, or null for screens without one
+     * @return Time of the next schedule transition (ms since the epoch), or 0 if nothing is cached
+     */
+    public static long getValidUntil(String channel) {
+        Entry entry = entries.get(channel == null ? "" : channel);
+
+        // Channels without their own schedules share the entry for screens without a channel
+        if (entry == null && channel != null) {
+            entry = entries.get("");
+        }
+
+        return entry == null ? 0 : entry.validUntil;
+    }
+
+    /**
+     * Throws away the cached billboards, they will be read again on the next request.
+     * Needs to be called whenever a schedule or billboard is changed.
+     */
+    public static void invalidate() {
+        generation.incrementAndGet();
+        entries.clear();
+
+        // Subscribed viewers may need the new billboard
+        BillboardBroadcaster.notifyChanged();
+    }
+}
@@ -1,5 +1,8 @@
 package billboard.server;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Path;
 import java.security.NoSuchAlgorithmException;
 import java.sql.*;
 import java.util.ArrayList;
@@ -28,12 +31,123 @@ public class DbBillboard {
 
         Connection connection = DbConnection.getInstance();
 
-        PreparedStatement statement = connection.prepareStatement("INSERT INTO billboards (name, data, userId) VALUES (?, ?, ?);");
-        statement.setString(1, billboardName);
-        statement.setString(2, billboardData);
-        statement.setInt(3, userId);
+        // Store the pictures and the billboard together, so a failed insert doesn't leave pictures nothing uses
+        Integer billboardId = null;
+        connection.setAutoCommit(false);
+        try {
+            // Pictures are stored once in the blob store, and referenced from the XML
+            billboardData = BlobStore.storePictures(billboardData);
+
+            PreparedStatement statement = connection.prepareStatement("INSERT INTO billboards (name, data, dataHash, userId) VALUES (?, ?, ?, ?);", Statement.RETURN_GENERATED_KEYS);
+            statement.setString(1, billboardName);
+            statement.setString(2, billboardData);
+            statement.setString(3, PasswordHash.hashContent(billboardData));
+            statement.setInt(4, userId);
+
+            statement.execute();
+
+            ResultSet keys = statement.getGeneratedKeys();
+            if (keys.next()) {
+                billboardId = keys.getInt(1);
+            }
+
+            connection.commit();
+        } catch (SQLException | DBException | RuntimeException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+
+        if (billboardId != null) {
+            BillboardCatalog.reload(billboardId);
+            BillboardSearchIndex.update(billboardId, billboardName, billboardData);
+        } else {
+            BillboardCatalog.invalidate();
+            BillboardSearchIndex.invalidate();
+        }
+    }
+
+    /**
+     * Creates a new billboard from XML uploaded in chunks, streaming it into the database
+     * @param billboardName - New billboard name
+     * @param upload - File holding the uploaded billboard XML
+     * @param userId - Billboard creator user ID
+     * @throws SQLException if an SQL exception occurs
+     * @throws DBException if a custom DB error occurs
+     * @throws IOException if reading the upload fails
+     */
+    public static void createBillboard(String billboardName, Path upload, Integer userId) throws SQLException, DBException, IOException {
+        if (billboardName.isEmpty()) {
+            throw new DBException("Billboard name cannot be empty");
+        }
+
+        if (billboardNameExists(billboardName)) {
+            throw new DBException("Billboard name already exists");
+        }
+
+        Connection connection = DbConnection.getInstance();
+
+        // Store the pictures and the billboard together, so a failed insert doesn't leave pictures nothing uses
+        BillboardTransfer.Prepared billboardData = null;
+        Integer billboardId = null;
+        connection.setAutoCommit(false);
+        try {
+            billboardData = BillboardTransfer.prepare(upload);
+
+            try (Reader data = billboardData.open()) {
+                PreparedStatement statement = connection.prepareStatement("INSERT INTO billboards (name, data, dataHash, userId) VALUES (?, ?, ?, ?);", Statement.RETURN_GENERATED_KEYS);
+                statement.setString(1, billboardName);
+                statement.setCharacterStream(2, data);
+                statement.setString(3, billboardData.dataHash);
+                statement.setInt(4, userId);
+
+                statement.execute();
+
+                ResultSet keys = statement.getGeneratedKeys();
+                if (keys.next()) {
+                    billboardId = keys.getInt(1);
+                }
+            }
+
+            connection.commit();
+        } catch (SQLException | DBException | IOException | RuntimeException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+
+            if (billboardData != null) {
+                billboardData.delete();
+            }
+        }
 
-        statement.execute();
+        if (billboardId != null) {
+            BillboardCatalog.reload(billboardId);
+            BillboardSearchIndex.update(billboardId, billboardName, billboardData.message, billboardData.information);
+        } else {
+            BillboardCatalog.invalidate();
+            BillboardSearchIndex.invalidate();
+        }
+    }
+
+    /**
+     * Works out the content hash for any billboards that don't have one yet
+     * @throws SQLException if an SQL exception occurs
+     */
+    public static void addMissingHashes() throws SQLException {
+        Connection connection = DbConnection.getInstance();
+
+        Statement statement = connection.createStatement();
+        ResultSet rs = statement.executeQuery("SELECT billboardId, data FROM billboards WHERE dataHash IS NULL");
+
+        while (rs.next()) {
+            PreparedStatement statement2 = connection.prepareStatement("UPDATE billboards SET dataHash=? WHERE billboardId=?");
+            statement2.setString(1, PasswordHash.hashContent(rs.getString("data")));
+            statement2.setInt(2, rs.getInt("billboardId"));
+
+            statement2.execute();
+        }
     }
 
     /**
@@ -54,31 +168,39 @@ public class DbBillboard {
     }
 
     /**
-     * Gets all of the billboards
+     * Gets all of the billboards, from the catalog rather than reading their data
      * @return ArrayList containing a HashMap with billboard ids and names
      * @throws SQLException if an SQL exception occurs
      */
     public static ArrayList<HashMap> listBillboards() throws SQLException {
-        Connection connection = DbConnection.getInstance();
-
-        Statement statement = connection.createStatement();
-
-        ResultSet rs = statement.executeQuery("SELECT b.*, u.username FROM billboards as b " +
-                "INNER JOIN users as u ON u.userId = b.userId;");
-
-        // list to hold the data from the result set
-        ArrayList<HashMap> billboards = new ArrayList<HashMap>();
-        while (rs.next()){
-            HashMap billboardData = new HashMap();
-            billboardData.put("billboardId", rs.getInt("billboardId"));
-            billboardData.put("name", rs.getString("name"));
-            billboardData.put("creatorId", rs.getInt("userId"));
-            billboardData.put("creatorUsername", rs.getString("username"));
+        return BillboardCatalog.list();
+    }
 
-            billboards.add(billboardData);
-        }
+    /**
+     * Searches the name, message and information of every billboard, from the search index
+     * @param query - Words to search for, a word ending in * matches any word starting with it
+     * @param limit - Maximum number of billboards to return
+     * @return HashMap containing "billboards" (billboard ids, names and creators, best match first) and "total"
+     * (number of billboards matching)
+     * @throws SQLException if an SQL exception occurs
+     */
+    public static HashMap searchBillboards(String query, int limit) throws SQLException {
+        return BillboardSearchIndex.search(query, limit);
+    }
 
-        return billboards;
+    /**
+     * Gets one page of billboards, from the catalog rather than reading their data
+     * @param sort - Order to list them in: "name", "creator" or "created"
+     * @param descending - Whether to reverse the order
+     * @param filter - Text the name or creator username has to contain, or null for every billboard
+     * @param after - Last billboard of the previous page, or null for the first page
+     * @param limit - Number of billboards in the page
+     * @return HashMap containing "billboards" (billboard ids, names and creators) and "total" (number of billboards matching)
+     * @throws SQLException if an SQL exception occurs
+     * @throws DBException if the sort order is unknown
+     */
+    public static HashMap listBillboardsPage(String sort, boolean descending, String filter, HashMap after, int limit) throws SQLException, DBException {
+        return BillboardCatalog.getPage(sort, descending, filter, after, limit);
     }
 
     /**
@@ -241,16 +363,128 @@ public class DbBillboard {
 
         Connection connection = DbConnection.getInstance();
 
-        PreparedStatement statement = connection.prepareStatement("UPDATE billboards SET name=?, data=? WHERE billboardId=?");
-        statement.setString(1, billboardName);
-        statement.setString(2, billboardData);
-        statement.setInt(3, billboardId);
+        // Store the pictures and the billboard together, so a failed update doesn't leave pictures nothing uses
+        connection.setAutoCommit(false);
+        try {
+            // Pictures are stored once in the blob store, and referenced from the XML
+            billboardData = BlobStore.storePictures(billboardData);
+
+            PreparedStatement statement = connection.prepareStatement("UPDATE billboards SET name=?, data=?, dataHash=? WHERE billboardId=?");
+            statement.setString(1, billboardName);
+            statement.setString(2, billboardData);
+            statement.setString(3, PasswordHash.hashContent(billboardData));
+            statement.setInt(4, billboardId);
+
+            statement.execute();
+
+            connection.commit();
+        } catch (SQLException | DBException | RuntimeException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
 
-        statement.execute();
+        BillboardCatalog.reload(billboardId);
+        BillboardSearchIndex.update(billboardId, billboardName, billboardData);
+        CurrentBillboardCache.invalidate();
 
         return true;
     }
 
+    /**
+     * Updates a billboard's data from XML uploaded in chunks, streaming it into the database
+     * @param billboardName - New billboard name
+     * @param upload - File holding the uploaded billboard XML
+     * @param billboardId - Billboard ID to edit
+     * @throws SQLException if an SQL exception occurs
+     * @throws DBException if the request fails
+     * @throws IOException if reading the upload fails
+     */
+    public static void updateBillboard(String billboardName, Path upload, Integer billboardId) throws SQLException, DBException, IOException {
+        if (billboardName.isEmpty()) {
+            throw new DBException("Billboard name cannot be empty");
+        }
+
+        Connection connection = DbConnection.getInstance();
+
+        // Store the pictures and the billboard together, so a failed update doesn't leave pictures nothing uses
+        BillboardTransfer.Prepared billboardData = null;
+        connection.setAutoCommit(false);
+        try {
+            billboardData = BillboardTransfer.prepare(upload);
+
+            try (Reader data = billboardData.open()) {
+                PreparedStatement statement = connection.prepareStatement("UPDATE billboards SET name=?, data=?, dataHash=? WHERE billboardId=?");
+                statement.setString(1, billboardName);
+                statement.setCharacterStream(2, data);
+                statement.setString(3, billboardData.dataHash);
+                statement.setInt(4, billboardId);
+
+                statement.execute();
+            }
+
+            connection.commit();
+        } catch (SQLException | DBException | IOException | RuntimeException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+
+            if (billboardData != null) {
+                billboardData.delete();
+            }
+        }
+
+        BillboardCatalog.reload(billboardId);
+        BillboardSearchIndex.update(billboardId, billboardName, billboardData.message, billboardData.information);
+        CurrentBillboardCache.invalidate();
+    }
+
+    /**
+     * Gets one chunk of a billboard's data, reading only that part of it out of the database. Offsets and lengths
+     * are in code points (as SUBSTRING and CHAR_LENGTH count them), not Java chars
+     * @param billboardId - Billboard ID
+     * @param offset - Number of code points to skip
+     * @param limit - Most code points to read
+     * @return HashMap containing "data" (the chunk), "length" (code points in the whole billboard) and "dataHash"
+     * (to check the billboard hasn't changed since the previous chunk)
+     * @throws SQLException if an SQL exception occurs
+     * @throws DBException if the billboard doesn't exist
+     * @throws IOException if reading the chunk fails
+     */
+    public static HashMap getBillboardDataChunk(int billboardId, long offset, int limit) throws SQLException, DBException, IOException {
+        Connection connection = DbConnection.getInstance();
+
+        PreparedStatement statement = connection.prepareStatement("SELECT SUBSTRING(data, ?, ?) AS chunk, CHAR_LENGTH(data) AS length, dataHash FROM billboards WHERE billboardId=?");
+        statement.setLong(1, Math.max(offset, 0) + 1); // SUBSTRING counts from 1
+        statement.setInt(2, Math.max(Math.min(limit, BillboardTransfer.getChunkChars()), 0));
+        statement.setInt(3, billboardId);
+
+        ResultSet rs = statement.executeQuery();
+        if (!rs.next()) {
+            throw new DBException("Billboard does not exist");
+        }
+
+        StringBuilder chunk = new StringBuilder();
+        try (Reader data = rs.getCharacterStream("chunk")) {
+            if (data != null) {
+                char[] buffer = new char[8192];
+                int read;
+                while ((read = data.read(buffer)) != -1) {
+                    chunk.append(buffer, 0, read);
+                }
+            }
+        }
+
+        HashMap billboardData = new HashMap();
+        billboardData.put("data", chunk.toString());
+        billboardData.put("length", rs.getLong("length"));
+        billboardData.put("dataHash", rs.getString("dataHash"));
+
+        return billboardData;
+    }
+
     /**
      * Deletes a billboard
      * @param billboardId - billboard ID to delete
@@ -282,6 +516,10 @@ public class DbBillboard {
             statement2.setInt(1, scheduleId);
             statement2.execute();
 
+            PreparedStatement statement5 = connection.prepareStatement("DELETE FROM ScheduleExceptions WHERE scheduleId IN (SELECT scheduleId FROM schedule WHERE billboardId=?)");
+            statement5.setInt(1, billboardId);
+            statement5.execute();
+
             PreparedStatement statement4 = connection.prepareStatement("DELETE FROM schedule WHERE billboardId=?");
             statement4.setInt(1, billboardId);
             statement4.execute();
@@ -291,6 +529,13 @@ public class DbBillboard {
             statement3.execute();
         }
 
+        ScheduleIndex.removeBillboard(billboardId);
+        ScheduleRules.removeBillboard(billboardId);
+        CalendarSchedules.removeBillboard(billboardId);
+        BillboardCatalog.remove(billboardId);
+        BillboardSearchIndex.remove(billboardId);
+        CurrentBillboardCache.invalidate();
+
         return true;
     }
 }
@@ -2,16 +2,18 @@ package billboard.server;
 
 import java.io.FileInputStream;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.Properties;
 
 /**
- * Class for handling the connection to the database
+ * Class for handling the connections to the database
  */
 public class DbConnection {
-    private static Connection connection = null;
+    private static volatile DbConnectionPool pool = null;
+
+    // Each thread handling a request holds on to its own connection from the pool
+    private static final ThreadLocal<Connection> threadConnection = new ThreadLocal<Connection>();
 
     private static final String USER_TABLE = "CREATE TABLE IF NOT EXISTS Users(" +
             "userId int NOT NULL AUTO_INCREMENT," +
@@ -33,6 +35,7 @@ public class DbConnection {
 
             "name varchar(100) NOT NULL UNIQUE," +
             "data LONGTEXT NOT NULL," +
+            "dataHash varchar(64)," +
 
             "userId int NOT NULL," +
 
@@ -54,6 +57,12 @@ public class DbConnection {
             "repeating int NOT NULL," +
             "minutesRepeatGap int NOT NULL," +
 
+            "startDate DATE," +
+            "endDate DATE," +
+            "timezone varchar(64)," +
+
+            "channel varchar(64)," +
+
             "PRIMARY KEY(scheduleId, billboardId)," +
             "FOREIGN KEY(billboardId) REFERENCES Billboards(billboardId)," +
             "FOREIGN KEY(userId) REFERENCES Users(userId)" +
@@ -72,6 +81,23 @@ public class DbConnection {
             "FOREIGN KEY(scheduleId) REFERENCES Schedule(scheduleId)" +
             ");";
 
+    private static final String SCHEDULE_EXCEPTIONS_TABLE = "CREATE TABLE IF NOT EXISTS ScheduleExceptions(" +
+            "scheduleId int NOT NULL," +
+
+            "exceptionDate DATE NOT NULL," +
+
+            "PRIMARY KEY(scheduleId, exceptionDate)," +
+            "FOREIGN KEY(scheduleId) REFERENCES Schedule(scheduleId)" +
+            ");";
+
+    private static final String BLOBS_TABLE = "CREATE TABLE IF NOT EXISTS Blobs(" +
+            "hash char(64) NOT NULL," +
+
+            "data LONGBLOB NOT NULL," +
+
+            "PRIMARY KEY(hash)" +
+            ");";
+
     private static final String SESSION_TABLE = "CREATE TABLE IF NOT EXISTS Sessions(" +
             "sessionId int NOT NULL AUTO_INCREMENT," +
             "userId int NOT NULL," +
@@ -88,7 +114,7 @@ public class DbConnection {
      * @throws SQLException if an SQL exception occurs
      */
     private static void createTables() throws SQLException {
-        connection = DbConnection.getInstance();
+        Connection connection = DbConnection.getInstance();
 
         Statement statement = connection.createStatement();
 
@@ -97,6 +123,24 @@ public class DbConnection {
         statement.execute(SCHEDULE_BILLBOARDS_TABLE);
         statement.execute(SCHEDULE_BILLBOARDS_TIME_TABLE);
         statement.execute(SESSION_TABLE);
+
+        // Schedules from before dated schedules were added are all weekly
+        statement.execute("ALTER TABLE Schedule ADD COLUMN IF NOT EXISTS startDate DATE, ADD COLUMN IF NOT EXISTS endDate DATE, ADD COLUMN IF NOT EXISTS timezone varchar(64)");
+        statement.execute(SCHEDULE_EXCEPTIONS_TABLE);
+
+        // Schedules from before channels were added show on every screen
+        statement.execute("ALTER TABLE Schedule ADD COLUMN IF NOT EXISTS channel varchar(64)");
+
+        // Billboards from before content hashes were stored need them added
+        statement.execute("ALTER TABLE Billboards ADD COLUMN IF NOT EXISTS dataHash varchar(64)");
+        DbBillboard.addMissingHashes();
+
+        // Billboards from before the blob store was added have their pictures in their XML
+        statement.execute(BLOBS_TABLE);
+        BlobStore.storeMissingPictures();
+
+        // Index for looking up the times showing on a day, for when the timetable index isn't loaded
+        statement.execute("CREATE INDEX IF NOT EXISTS ScheduleTimesDay ON ScheduleTimes(day, startMinutes, endMinutes)");
     }
 
     /**
@@ -104,17 +148,30 @@ public class DbConnection {
      * @throws SQLException if an SQL exception occurs
      */
     public static void resetTables() throws SQLException {
-        connection = DbConnection.getInstance();
+        Connection connection = DbConnection.getInstance();
 
         Statement statement = connection.createStatement();
 
         statement.execute("DROP table Sessions");
         statement.execute("DROP table ScheduleTimes");
+        statement.execute("DROP table ScheduleExceptions");
         statement.execute("DROP table Schedule");
         statement.execute("DROP table Billboards");
         statement.execute("DROP table Users");
+        statement.execute("DROP table Blobs");
 
         createTables();
+
+        // Start the timetable over too
+        if (ScheduleRules.isEnabled()) {
+            ScheduleRules.load();
+        } else {
+            ScheduleIndex.load();
+        }
+        CalendarSchedules.load();
+        BillboardCatalog.invalidate();
+        BillboardSearchIndex.invalidate();
+        CurrentBillboardCache.invalidate();
     }
 
     /**
@@ -129,14 +186,9 @@ public class DbConnection {
             props.load(in);
             in.close();
 
-            // specify the data source, username and password
-            String url = props.getProperty("jdbc.url");
-            String username = props.getProperty("jdbc.username");
-            String password = props.getProperty("jdbc.password");
-            String schema = props.getProperty("jdbc.schema");
-
-            // get a connection
-            connection = DriverManager.getConnection(url + "/" + schema, username, password);
+            // set up the connection pool
+            pool = new DbConnectionPool(props);
+            pool.fill();
         }
         catch (Exception e){
             e.printStackTrace();
@@ -144,33 +196,62 @@ public class DbConnection {
     }
 
     /**
-     * Initialises the connection to the database
+     * Gets the connection pool, initialising it if it isn't already
+     * @return Connection pool
      * @throws SQLException if an SQL exception occurs
      */
-    private static void dbConnect() throws SQLException {
-        connect();
+    private static synchronized DbConnectionPool getPool() throws SQLException {
+        if (pool == null) {
+            connect();
 
-        createTables();
+            if (pool == null) {
+                throw new SQLException("Failed to load the database settings");
+            }
+
+            createTables();
+        }
+
+        return pool;
     }
 
     /**
-     * Closes the connection to the database
+     * Closes the connections to the database
      * @throws SQLException if an SQL exception occurs
      */
     public static void dbClose() throws SQLException {
-        connection.close();
+        release();
+
+        if (pool != null) {
+            pool.close();
+        }
     }
 
     /**
-     * Gets the database connection, or connects if it isn't already
+     * Gets the database connection for the current thread, borrowing one from the pool if it doesn't have one yet.
+     * The connection is kept by the thread until {@link #release()} is called
      * @return Database connection
      * @throws SQLException if an SQL exception occurs
      */
     public static Connection getInstance() throws SQLException {
+        Connection connection = threadConnection.get();
+
         if (connection == null) {
-            dbConnect();
+            connection = getPool().borrow();
+            threadConnection.set(connection);
         }
 
         return connection;
     }
+
+    /**
+     * Returns the current thread's database connection to the pool, if it has one
+     */
+    public static void release() {
+        Connection connection = threadConnection.get();
+
+        if (connection != null) {
+            threadConnection.remove();
+            pool.release(connection);
+        }
+    }
 }
@@ -0,0 +1,298 @@
+package billboard.server;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of database connections, so that requests being handled at the same time each get their own connection
+ */
+public class DbConnectionPool {
+    /**
+     * Helper class for holding an idle connection
+     */
+    private static class IdleConnection {
+        public Connection connection;
+        public long idleSince;
+
+        public IdleConnection(Connection connection) {
+            this.connection = connection;
+            this.idleSince = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Helper class for tracking a borrowed connection
+     */
+    private static class BorrowedConnection {
+        public long borrowedAt;
+        public String threadName;
+        public Exception borrowSite; // Stack trace of where it was borrowed, shown if it leaks
+        public boolean reportedLeak = false;
+
+        public BorrowedConnection() {
+            this.borrowedAt = System.currentTimeMillis();
+            this.threadName = Thread.currentThread().getName();
+            this.borrowSite = new Exception("Connection borrowed here");
+        }
+    }
+
+    private final String url;
+    private final String username;
+    private final String password;
+
+    private final int minSize;
+    private final int maxSize;
+    private final long borrowTimeoutMs;
+    private final int validationTimeoutSeconds;
+    private final long idleTimeoutMs;
+    private final long leakThresholdMs;
+
+    private final Semaphore permits; // One permit for every connection that can be borrowed
+    private final LinkedBlockingDeque<IdleConnection> idle = new LinkedBlockingDeque<IdleConnection>();
+    private final ConcurrentHashMap<Connection, BorrowedConnection> borrowed = new ConcurrentHashMap<Connection, BorrowedConnection>();
+    private final ScheduledExecutorService maintenance;
+
+    // Metrics
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong destroyed = new AtomicLong();
+    private final AtomicLong borrows = new AtomicLong();
+    private final AtomicLong borrowTimeouts = new AtomicLong();
+    private final AtomicLong validationFailures = new AtomicLong();
+    private final AtomicLong leaksDetected = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+
+    /**
+     * Creates a connection pool using the settings from db.props
+     * @param props - Loaded db.props file
+     */
+    public DbConnectionPool(Properties props) {
+        // specify the data source, username and password
+        String jdbcUrl = props.getProperty("jdbc.url") + "/" + props.getProperty("jdbc.schema");
+        String options = props.getProperty("jdbc.options", "");
+        this.url = options.isEmpty() ? jdbcUrl : jdbcUrl + "?" + options;
+        this.username = props.getProperty("jdbc.username");
+        this.password = props.getProperty("jdbc.password");
+
+        this.minSize = Integer.parseInt(props.getProperty("pool.minSize", "2"));
+        this.maxSize = Integer.parseInt(props.getProperty("pool.maxSize", "10"));
+        this.borrowTimeoutMs = Long.parseLong(props.getProperty("pool.borrowTimeoutMs", "5000"));
+        this.validationTimeoutSeconds = Integer.parseInt(props.getProperty("pool.validationTimeoutSeconds", "2"));
+        this.idleTimeoutMs = Long.parseLong(props.getProperty("pool.idleTimeoutMs", "300000"));
+        this.leakThresholdMs = Long.parseLong(props.getProperty("pool.leakThresholdMs", "60000"));
+        long maintenanceIntervalMs = Long.parseLong(props.getProperty("pool.maintenanceIntervalMs", "30000"));
+        long statsLogIntervalMs = Long.parseLong(props.getProperty("pool.statsLogIntervalMs", "0"));
+
+        this.permits = new Semaphore(maxSize, true);
+
+        // Background thread for evicting idle connections and looking for leaks
+        maintenance = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "db-pool-maintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+        maintenance.scheduleWithFixedDelay(this::runMaintenance, maintenanceIntervalMs, maintenanceIntervalMs, TimeUnit.MILLISECONDS);
+
+        // Print the metrics every so often, if turned on
+        if (statsLogIntervalMs > 0) {
+            maintenance.scheduleWithFixedDelay(this::logStats, statsLogIntervalMs, statsLogIntervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Opens the minimum number of connections. Called on startup and by the maintenance thread, one at a time so
+     * they can't both see the pool short and open a connection each
+     * @throws SQLException if an SQL exception occurs
+     */
+    public synchronized void fill() throws SQLException {
+        while (idle.size() + borrowed.size() < minSize) {
+            idle.addLast(new IdleConnection(createConnection()));
+        }
+    }
+
+    /**
+     * Opens a new connection to the database
+     * @return New connection
+     * @throws SQLException if an SQL exception occurs
+     */
+    private Connection createConnection() throws SQLException {
+        Connection connection = DriverManager.getConnection(url, username, password);
+        created.incrementAndGet();
+
+        return connection;
+    }
+
+    /**
+     * Closes a connection, ignoring any errors as it is being thrown away
+     * @param connection - Connection to close
+     */
+    private void destroyConnection(Connection connection) {
+        destroyed.incrementAndGet();
+
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            // Most likely the link has already dropped
+        }
+    }
+
+    /**
+     * Borrows a connection from the pool, waiting for one to be returned if they are all in use
+     * @return Valid database connection
+     * @throws SQLException if no connection becomes free in time or connecting fails
+     */
+    public Connection borrow() throws SQLException {
+        long waitStart = System.nanoTime();
+
+        try {
+            if (!permits.tryAcquire(borrowTimeoutMs, TimeUnit.MILLISECONDS)) {
+                borrowTimeouts.incrementAndGet();
+                throw new SQLException("Timed out waiting for a database connection");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for a database connection");
+        }
+
+        totalWaitNanos.addAndGet(System.nanoTime() - waitStart);
+
+        try {
+            Connection connection = null;
+
+            // Reuse the most recently returned connection that is still alive
+            IdleConnection idleConnection;
+            while (connection == null && (idleConnection = idle.pollFirst()) != null) {
+                if (idleConnection.connection.isValid(validationTimeoutSeconds)) {
+                    connection = idleConnection.connection;
+                } else {
+                    // The link has dropped, so throw this one away and try the next
+                    validationFailures.incrementAndGet();
+                    destroyConnection(idleConnection.connection);
+                }
+            }
+
+            if (connection == null) {
+                connection = createConnection();
+            }
+
+            borrowed.put(connection, new BorrowedConnection());
+            borrows.incrementAndGet();
+
+            return connection;
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns a borrowed connection to the pool
+     * @param connection - Connection to return
+     */
+    public void release(Connection connection) {
+        if (borrowed.remove(connection) == null) {
+            return; // Not ours, or already returned
+        }
+
+        try {
+            if (connection.isClosed()) {
+                destroyed.incrementAndGet();
+            } else {
+                // Put it back how we found it for the next borrower
+                if (!connection.getAutoCommit()) {
+                    connection.rollback();
+                    connection.setAutoCommit(true);
+                }
+
+                idle.addFirst(new IdleConnection(connection));
+            }
+        } catch (SQLException e) {
+            destroyConnection(connection);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Evicts connections that have been idle for too long and reports connections that look leaked
+     */
+    private void runMaintenance() {
+        long now = System.currentTimeMillis();
+
+        // Evict idle connections past the timeout, oldest first, while keeping the minimum open
+        IdleConnection oldest;
+        while (idle.size() + borrowed.size() > minSize && (oldest = idle.peekLast()) != null && now - oldest.idleSince > idleTimeoutMs) {
+            if (idle.removeLastOccurrence(oldest)) {
+                destroyConnection(oldest.connection);
+            }
+        }
+
+        // Report connections that have been held for longer than any request should take
+        for (BorrowedConnection borrowedConnection : borrowed.values()) {
+            if (!borrowedConnection.reportedLeak && now - borrowedConnection.borrowedAt > leakThresholdMs) {
+                borrowedConnection.reportedLeak = true;
+                leaksDetected.incrementAndGet();
+
+                System.out.printf("- Warning: Database connection held by %s for over %d ms, possible leak\n", borrowedConnection.threadName, leakThresholdMs);
+                borrowedConnection.borrowSite.printStackTrace(System.out);
+            }
+        }
+
+        // Top the pool back up in case connections were thrown away
+        try {
+            fill();
+        } catch (SQLException e) {
+            System.out.println("- Error: Failed to reopen database connections: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Gets the pool's metrics
+     * @return HashMap of metric names and values
+     */
+    public HashMap<String, Long> getStats() {
+        HashMap<String, Long> stats = new HashMap<String, Long>();
+        stats.put("active", (long) borrowed.size());
+        stats.put("idle", (long) idle.size());
+        stats.put("waiting", (long) permits.getQueueLength());
+        stats.put("maxSize", (long) maxSize);
+        stats.put("created", created.get());
+        stats.put("destroyed", destroyed.get());
+        stats.put("borrows", borrows.get());
+        stats.put("borrowTimeouts", borrowTimeouts.get());
+        stats.put("validationFailures", validationFailures.get());
+        stats.put("leaksDetected", leaksDetected.get());
+        stats.put("totalWaitMs", totalWaitNanos.get() / 1000000);
+
+        return stats;
+    }
+
+    /**
+     * Prints the pool's metrics
+     */
+    private void logStats() {
+        System.out.println("- Database pool: " + getStats());
+    }
+
+    /**
+     * Closes every connection in the pool
+     */
+    public void close() {
+        maintenance.shutdownNow();
+
+        IdleConnection idleConnection;
+        while ((idleConnection = idle.pollFirst()) != null) {
+            destroyConnection(idleConnection.connection);
+        }
+
+        for (Map.Entry<Connection, BorrowedConnection> entry : borrowed.entrySet()) {
+            destroyConnection(entry.getKey());
+        }
+        borrowed.clear();
+    }
+}
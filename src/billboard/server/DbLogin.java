@@ -38,6 +38,9 @@ public class DbLogin {
         statement.setTimestamp(3, expiryDate);
         statement.executeQuery();
 
+        // Cache the session so checking the token doesn't need the database
+        SessionCache.put(sessionKey, userId, expiryDate.getTime());
+
         // return the session key to send to the user
         return sessionKey;
     }
@@ -102,10 +105,12 @@ public class DbLogin {
         statement.setString(1, token);
 
         statement.execute();
+
+        SessionCache.remove(token);
     }
 
     /**
-     * Deletes expired session tokens
+     * Deletes expired session tokens, this is run in the background by {@link SessionCache#startSweeper(long)}
      * @throws SQLException if an SQL exception occurs
      */
     public static void deleteOldTokens() throws SQLException {
@@ -129,13 +134,43 @@ public class DbLogin {
             throw new DBException("No token supplied");
         }
 
-        Connection connection = DbConnection.getInstance();
+        // Check the cache first, valid tokens are almost always in it
+        Integer cachedUserId = SessionCache.getUserId(token);
+        if (cachedUserId != null) {
+            return cachedUserId;
+        }
 
-        // Delete old tokens
-        deleteOldTokens();
+        // Not cached (e.g. the server has restarted since it was created)
+        return getAuthContext(token).userId;
+    }
 
-        // Get a token that is valid
-        PreparedStatement statement = connection.prepareStatement("SELECT userId FROM Sessions WHERE sessionKey=?");
+    /**
+     * Gets the user ID and permissions for a session token
+     * @param token - Token to check
+     * @return Auth context for the token's owner (if valid)
+     * @throws SQLException if an SQL exception occurs
+     * @throws DBException if a custom DB error occurs
+     */
+    public static AuthContext getAuthContext(String token) throws SQLException, DBException {
+        // Check if the token is empty first off
+        if (token == null || token.isEmpty()) {
+            throw new DBException("No token supplied");
+        }
+
+        // Check the cache first, valid tokens are almost always in it
+        AuthContext cachedAuth = SessionCache.getAuthContext(token);
+        if (cachedAuth != null) {
+            return cachedAuth;
+        }
+
+        long generation = SessionCache.getPermissionsGeneration();
+
+        Connection connection = DbConnection.getInstance();
+
+        // Get a token that is valid, along with its user's permissions
+        PreparedStatement statement = connection.prepareStatement("SELECT s.userId, s.expiry, u.editBillboards, u.createBillboards, u.scheduleBillboards, u.editUsers FROM Sessions as s " +
+                "INNER JOIN Users as u ON u.userId = s.userId " +
+                "WHERE s.sessionKey=? AND s.expiry > NOW()");
         statement.setString(1, token);
 
         ResultSet rs = statement.executeQuery();
@@ -146,7 +181,16 @@ public class DbLogin {
             throw new DBException("Token invalid");
         }
 
-        int userId = rs.getInt("userId");
-        return userId;
+        HashMap<String, Boolean> permissions = new HashMap<String, Boolean>();
+        permissions.put("editBillboards", rs.getBoolean("editBillboards"));
+        permissions.put("createBillboards", rs.getBoolean("createBillboards"));
+        permissions.put("scheduleBillboards", rs.getBoolean("scheduleBillboards"));
+        permissions.put("editUsers", rs.getBoolean("editUsers"));
+
+        AuthContext auth = new AuthContext(rs.getInt("userId"), permissions);
+
+        SessionCache.put(token, rs.getTimestamp("expiry").getTime(), auth, generation);
+
+        return auth;
     }
-}
\ No newline at end of file
+}
@@ -4,9 +4,13 @@ import billboard.controlpanel.ServerSchedules;
 
 import java.sql.*;
 import java.text.ParseException;
-import java.time.LocalDateTime;
+import java.time.*;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 
 /**
  * DB functions for interacting with schedules
@@ -24,37 +28,209 @@ public class DbSchedule {
      * @throws SQLException if an SQL exception occurs
      */
     public static void addSchedule(int billboardId, int day, int minutesStart, int minutesDuration, boolean repeating, int minutesRepeatGap, int userId) throws SQLException {
+        insertSchedule(billboardId, day, minutesStart, minutesDuration, repeating, minutesRepeatGap, userId, null, null, null, new ArrayList<LocalDate>(), null);
+    }
+
+    /**
+     * Adds a billboard schedule for one channel of screens
+     * @param billboardId - Billboard ID to add schedule for
+     * @param day (1-7) - Billboard schedule day
+     * @param minutesStart - Billboard schedule starting minutes
+     * @param minutesDuration - Billboard schedule duration minutes
+     * @param repeating - Billboard schedule repeating boolean
+     * @param minutesRepeatGap - Billboard schedule repeat minutes gap
+     * @param userId - Billboard schedule creator user ID
+     * @param channel - Channel the schedule is for, or null for every screen
+     * @throws SQLException if an SQL exception occurs
+     * @throws DBException if the channel name is invalid
+     */
+    public static void addSchedule(int billboardId, int day, int minutesStart, int minutesDuration, boolean repeating, int minutesRepeatGap, int userId, String channel) throws SQLException, DBException {
+        insertSchedule(billboardId, day, minutesStart, minutesDuration, repeating, minutesRepeatGap, userId, null, null, null, new ArrayList<LocalDate>(), checkChannel(channel));
+    }
+
+    /**
+     * Checks a channel name given for a schedule
+     * @param channel - Channel name, or null or blank for every screen
+     * @return Channel name to store, or null for every screen
+     * @throws DBException if the channel name is too long
+     */
+    private static String checkChannel(String channel) throws DBException {
+        if (channel == null || channel.isBlank()) {
+            return null;
+        }
+
+        if (channel.length() > MAX_CHANNEL_LENGTH) {
+            throw new DBException("Channel name too long");
+        }
+
+        return channel;
+    }
+
+    static final int MAX_CHANNEL_LENGTH = 64;
+
+    /**
+     * Adds a dated billboard schedule, which only shows between its start and end dates rather than every week
+     * @param billboardId - Billboard ID to add schedule for
+     * @param day (1-7) - Day of the week of the first showing
+     * @param minutesStart - Billboard schedule starting minutes
+     * @param minutesDuration - Billboard schedule duration minutes
+     * @param repeating - Billboard schedule repeating boolean
+     * @param minutesRepeatGap - Billboard schedule repeat minutes gap
+     * @param userId - Billboard schedule creator user ID
+     * @param startDate - First date the schedule can show on (yyyy-mm-dd)
+     * @param endDate - Last date a showing can start on (yyyy-mm-dd), or null to never stop
+     * @param timezone - Time zone ID the schedule is in, or null for the server's
+     * @param exceptionDates - Dates the schedule doesn't show on (yyyy-mm-dd), or null for none
+     * @param channel - Channel the schedule is for, or null for every screen
+     * @throws SQLException if an SQL exception occurs
+     * @throws DBException if a date, the time zone or the channel name is invalid
+     */
+    public static void addDatedSchedule(int billboardId, int day, int minutesStart, int minutesDuration, boolean repeating, int minutesRepeatGap, int userId,
+                                        String startDate, String endDate, String timezone, List<String> exceptionDates, String channel) throws SQLException, DBException {
+        LocalDate start;
+        LocalDate end = null;
+        ArrayList<LocalDate> exceptions = new ArrayList<LocalDate>();
+        try {
+            start = LocalDate.parse(startDate);
+            if (endDate != null) {
+                end = LocalDate.parse(endDate);
+            }
+
+            if (exceptionDates != null) {
+                for (String exceptionDate : exceptionDates) {
+                    exceptions.add(LocalDate.parse(exceptionDate));
+                }
+            }
+        } catch (DateTimeParseException e) {
+            throw new DBException("Invalid date");
+        }
+
+        if (end != null && end.isBefore(start)) {
+            throw new DBException("End date is before start date");
+        }
+
+        ZoneId zone = null;
+        if (timezone != null) {
+            try {
+                zone = ZoneId.of(timezone);
+            } catch (DateTimeException e) {
+                throw new DBException("Invalid time zone");
+            }
+        }
+
+        insertSchedule(billboardId, day, minutesStart, minutesDuration, repeating, minutesRepeatGap, userId, start, end, zone, exceptions, checkChannel(channel));
+    }
+
+    /**
+     * Adds a weekly or dated billboard schedule, with its times or rule
+     * @param billboardId - Billboard ID to add schedule for
+     * @param day (1-7) - Billboard schedule day
+     * @param minutesStart - Billboard schedule starting minutes
+     * @param minutesDuration - Billboard schedule duration minutes
+     * @param repeating - Billboard schedule repeating boolean
+     * @param minutesRepeatGap - Billboard schedule repeat minutes gap
+     * @param userId - Billboard schedule creator user ID
+     * @param startDate - Start date, or null for a weekly schedule
+     * @param endDate - End date, or null for none
+     * @param zone - Time zone, or null for the server's
+     * @param exceptionDates - Dates a dated schedule doesn't show on
+     * @param channel - Channel, or null for every screen
+     * @throws SQLException if an SQL exception occurs
+     */
+    private static void insertSchedule(int billboardId, int day, int minutesStart, int minutesDuration, boolean repeating, int minutesRepeatGap, int userId,
+                                       LocalDate startDate, LocalDate endDate, ZoneId zone, ArrayList<LocalDate> exceptionDates, String channel) throws SQLException {
         Connection connection = DbConnection.getInstance();
 
         Timestamp creationTime = new Timestamp(System.currentTimeMillis());
 
-        PreparedStatement statement = connection.prepareStatement("INSERT INTO Schedule(billboardId, creationTime, userId, day, minutesStart, minutesDuration, repeating,  minutesRepeatGap) VALUES (?, ?, ?, ?, ?, ?, ?, ?);");
-        statement.setInt(1, billboardId);
-        statement.setTimestamp(2, creationTime);
-        statement.setInt(3, userId);
-        statement.setInt(4, day);
-        statement.setInt(5, minutesStart);
-        statement.setInt(6, minutesDuration);
-        statement.setBoolean(7, repeating);
-        statement.setInt(8, minutesRepeatGap);
+        // Add the schedule and all of its times together, so a schedule is never left half added
+        ArrayList<ScheduleIndex.Interval> intervals = null;
+        int scheduleId;
+        connection.setAutoCommit(false);
+        try {
+            PreparedStatement statement = connection.prepareStatement("INSERT INTO Schedule(billboardId, creationTime, userId, day, minutesStart, minutesDuration, repeating,  minutesRepeatGap, startDate, endDate, timezone, channel) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?);", Statement.RETURN_GENERATED_KEYS);
+            statement.setInt(1, billboardId);
+            statement.setTimestamp(2, creationTime);
+            statement.setInt(3, userId);
+            statement.setInt(4, day);
+            statement.setInt(5, minutesStart);
+            statement.setInt(6, minutesDuration);
+            statement.setBoolean(7, repeating);
+            statement.setInt(8, minutesRepeatGap);
+            statement.setDate(9, startDate == null ? null : Date.valueOf(startDate));
+            statement.setDate(10, endDate == null ? null : Date.valueOf(endDate));
+            statement.setString(11, zone == null ? null : zone.getId());
+            statement.setString(12, channel);
 
-        statement.execute();
+            statement.execute();
 
-        // Get the scheduleId
-        PreparedStatement statement2 = connection.prepareStatement("SELECT scheduleId FROM Schedule ORDER BY scheduleId DESC LIMIT 1");
+            // Get the scheduleId (from this insert, not the latest row, as another schedule could be added at the same time)
+            ResultSet rs = statement.getGeneratedKeys();
+            rs.next();
 
-        ResultSet rs = statement2.executeQuery();
-        rs.next();
+            scheduleId = rs.getInt(1);
 
-        int scheduleId = rs.getInt("scheduleId");
+            // Dated schedules are worked out from the schedule and its exception dates, and aren't in the weekly timetable
+            if (startDate != null) {
+                addExceptionDates(scheduleId, exceptionDates);
+            } else if (!ScheduleRules.isEnabled()) {
+                // Add to the timetable, the rule engine works it out from the schedule itself instead
+                intervals = addScheduleToTimetable(scheduleId, billboardId, channel, day, minutesStart, minutesDuration, repeating, minutesRepeatGap);
+            }
 
-        // Add to the timetable
-        addScheduleToTimetable(scheduleId, billboardId, day, minutesStart, minutesDuration, repeating, minutesRepeatGap);
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+
+        if (startDate != null) {
+            CalendarSchedules.add(new CalendarRule(scheduleId, billboardId, day, minutesStart, minutesDuration, repeating, minutesRepeatGap,
+                    startDate, endDate, zone == null ? ZoneId.systemDefault() : zone, exceptionDates, channel));
+        } else if (ScheduleRules.isEnabled()) {
+            ScheduleRules.add(new ScheduleRule(scheduleId, billboardId, day, minutesStart, minutesDuration, repeating, minutesRepeatGap, channel));
+        } else if (intervals != null) {
+            ScheduleIndex.addIntervals(intervals);
+        } else if (ScheduleIndex.isLoaded()) {
+            ScheduleIndex.load();
+        }
+
+        CurrentBillboardCache.invalidate();
+    }
+
+    /**
+     * Adds the dates a dated schedule doesn't show on. This doesn't commit, so it can be part of the same
+     * transaction as adding the schedule
+     * @param scheduleId - Schedule ID
+     * @param exceptionDates - Dates to skip
+     * @throws SQLException if an SQL exception occurs
+     */
+    private static void addExceptionDates(int scheduleId, ArrayList<LocalDate> exceptionDates) throws SQLException {
+        if (exceptionDates.isEmpty()) {
+            return;
+        }
+
+        Connection connection = DbConnection.getInstance();
+
+        PreparedStatement statement = connection.prepareStatement("INSERT IGNORE INTO ScheduleExceptions(scheduleId, exceptionDate) VALUES (?, ?);");
+        for (LocalDate exceptionDate : exceptionDates) {
+            statement.setInt(1, scheduleId);
+            statement.setDate(2, Date.valueOf(exceptionDate));
+
+            statement.addBatch();
+        }
+
+        statement.executeBatch();
     }
 
     static final int MINUTES_IN_A_DAY = 60 * 24;
     static final int DAYS_IN_A_WEEK = 7;
 
+    // Longest schedule window a viewer can ask for
+    static final int MAX_WINDOW_MINUTES = MINUTES_IN_A_DAY * DAYS_IN_A_WEEK;
+
     /**
      * Helper class for adding schedule times
      */
@@ -105,17 +281,20 @@ public class DbSchedule {
     }
 
     /**
-     * Adds times in which a schedule should run
+     * Adds times in which a schedule should run, as one batch. This doesn't commit, so it can be part of the
+     * same transaction as adding the schedule
      * @param scheduleId
      * @param billboardId
+     * @param channel
      * @param day
      * @param minutesStart
      * @param minutesDuration
      * @param repeating
      * @param minutesRepeatGap
+     * @return The added times for the timetable index, or null if the driver didn't give back their IDs
      * @throws SQLException if an SQL exception occurs
      */
-    private static void addScheduleToTimetable(int scheduleId, int billboardId, int day, int minutesStart, int minutesDuration, boolean repeating, int minutesRepeatGap) throws SQLException {
+    private static ArrayList<ScheduleIndex.Interval> addScheduleToTimetable(int scheduleId, int billboardId, String channel, int day, int minutesStart, int minutesDuration, boolean repeating, int minutesRepeatGap) throws SQLException {
         Connection connection = DbConnection.getInstance();
 
         ScheduleTimes times = new ScheduleTimes();
@@ -167,15 +346,64 @@ public class DbSchedule {
             }
         } catch (ScheduleTimeException e) {}
 
-        for (var time : times.getTimes()) {
-            PreparedStatement statement = connection.prepareStatement("INSERT INTO ScheduleTimes(scheduleId, day, startMinutes, endMinutes) VALUES (?, ?, ?, ?);");
+        if (times.getTimes().isEmpty()) {
+            return new ArrayList<ScheduleIndex.Interval>();
+        }
+
+        // Sent as a single multi-row insert when the connection has rewriteBatchedStatements set
+        PreparedStatement statement = connection.prepareStatement("INSERT INTO ScheduleTimes(scheduleId, day, startMinutes, endMinutes) VALUES (?, ?, ?, ?);", Statement.RETURN_GENERATED_KEYS);
 
+        for (var time : times.getTimes()) {
             statement.setInt(1, scheduleId);
             statement.setInt(2, time.day);
             statement.setInt(3, time.startMinutes);
             statement.setInt(4, time.endMinutes);
 
-            statement.execute();
+            statement.addBatch();
+        }
+
+        statement.executeBatch();
+
+        // Match the generated IDs back up with the times, in the order they were added
+        ArrayList<ScheduleIndex.Interval> intervals = new ArrayList<ScheduleIndex.Interval>();
+
+        ResultSet rs = statement.getGeneratedKeys();
+        for (var time : times.getTimes()) {
+            if (!rs.next()) {
+                return null;
+            }
+
+            intervals.add(new ScheduleIndex.Interval(rs.getInt(1), scheduleId, billboardId, channel, time.day, time.startMinutes, time.endMinutes));
+        }
+
+        return intervals;
+    }
+
+    /**
+     * Adds the timetable for any schedules that don't have one, such as ones added while the rule engine was used
+     * @throws SQLException if an SQL exception occurs
+     */
+    public static void addMissingTimes() throws SQLException {
+        Connection connection = DbConnection.getInstance();
+
+        Statement statement = connection.createStatement();
+        ResultSet rs = statement.executeQuery("SELECT s.* FROM Schedule as s " +
+                                                  "LEFT JOIN ScheduleTimes as st ON st.scheduleId = s.scheduleId " +
+                                                  "WHERE st.scheduleTimeId IS NULL AND s.startDate IS NULL");
+
+        connection.setAutoCommit(false);
+        try {
+            while (rs.next()) {
+                addScheduleToTimetable(rs.getInt("scheduleId"), rs.getInt("billboardId"), rs.getString("channel"), rs.getInt("day"), rs.getInt("minutesStart"),
+                        rs.getInt("minutesDuration"), rs.getBoolean("repeating"), rs.getInt("minutesRepeatGap"));
+            }
+
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
         }
     }
 
@@ -188,21 +416,41 @@ public class DbSchedule {
     public static ArrayList<HashMap> getAllSchedules() throws SQLException, DBException {
         Connection connection = DbConnection.getInstance();
 
-        Statement statement = connection.createStatement();
-        ResultSet rs = statement.executeQuery("SELECT * FROM Schedule");
+        // Read the schedules with their billboard names, then every schedule time, rather than querying per schedule
+        PreparedStatement statement = connection.prepareStatement("SELECT s.*, b.name FROM Schedule as s " +
+                                                                        "INNER JOIN Billboards as b ON b.billboardId = s.billboardId " +
+                                                                        "ORDER BY s.scheduleId");
+
+        PreparedStatement statement2 = connection.prepareStatement("SELECT * FROM ScheduleTimes ORDER BY scheduleTimeId");
+
+        PreparedStatement statement3 = connection.prepareStatement("SELECT scheduleId, exceptionDate FROM ScheduleExceptions");
+
+        return readSchedules(statement, statement2, statement3);
+    }
+
+    /**
+     * Reads schedules and their times into the format sent to clients
+     * @param scheduleStatement - Query for the schedules, with the billboard name as "name"
+     * @param timesStatement - Query for the times of those schedules
+     * @param exceptionsStatement - Query for the exception dates of those schedules
+     * @return ArrayList containing each schedule's data
+     * @throws SQLException if an SQL exception occurs
+     */
+    private static ArrayList<HashMap> readSchedules(PreparedStatement scheduleStatement, PreparedStatement timesStatement, PreparedStatement exceptionsStatement) throws SQLException {
+        HashMap<Integer, ArrayList<LocalDate>> exceptions = CalendarSchedules.getExceptionDates(exceptionsStatement);
+
+        ResultSet rs = scheduleStatement.executeQuery();
 
         // list to hold the data from the result set
         ArrayList<HashMap> schedules = new ArrayList<HashMap>();
+        HashMap<Integer, ArrayList<HashMap>> scheduleTimesById = new HashMap<Integer, ArrayList<HashMap>>();
         while (rs.next()){
             int scheduleId = rs.getInt("scheduleId");
-            int billboardId = rs.getInt("billboardId");
-
-            String billboardName = DbBillboard.getBillboardName(billboardId);
 
             HashMap scheduleData = new HashMap();
             scheduleData.put("scheduleId", scheduleId);
             scheduleData.put("billboardId", rs.getInt("billboardId"));
-            scheduleData.put("billboardName", billboardName);
+            scheduleData.put("billboardName", rs.getString("name"));
             scheduleData.put("creationTime", rs.getTimestamp("creationTime"));
             scheduleData.put("userId", rs.getInt("userId"));
             scheduleData.put("day", rs.getInt("day"));
@@ -211,25 +459,66 @@ public class DbSchedule {
             scheduleData.put("repeating", rs.getBoolean("repeating"));
             scheduleData.put("minutesRepeatGap", rs.getInt("minutesRepeatGap"));
 
-            PreparedStatement statement2 = connection.prepareStatement("SELECT * FROM ScheduleTimes WHERE scheduleId=?");
-            statement2.setInt(1, scheduleId);
-            ResultSet rs2 = statement2.executeQuery();
+            // Dates are sent as yyyy-mm-dd strings, null for weekly schedules
+            Date startDate = rs.getDate("startDate");
+            Date endDate = rs.getDate("endDate");
+            ArrayList<LocalDate> exceptionDates = exceptions.getOrDefault(scheduleId, new ArrayList<LocalDate>());
 
-            ArrayList<HashMap> scheduleTimes = new ArrayList<HashMap>();
-            while (rs2.next()){
-                HashMap scheduleTimeData = new HashMap();
-                scheduleTimeData.put("scheduleTimeId", rs2.getInt("scheduleTimeId"));
-                scheduleTimeData.put("day", rs2.getInt("day"));
-                scheduleTimeData.put("startMinutes", rs2.getInt("startMinutes"));
-                scheduleTimeData.put("endMinutes", rs2.getInt("endMinutes"));
-
-                scheduleTimes.add(scheduleTimeData);
+            ArrayList<String> exceptionDateStrings = new ArrayList<String>();
+            for (LocalDate exceptionDate : exceptionDates) {
+                exceptionDateStrings.add(exceptionDate.toString());
             }
+
+            scheduleData.put("startDate", startDate == null ? null : startDate.toLocalDate().toString());
+            scheduleData.put("endDate", endDate == null ? null : endDate.toLocalDate().toString());
+            scheduleData.put("timezone", rs.getString("timezone"));
+            scheduleData.put("exceptionDates", exceptionDateStrings);
+            scheduleData.put("channel", rs.getString("channel"));
+
+            ArrayList<HashMap> scheduleTimes = new ArrayList<HashMap>();
             scheduleData.put("scheduleTimes", scheduleTimes);
+            scheduleTimesById.put(scheduleId, scheduleTimes);
+
+            // Without a timetable, the times are worked out from the schedule (they don't have IDs), for dated
+            // schedules that's their showings this week
+            if (startDate != null || ScheduleRules.isEnabled()) {
+                ArrayList<ScheduleTime> times = startDate != null ? CalendarSchedules.fromRow(rs, exceptionDates).getScheduleTimes() : ScheduleRules.fromRow(rs).getScheduleTimes();
+
+                for (ScheduleTime time : times) {
+                    HashMap scheduleTimeData = new HashMap();
+                    scheduleTimeData.put("scheduleTimeId", 0);
+                    scheduleTimeData.put("day", time.day);
+                    scheduleTimeData.put("startMinutes", time.startMinutes);
+                    scheduleTimeData.put("endMinutes", time.endMinutes);
+
+                    scheduleTimes.add(scheduleTimeData);
+                }
+            }
 
             schedules.add(scheduleData);
         }
 
+        if (ScheduleRules.isEnabled()) {
+            return schedules;
+        }
+
+        // Hand each time to its schedule
+        ResultSet rs2 = timesStatement.executeQuery();
+        while (rs2.next()){
+            ArrayList<HashMap> scheduleTimes = scheduleTimesById.get(rs2.getInt("scheduleId"));
+            if (scheduleTimes == null) {
+                continue; // Schedule was added after the schedules were read
+            }
+
+            HashMap scheduleTimeData = new HashMap();
+            scheduleTimeData.put("scheduleTimeId", rs2.getInt("scheduleTimeId"));
+            scheduleTimeData.put("day", rs2.getInt("day"));
+            scheduleTimeData.put("startMinutes", rs2.getInt("startMinutes"));
+            scheduleTimeData.put("endMinutes", rs2.getInt("endMinutes"));
+
+            scheduleTimes.add(scheduleTimeData);
+        }
+
         return schedules;
     }
 
@@ -247,11 +536,22 @@ public class DbSchedule {
 
         statement.executeQuery();
 
+        // And the dates it doesn't show on
+        PreparedStatement statement3 = connection.prepareStatement("DELETE FROM ScheduleExceptions WHERE scheduleId=?");
+        statement3.setInt(1, selectedScheduleId);
+
+        statement3.executeQuery();
+
         // Delete the schedule itself
         PreparedStatement statement2 = connection.prepareStatement("DELETE FROM Schedule WHERE scheduleId=?");
         statement2.setInt(1, selectedScheduleId);
 
         statement2.executeQuery();
+
+        ScheduleIndex.removeSchedule(selectedScheduleId);
+        ScheduleRules.removeSchedule(selectedScheduleId);
+        CalendarSchedules.removeSchedule(selectedScheduleId);
+        CurrentBillboardCache.invalidate();
     }
 
     /**
@@ -276,11 +576,21 @@ public class DbSchedule {
             statement2.setInt(1, scheduleId);
             statement2.executeQuery();
 
+            // And the dates it doesn't show on
+            PreparedStatement statement4 = connection.prepareStatement("DELETE FROM ScheduleExceptions WHERE scheduleId=?");
+            statement4.setInt(1, scheduleId);
+            statement4.executeQuery();
+
             // Delete the schedule itself
             PreparedStatement statement3 = connection.prepareStatement("DELETE FROM Schedule WHERE scheduleId=?");
             statement3.setInt(1, scheduleId);
             statement3.executeQuery();
         }
+
+        ScheduleIndex.removeBillboard(billboardId);
+        ScheduleRules.removeBillboard(billboardId);
+        CalendarSchedules.removeBillboard(billboardId);
+        CurrentBillboardCache.invalidate();
     }
 
     /**
@@ -293,99 +603,332 @@ public class DbSchedule {
     public static ArrayList<HashMap> getBillboardSchedule(Integer searchingBillboardId) throws SQLException, DBException {
         Connection connection = DbConnection.getInstance();
 
-        PreparedStatement statement = connection.prepareStatement("SELECT * FROM Schedule WHERE billboardId=?");
+        PreparedStatement statement = connection.prepareStatement("SELECT s.*, b.name FROM Schedule as s " +
+                                                                        "INNER JOIN Billboards as b ON b.billboardId = s.billboardId " +
+                                                                        "WHERE s.billboardId=? ORDER BY s.scheduleId");
         statement.setInt(1, searchingBillboardId);
-        ResultSet rs = statement.executeQuery();
 
-        // list to hold the data from the result set
-        ArrayList<HashMap> schedules = new ArrayList<HashMap>();
-        while (rs.next()){
-            int scheduleId = rs.getInt("scheduleId");
-            int billboardId = rs.getInt("billboardId");
+        PreparedStatement statement2 = connection.prepareStatement("SELECT st.* FROM ScheduleTimes as st " +
+                                                                         "INNER JOIN Schedule as s ON s.scheduleId = st.scheduleId " +
+                                                                         "WHERE s.billboardId=? ORDER BY st.scheduleTimeId");
+        statement2.setInt(1, searchingBillboardId);
 
-            String billboardName = DbBillboard.getBillboardName(billboardId);
+        // Only this billboard's exception dates, as this is read on every permission check for the billboard
+        PreparedStatement statement3 = connection.prepareStatement("SELECT se.scheduleId, se.exceptionDate FROM ScheduleExceptions as se " +
+                                                                         "INNER JOIN Schedule as s ON s.scheduleId = se.scheduleId " +
+                                                                         "WHERE s.billboardId=?");
+        statement3.setInt(1, searchingBillboardId);
 
-            HashMap scheduleData = new HashMap();
-            scheduleData.put("scheduleId", scheduleId);
-            scheduleData.put("billboardId", rs.getInt("billboardId"));
-            scheduleData.put("billboardName", billboardName);
-            scheduleData.put("creationTime", rs.getTimestamp("creationTime"));
-            scheduleData.put("userId", rs.getInt("userId"));
-            scheduleData.put("day", rs.getInt("day"));
-            scheduleData.put("minutesStart", rs.getInt("minutesStart"));
-            scheduleData.put("minutesDuration", rs.getInt("minutesDuration"));
-            scheduleData.put("repeating", rs.getBoolean("repeating"));
-            scheduleData.put("minutesRepeatGap", rs.getInt("minutesRepeatGap"));
+        return readSchedules(statement, statement2, statement3);
+    }
 
-            PreparedStatement statement2 = connection.prepareStatement("SELECT * FROM ScheduleTimes WHERE scheduleId=?");
-            statement2.setInt(1, scheduleId);
-            ResultSet rs2 = statement2.executeQuery();
+    /**
+     * Get the current showing billboard
+     * @return HashMap containing billboard name, data and data hash
+     * @throws SQLException if an SQL exception occurs
+     */
+    public static HashMap getCurrentBillboard() throws SQLException {
+        return CurrentBillboardCache.get(null);
+    }
 
-            ArrayList<HashMap> scheduleTimes = new ArrayList<HashMap>();
-            while (rs2.next()){
-                HashMap scheduleTimeData = new HashMap();
-                scheduleTimeData.put("scheduleTimeId", rs2.getInt("scheduleTimeId"));
-                scheduleTimeData.put("day", rs2.getInt("day"));
-                scheduleTimeData.put("startMinutes", rs2.getInt("startMinutes"));
-                scheduleTimeData.put("endMinutes", rs2.getInt("endMinutes"));
-
-                scheduleTimes.add(scheduleTimeData);
+    /**
+     * Get the billboard currently showing on a channel
+     * @param channel - Channel the viewer is on, or null if it isn't on one
+     * @return HashMap containing billboard name, data and data hash
+     * @throws SQLException if an SQL exception occurs
+     */
+    public static HashMap getCurrentBillboard(String channel) throws SQLException {
+        return CurrentBillboardCache.get(channel);
+    }
+
+    /**
+     * Reads the billboard showing on a channel at a time from the database. A channel's own schedules come first,
+     * then the ones for every screen, and in each dated schedules override weekly ones
+     * @param channel - Channel to check, or null for screens without one
+     * @param currentDay (1-7) - Day to check
+     * @param currentMinutes - Minutes into the day to check
+     * @param epochMinutes - Time to check, in minutes since the epoch (for dated schedules)
+     * @return HashMap containing billboard name and data
+     * @throws SQLException if an SQL exception occurs
+     */
+    static HashMap loadCurrentBillboard(String channel, int currentDay, int currentMinutes, long epochMinutes) throws SQLException {
+        System.out.println("Now is day " + currentDay + " minute " + currentMinutes + (channel == null ? "" : " on channel " + channel));
+
+        Integer billboardId = getShowingBillboard(channel, currentDay, currentMinutes, epochMinutes);
+        if (billboardId != null) {
+            return readBillboard(billboardId);
+        }
+
+        // No billboard is currently showing
+        return getTemporaryBillboard();
+    }
+
+    /**
+     * Gets the billboard showing on a channel at a time, the channel's own schedules first and then the ones for
+     * every screen
+     * @param channel - Channel to check, or null for screens without one
+     * @param currentDay (1-7) - Day to check
+     * @param currentMinutes - Minutes into the day to check
+     * @param epochMinutes - Time to check, in minutes since the epoch (for dated schedules)
+     * @return Billboard ID, or null if nothing is scheduled
+     * @throws SQLException if an SQL exception occurs
+     */
+    private static Integer getShowingBillboard(String channel, int currentDay, int currentMinutes, long epochMinutes) throws SQLException {
+        for (String scheduleChannel : channel == null ? new String[] {null} : new String[] {channel, null}) {
+            Integer billboardId = getScheduledBillboard(scheduleChannel, currentDay, currentMinutes, epochMinutes);
+            if (billboardId != null) {
+                return billboardId;
             }
-            scheduleData.put("scheduleTimes", scheduleTimes);
+        }
 
-            schedules.add(scheduleData);
+        return null;
+    }
+
+    /**
+     * Works out what a channel will show over the coming minutes, so a viewer can keep showing the right billboards
+     * if it loses its connection to the server. Billboards the viewer already has are only sent by their data hash
+     * @param channel - Channel the viewer is on, or null if it isn't on one
+     * @param minutes - Length of the window (at most a week)
+     * @param knownHashes - Data hashes of the billboards the viewer already has
+     * @return HashMap containing "showings" (the start, end and data hash of each billboard shown, in order, with
+     * times in ms since the epoch) and "billboards" (the data of each billboard the viewer doesn't have, by data hash)
+     * @throws SQLException if an SQL exception occurs
+     */
+    public static HashMap getScheduleWindow(String channel, int minutes, Collection<String> knownHashes) throws SQLException {
+        ZonedDateTime time = ZonedDateTime.now().truncatedTo(ChronoUnit.MINUTES);
+        ZonedDateTime windowEnd = time.plusMinutes(Math.max(0, Math.min(minutes, MAX_WINDOW_MINUTES)));
+
+        ArrayList<HashMap> showings = new ArrayList<HashMap>();
+        HashMap<String, String> billboards = new HashMap<String, String>();
+        HashMap<Integer, HashMap> readBillboards = new HashMap<Integer, HashMap>();
+
+        // Step from one transition to the next, the same way CurrentBillboardCache works out how long to keep a billboard
+        while (time.isBefore(windowEnd)) {
+            int day = time.getDayOfWeek().getValue();
+            int dayMinutes = time.getHour() * 60 + time.getMinute();
+            long epochMinutes = time.toEpochSecond() / 60;
+
+            Integer billboardId = getShowingBillboard(channel, day, dayMinutes, epochMinutes);
+
+            HashMap billboard;
+            if (billboardId == null) {
+                billboard = getTemporaryBillboard();
+            } else {
+                billboard = readBillboards.get(billboardId);
+                if (billboard == null) {
+                    billboard = readBillboard(billboardId);
+                    readBillboards.put(billboardId, billboard);
+                }
+            }
+
+            long next = time.truncatedTo(ChronoUnit.DAYS).plusMinutes(getNextTransition(channel, day, dayMinutes)).toEpochSecond() / 60;
+            next = CalendarSchedules.getNextTransition(null, epochMinutes, next);
+            if (channel != null) {
+                next = CalendarSchedules.getNextTransition(channel, epochMinutes, next);
+            }
+
+            ZonedDateTime nextTime = ZonedDateTime.ofInstant(Instant.ofEpochSecond(Math.max(next, epochMinutes + 1) * 60), time.getZone());
+            if (nextTime.isAfter(windowEnd)) {
+                nextTime = windowEnd;
+            }
+
+            String dataHash = (String) billboard.get("dataHash");
+            if (!knownHashes.contains(dataHash)) {
+                billboards.put(dataHash, (String) billboard.get("data"));
+            }
+
+            // Carry on the last showing if it's the same billboard
+            HashMap last = showings.isEmpty() ? null : showings.get(showings.size() - 1);
+            if (last != null && dataHash.equals(last.get("dataHash"))) {
+                last.put("end", nextTime.toInstant().toEpochMilli());
+            } else {
+                HashMap showing = new HashMap();
+                showing.put("start", time.toInstant().toEpochMilli());
+                showing.put("end", nextTime.toInstant().toEpochMilli());
+                showing.put("dataHash", dataHash);
+                showings.add(showing);
+            }
+
+            time = nextTime;
         }
 
-        return schedules;
+        HashMap window = new HashMap();
+        window.put("showings", showings);
+        window.put("billboards", billboards);
+
+        return window;
     }
 
     /**
-     * Get the current showing billboard
-     * @return HashMap containing billboard name and data
+     * Gets the billboard one channel's schedules show at a time
+     * @param channel - Channel, or null for the schedules for every screen
+     * @param currentDay (1-7) - Day to check
+     * @param currentMinutes - Minutes into the day to check
+     * @param epochMinutes - Time to check, in minutes since the epoch
+     * @return Billboard ID, or null if nothing is scheduled
      * @throws SQLException if an SQL exception occurs
      */
-    public static HashMap getCurrentBillboard() throws SQLException {
-        Connection connection = DbConnection.getInstance();
+    private static Integer getScheduledBillboard(String channel, int currentDay, int currentMinutes, long epochMinutes) throws SQLException {
+        Integer datedBillboardId = CalendarSchedules.getBillboardAt(channel, epochMinutes);
+        if (datedBillboardId != null) {
+            return datedBillboardId;
+        }
 
-        LocalDateTime now = LocalDateTime.now();
-        int currentDay = now.getDayOfWeek().getValue();
-        int currentMinutes = now.getHour() * 60 + now.getMinute();
+        // Look up what's showing with the rule engine or the timetable index if it's loaded
+        if (ScheduleRules.isEnabled()) {
+            return ScheduleRules.getBillboardAt(channel, currentDay, currentMinutes);
+        }
 
-        System.out.println("Now is day " + currentDay + " minute " + currentMinutes);
+        if (ScheduleIndex.isLoaded()) {
+            return ScheduleIndex.getBillboardAt(channel, currentDay, currentMinutes);
+        }
+
+        Connection connection = DbConnection.getInstance();
 
-        PreparedStatement statement = connection.prepareStatement("SELECT b.name, b.data FROM Schedule as s " +
+        PreparedStatement statement = connection.prepareStatement("SELECT s.billboardId FROM Schedule as s " +
                                                                         "INNER JOIN ScheduleTimes as st ON st.scheduleId = s.scheduleId " +
-                                                                        "INNER JOIN Billboards as b ON b.billboardId = s.billboardId " +
-                                                                        "WHERE st.day = ? AND st.startMinutes < ? AND st.endMinutes > ? " +
-                                                                        "ORDER BY st.scheduleTimeId DESC");
+                                                                        "WHERE st.day = ? AND st.startMinutes < ? AND st.endMinutes > ? AND s.channel <=> ? " +
+                                                                        "ORDER BY st.scheduleTimeId DESC LIMIT 1");
         statement.setInt(1, currentDay);
         statement.setInt(2, currentMinutes);
         statement.setInt(3, currentMinutes);
+        statement.setString(4, channel);
         ResultSet rs = statement.executeQuery();
 
-        if (!rs.next()) {
-            // No billboard is currently showing
+        return rs.next() ? rs.getInt("s.billboardId") : null;
+    }
+
+    /**
+     * Gets whether any schedules are for a channel
+     * @param channel - Channel name
+     * @return Whether the channel has its own schedules
+     * @throws SQLException if an SQL exception occurs
+     */
+    static boolean hasChannel(String channel) throws SQLException {
+        if (CalendarSchedules.hasChannel(channel)) {
+            return true;
+        }
 
-            /*
-                "If there is no billboard scheduled at a particular time, the Server should send back
-                something else for the Viewer to display in the meantime. Your team should decide
-                on something appropriate."
-             */
+        if (ScheduleRules.isEnabled()) {
+            return ScheduleRules.hasChannel(channel);
+        }
+
+        if (ScheduleIndex.isLoaded()) {
+            return ScheduleIndex.hasChannel(channel);
+        }
+
+        Connection connection = DbConnection.getInstance();
 
-            HashMap currentBillboardData = new HashMap();
-            currentBillboardData.put("name", "Temporary billboard");
-            currentBillboardData.put("data", "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>\n" +
-                    "<billboard>\n" +
-                    "    <message>No billboard is currently showing.</message>\n" +
-                    "</billboard>\n");
+        PreparedStatement statement = connection.prepareStatement("SELECT scheduleId FROM Schedule WHERE channel=? LIMIT 1");
+        statement.setString(1, channel);
 
-            return currentBillboardData;
+        return statement.executeQuery().next();
+    }
+
+    /**
+     * Reads a scheduled billboard
+     * @param billboardId - Billboard ID to read
+     * @return HashMap containing billboard name and data, or the temporary billboard if it no longer exists
+     * @throws SQLException if an SQL exception occurs
+     */
+    private static HashMap readBillboard(int billboardId) throws SQLException {
+        Connection connection = DbConnection.getInstance();
+
+        PreparedStatement statement = connection.prepareStatement("SELECT name, data, dataHash FROM Billboards WHERE billboardId=?");
+        statement.setInt(1, billboardId);
+        ResultSet rs = statement.executeQuery();
+
+        if (!rs.next()) {
+            return getTemporaryBillboard();
         }
 
         HashMap currentBillboardData = new HashMap();
-        currentBillboardData.put("name", rs.getString("b.name"));
-        currentBillboardData.put("data", rs.getString("b.data"));
+        currentBillboardData.put("name", rs.getString("name"));
+        currentBillboardData.put("data", rs.getString("data"));
+        currentBillboardData.put("dataHash", rs.getString("dataHash"));
 
         return currentBillboardData;
     }
+
+    /**
+     * Gets the billboard to show when nothing is scheduled
+     * @return HashMap containing billboard name and data
+     */
+    private static HashMap getTemporaryBillboard() {
+        /*
+            "If there is no billboard scheduled at a particular time, the Server should send back
+            something else for the Viewer to display in the meantime. Your team should decide
+            on something appropriate."
+         */
+
+        HashMap currentBillboardData = new HashMap();
+        currentBillboardData.put("name", "Temporary billboard");
+        currentBillboardData.put("data", "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>\n" +
+                "<billboard>\n" +
+                "    <message>No billboard is currently showing.</message>\n" +
+                "</billboard>\n");
+        currentBillboardData.put("dataHash", PasswordHash.hashContent((String) currentBillboardData.get("data")));
+
+        return currentBillboardData;
+    }
+
+    /**
+     * Gets the next minute of the day at which the billboard showing on a channel could change in the weekly
+     * schedules (dated schedules are checked with {@link CalendarSchedules#getNextTransition})
+     * @param channel - Channel to check, or null for screens without one
+     * @param currentDay (1-7) - Day to check
+     * @param currentMinutes - Minutes into the day to check
+     * @return Minutes into the day of the next transition, or the end of the day if there are none
+     * @throws SQLException if an SQL exception occurs
+     */
+    static int getNextTransition(String channel, int currentDay, int currentMinutes) throws SQLException {
+        int nextTransition = MINUTES_IN_A_DAY;
+
+        // Either the channel's own schedules or the ones for every screen changing could change what shows
+        for (String scheduleChannel : channel == null ? new String[] {null} : new String[] {channel, null}) {
+            nextTransition = Math.min(nextTransition, getScheduledTransition(scheduleChannel, currentDay, currentMinutes));
+        }
+
+        return nextTransition;
+    }
+
+    /**
+     * Gets the next minute of the day at which the billboard one channel's weekly schedules show could change
+     * @param channel - Channel, or null for the schedules for every screen
+     * @param currentDay (1-7) - Day to check
+     * @param currentMinutes - Minutes into the day to check
+     * @return Minutes into the day of the next transition, or the end of the day if there are none
+     * @throws SQLException if an SQL exception occurs
+     */
+    private static int getScheduledTransition(String channel, int currentDay, int currentMinutes) throws SQLException {
+        if (ScheduleRules.isEnabled()) {
+            return ScheduleRules.getNextTransition(channel, currentDay, currentMinutes);
+        }
+
+        if (ScheduleIndex.isLoaded()) {
+            return ScheduleIndex.getNextTransition(channel, currentDay, currentMinutes);
+        }
+
+        Connection connection = DbConnection.getInstance();
+
+        // A time shows from the minute after it starts until the minute it ends, matching getCurrentBillboard
+        PreparedStatement statement = connection.prepareStatement("SELECT MIN(CASE WHEN st.startMinutes >= ? THEN st.startMinutes + 1 ELSE st.endMinutes END) AS nextTransition " +
+                                                                        "FROM ScheduleTimes as st INNER JOIN Schedule as s ON s.scheduleId = st.scheduleId " +
+                                                                        "WHERE st.day = ? AND st.endMinutes > ? AND s.channel <=> ?");
+        statement.setInt(1, currentMinutes);
+        statement.setInt(2, currentDay);
+        statement.setInt(3, currentMinutes);
+        statement.setString(4, channel);
+        ResultSet rs = statement.executeQuery();
+
+        int nextTransition = MINUTES_IN_A_DAY;
+        if (rs.next()) {
+            int minutes = rs.getInt("nextTransition");
+            if (!rs.wasNull()) {
+                nextTransition = Math.min(minutes, MINUTES_IN_A_DAY);
+            }
+        }
+
+        return nextTransition;
+    }
 }
\ No newline at end of file
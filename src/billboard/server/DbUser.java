@@ -10,6 +10,9 @@ import java.util.HashMap;
  * DB functions for interacting with users
  */
 public class DbUser {
+    // Most users in one page
+    static final int MAX_PAGE_SIZE = 500;
+
     /**
      * Gets all the usernames from the database
      * @return ArrayList of usernames
@@ -31,6 +34,55 @@ public class DbUser {
         return usernames;
     }
 
+    /**
+     * Gets one page of users in username order, carrying on after the last username of the previous page
+     * @param filter - Text the username has to contain, or null for every user
+     * @param descending - Whether to list them in reverse order
+     * @param after - Last username of the previous page, or null for the first page
+     * @param limit - Number of users in the page (at most 500)
+     * @return HashMap containing "users" (each user's ID and username) and "total" (number of users matching the filter)
+     * @throws SQLException if an SQL exception occurs
+     */
+    public static HashMap listUsersPage(String filter, boolean descending, String after, int limit) throws SQLException {
+        Connection connection = DbConnection.getInstance();
+
+        // Wildcards typed into the filter are matched literally
+        String pattern = "%" + (filter == null ? "" : filter.trim().replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_")) + "%";
+
+        PreparedStatement statement = connection.prepareStatement("SELECT userId, username FROM users WHERE username LIKE ?" +
+                (after == null ? "" : descending ? " AND username < ?" : " AND username > ?") +
+                " ORDER BY username" + (descending ? " DESC" : "") + " LIMIT ?");
+        statement.setString(1, pattern);
+        int parameter = 2;
+        if (after != null) {
+            statement.setString(parameter++, after);
+        }
+        statement.setInt(parameter, Math.max(Math.min(limit, MAX_PAGE_SIZE), 0));
+
+        ResultSet rs = statement.executeQuery();
+
+        ArrayList<HashMap> users = new ArrayList<HashMap>();
+        while (rs.next()) {
+            HashMap user = new HashMap();
+            user.put("userId", rs.getInt("userId"));
+            user.put("username", rs.getString("username"));
+
+            users.add(user);
+        }
+
+        PreparedStatement countStatement = connection.prepareStatement("SELECT COUNT(*) AS total FROM users WHERE username LIKE ?");
+        countStatement.setString(1, pattern);
+
+        ResultSet countRs = countStatement.executeQuery();
+        countRs.next();
+
+        HashMap page = new HashMap();
+        page.put("users", users);
+        page.put("total", countRs.getInt("total"));
+
+        return page;
+    }
+
     /**
      * Check if a given username exists
      * @param username - Username to check
@@ -222,6 +274,9 @@ public class DbUser {
         statement.setInt(5, userId);
 
         statement.execute();
+
+        // The user's sessions need to pick up the new permissions
+        SessionCache.invalidateUser(userId);
     }
 
     /**
@@ -280,6 +335,13 @@ public class DbUser {
             DbBillboard.deleteBillboard(billboardId);
         }
 
+        // Log the user out everywhere
+        PreparedStatement statement4 = connection.prepareStatement("DELETE FROM sessions WHERE userId=?");
+        statement4.setInt(1, userId);
+        statement4.execute();
+
+        SessionCache.removeUser(userId);
+
         // Delete the user
         PreparedStatement statement3 = connection.prepareStatement("DELETE FROM users WHERE userId=?");
         statement3.setInt(1, userId);
@@ -24,6 +24,43 @@ public class PasswordHash {
         return hashToString(hash);
     }
 
+    /**
+     * Hashes content so copies of it can be compared without sending the content itself
+     * @param input - String to hash (can be empty)
+     * @return Hashed input
+     */
+    public static String hashContent(String input) {
+        try {
+            return hashToString(SHAHash(input));
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform has to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Hashes binary content, e.g. a picture, so it can be stored and looked up by its hash
+     * @param input - Bytes to hash
+     * @return Hashed input, always 64 hex digits
+     */
+    public static String hashContent(byte[] input) {
+        try {
+            return hashToString(MessageDigest.getInstance("SHA-256").digest(input), 64);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform has to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Finishes hashing content that was hashed a piece at a time, giving the same hash as hashContent
+     * @param digest - SHA-256 digest the content's UTF-8 bytes were added to
+     * @return Hashed content
+     */
+    public static String hashContent(MessageDigest digest) {
+        return hashToString(digest.digest());
+    }
+
     /**
      * Generates a random salt
      * @return Salt
@@ -75,11 +112,22 @@ public class PasswordHash {
      * @return String conversion of hash
      */
     private static String hashToString(byte[] hash)  {
+        // Only padded to 32 digits, as stored passwords and content hashes were made this way
+        return hashToString(hash, 32);
+    }
+
+    /**
+     * Converts a hash to string
+     * @param hash - Hash to convert to a string
+     * @param minLength - Number of hex digits to pad the string to
+     * @return String conversion of hash
+     */
+    static String hashToString(byte[] hash, int minLength)  {
         BigInteger number = new BigInteger(1, hash);
 
         StringBuilder hexString = new StringBuilder(number.toString(16));
 
-        while (hexString.length() < 32) {
+        while (hexString.length() < minLength) {
             hexString.insert(0, '0');
         }
 
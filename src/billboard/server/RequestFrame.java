@@ -0,0 +1,18 @@
+package billboard.server;
+
+/**
+ * Class for a request read from a persistent session
+ */
+public class RequestFrame {
+    public int requestId;
+    public String request;
+    public String token;
+    public Object data;
+
+    public RequestFrame(int requestId, String request, String token, Object data) {
+        this.requestId = requestId;
+        this.request = request;
+        this.token = token;
+        this.data = data;
+    }
+}
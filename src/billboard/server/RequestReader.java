@@ -0,0 +1,92 @@
+package billboard.server;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Interface for reading a request's data, either straight from the socket or from an already read frame.
+ *
+ * Request data comes from the client, so it is checked as it is read. Data of the wrong type, or a missing field,
+ * is reported back as an invalid request, rather than failing later on where it can't be told apart from a bug.
+ */
+public interface RequestReader {
+    Object readObject() throws IOException, ClassNotFoundException;
+
+    /**
+     * Reads the request data, checking it is the expected type
+     * @param type - Expected type
+     * @param <T> - Expected type
+     * @return Request data
+     * @throws IOException if reading fails
+     * @throws ClassNotFoundException if the request data can't be deserialized
+     * @throws DBException if the data is missing or another type
+     */
+    default <T> T read(Class<T> type) throws IOException, ClassNotFoundException, DBException {
+        Object data = readObject();
+        if (!type.isInstance(data)) {
+            throw new DBException("Invalid request");
+        }
+
+        return type.cast(data);
+    }
+
+    /**
+     * Gets a field of the request data, which has to be there
+     * @param data - Request data
+     * @param name - Field name
+     * @param type - Expected type
+     * @param <T> - Expected type
+     * @return Field value
+     * @throws DBException if the field is missing or another type
+     */
+    static <T> T field(HashMap data, String name, Class<T> type) throws DBException {
+        Object value = data.get(name);
+        if (!type.isInstance(value)) {
+            throw new DBException("Invalid request");
+        }
+
+        return type.cast(value);
+    }
+
+    /**
+     * Gets a field of the request data that can be left out
+     * @param data - Request data
+     * @param name - Field name
+     * @param type - Expected type
+     * @param <T> - Expected type
+     * @return Field value, or null if it isn't there
+     * @throws DBException if the field is another type
+     */
+    static <T> T optionalField(HashMap data, String name, Class<T> type) throws DBException {
+        return data.get(name) == null ? null : field(data, name, type);
+    }
+
+    /**
+     * Gets a list field of the request data that can be left out
+     * @param data - Request data
+     * @param name - Field name
+     * @param type - Expected type of every item
+     * @param <T> - Expected type of every item
+     * @return List, or null if it isn't there
+     * @throws DBException if the field isn't a list, or an item is missing or another type
+     */
+    static <T> ArrayList<T> optionalList(HashMap data, String name, Class<T> type) throws DBException {
+        List<?> list = optionalField(data, name, List.class);
+        if (list == null) {
+            return null;
+        }
+
+        ArrayList<T> items = new ArrayList<T>();
+        for (Object item : list) {
+            if (!type.isInstance(item)) {
+                throw new DBException("Invalid request");
+            }
+
+            items.add(type.cast(item));
+        }
+
+        return items;
+    }
+}
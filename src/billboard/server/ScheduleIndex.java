@@ -0,0 +1,410 @@
+package billboard.server;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.function.Predicate;
+
+/**
+ * In-memory copy of the weekly timetable (the ScheduleTimes table), so the billboard showing at any
+ * minute of the week can be looked up without a query.
+ *
+ * The week is stored as one slot per minute (7 x 1440), each holding the schedule time that wins at
+ * that minute. As with the original query, a time shows at minute M if startMinutes < M < endMinutes,
+ * and the time with the highest scheduleTimeId wins. Every change builds a new copy which is then
+ * swapped in, so lookups never need to lock.
+ *
+ * Each channel has its own copy, holding only the schedules for that channel, and schedules for every
+ * screen are kept under the "" channel. Lookups only look at the one channel they are given.
+ */
+public class ScheduleIndex {
+    private static final int MINUTES_IN_A_DAY = DbSchedule.MINUTES_IN_A_DAY;
+    private static final int DAYS_IN_A_WEEK = DbSchedule.DAYS_IN_A_WEEK;
+
+    /**
+     * Helper class for holding a schedule time
+     */
+    public static class Interval {
+        public final int scheduleTimeId;
+        public final int scheduleId;
+        public final int billboardId;
+        public final String channel; // Null for every screen
+        public final int day;
+        public final int startMinutes;
+        public final int endMinutes;
+
+        public Interval(int scheduleTimeId, int scheduleId, int billboardId, String channel, int day, int startMinutes, int endMinutes) {
+            this.scheduleTimeId = scheduleTimeId;
+            this.scheduleId = scheduleId;
+            this.billboardId = billboardId;
+            this.channel = channel;
+            this.day = day;
+            this.startMinutes = startMinutes;
+            this.endMinutes = endMinutes;
+        }
+    }
+
+    /**
+     * Helper class for a run of minutes showing the same billboard
+     */
+    public static class Showing {
+        public final int day;
+        public final int startMinutes; // First minute the billboard shows
+        public final int endMinutes; // Minute it stops showing
+        public final Integer billboardId; // Null if nothing is scheduled
+
+        public Showing(int day, int startMinutes, int endMinutes, Integer billboardId) {
+            this.day = day;
+            this.startMinutes = startMinutes;
+            this.endMinutes = endMinutes;
+            this.billboardId = billboardId;
+        }
+    }
+
+    /**
+     * Helper class for one version of the index
+     */
+    private static class Snapshot {
+        public final HashMap<Integer, Interval> intervals; // By scheduleTimeId
+        public final Interval[] slots; // Winning time at each minute of the week
+        public final int[] runEnds; // For each minute, the next minute of the day that shows something else
+        public final int maxScheduleTimeId;
+
+        public Snapshot(HashMap<Integer, Interval> intervals, Interval[] slots, int[] runEnds, int maxScheduleTimeId) {
+            this.intervals = intervals;
+            this.slots = slots;
+            this.runEnds = runEnds;
+            this.maxScheduleTimeId = maxScheduleTimeId;
+        }
+    }
+
+    // Each channel's copy, by channel name ("" for every screen)
+    private static volatile HashMap<String, Snapshot> snapshots = null;
+
+    /**
+     * Loads the whole timetable from the database
+     * @throws SQLException if an SQL exception occurs
+     */
+    public static synchronized void load() throws SQLException {
+        Connection connection = DbConnection.getInstance();
+
+        Statement statement = connection.createStatement();
+        ResultSet rs = statement.executeQuery("SELECT st.scheduleTimeId, st.scheduleId, s.billboardId, s.channel, st.day, st.startMinutes, st.endMinutes FROM ScheduleTimes as st " +
+                                                    "INNER JOIN Schedule as s ON s.scheduleId = st.scheduleId");
+
+        HashMap<String, HashMap<Integer, Interval>> intervalsByChannel = new HashMap<String, HashMap<Integer, Interval>>();
+        while (rs.next()) {
+            Interval interval = new Interval(rs.getInt("scheduleTimeId"), rs.getInt("scheduleId"), rs.getInt("billboardId"), rs.getString("channel"),
+                    rs.getInt("day"), rs.getInt("startMinutes"), rs.getInt("endMinutes"));
+
+            intervalsByChannel.computeIfAbsent(key(interval.channel), channel -> new HashMap<Integer, Interval>()).put(interval.scheduleTimeId, interval);
+        }
+
+        HashMap<String, Snapshot> loaded = new HashMap<String, Snapshot>();
+        for (var entry : intervalsByChannel.entrySet()) {
+            loaded.put(entry.getKey(), build(entry.getValue()));
+        }
+
+        snapshots = loaded;
+    }
+
+    /**
+     * Gets the key a channel's copy is stored under
+     * @param channel - Channel name, or null for every screen
+     * @return Channel key
+     */
+    private static String key(String channel) {
+        return channel == null ? "" : channel;
+    }
+
+    /**
+     * Gets whether the index has been loaded, if not the database needs to be queried instead
+     * @return Whether the index can be used
+     */
+    public static boolean isLoaded() {
+        return snapshots != null;
+    }
+
+    /**
+     * Gets whether any schedule times are for a channel
+     * @param channel - Channel name
+     * @return Whether the channel has its own schedules in the timetable
+     */
+    public static boolean hasChannel(String channel) {
+        HashMap<String, Snapshot> current = snapshots;
+
+        return current != null && current.containsKey(key(channel));
+    }
+
+    /**
+     * Adds schedule times to the index, after they have been added to the database
+     * @param added - Times to add
+     */
+    public static synchronized void addIntervals(Collection<Interval> added) {
+        if (snapshots == null || added.isEmpty()) {
+            return;
+        }
+
+        HashMap<String, ArrayList<Interval>> addedByChannel = new HashMap<String, ArrayList<Interval>>();
+        for (Interval interval : added) {
+            addedByChannel.computeIfAbsent(key(interval.channel), channel -> new ArrayList<Interval>()).add(interval);
+        }
+
+        HashMap<String, Snapshot> updated = new HashMap<String, Snapshot>(snapshots);
+        for (var entry : addedByChannel.entrySet()) {
+            Snapshot current = updated.get(entry.getKey());
+            if (current == null) {
+                current = build(new HashMap<Integer, Interval>());
+            }
+
+            updated.put(entry.getKey(), addIntervals(current, entry.getValue()));
+        }
+
+        snapshots = updated;
+    }
+
+    /**
+     * Adds schedule times to one channel's copy of the index
+     * @param current - Channel's current copy
+     * @param added - Times to add
+     * @return New copy of the channel's index
+     */
+    private static Snapshot addIntervals(Snapshot current, Collection<Interval> added) {
+        HashMap<Integer, Interval> intervals = new HashMap<Integer, Interval>(current.intervals);
+
+        // New times normally have higher IDs than everything before them, so they can just be painted on top
+        boolean newest = true;
+        for (Interval interval : added) {
+            intervals.put(interval.scheduleTimeId, interval);
+
+            if (interval.scheduleTimeId <= current.maxScheduleTimeId) {
+                newest = false;
+            }
+        }
+
+        if (!newest) {
+            return build(intervals);
+        }
+
+        Interval[] slots = Arrays.copyOf(current.slots, current.slots.length);
+        int[] runEnds = Arrays.copyOf(current.runEnds, current.runEnds.length);
+        boolean[] changedDays = new boolean[DAYS_IN_A_WEEK + 1];
+        int maxScheduleTimeId = current.maxScheduleTimeId;
+
+        ArrayList<Interval> sorted = new ArrayList<Interval>(added);
+        sorted.sort((a, b) -> Integer.compare(a.scheduleTimeId, b.scheduleTimeId));
+
+        for (Interval interval : sorted) {
+            paint(slots, interval);
+            if (interval.day >= 1 && interval.day <= DAYS_IN_A_WEEK) {
+                changedDays[interval.day] = true;
+            }
+            maxScheduleTimeId = Math.max(maxScheduleTimeId, interval.scheduleTimeId);
+        }
+
+        for (int day = 1; day <= DAYS_IN_A_WEEK; day++) {
+            if (changedDays[day]) {
+                computeRunEnds(slots, runEnds, day);
+            }
+        }
+
+        return new Snapshot(intervals, slots, runEnds, maxScheduleTimeId);
+    }
+
+    /**
+     * Removes a schedule's times from the index
+     * @param scheduleId - Schedule ID to remove
+     */
+    public static synchronized void removeSchedule(int scheduleId) {
+        removeIntervals(interval -> interval.scheduleId == scheduleId);
+    }
+
+    /**
+     * Removes the times of every schedule for a billboard from the index
+     * @param billboardId - Billboard ID to remove
+     */
+    public static synchronized void removeBillboard(int billboardId) {
+        removeIntervals(interval -> interval.billboardId == billboardId);
+    }
+
+    /**
+     * Removes schedule times from every channel's copy of the index, dropping channels left with none
+     * @param filter - Which times to remove
+     */
+    private static void removeIntervals(Predicate<Interval> filter) {
+        if (snapshots == null) {
+            return;
+        }
+
+        HashMap<String, Snapshot> updated = new HashMap<String, Snapshot>(snapshots);
+        for (var entry : snapshots.entrySet()) {
+            HashMap<Integer, Interval> intervals = new HashMap<Integer, Interval>(entry.getValue().intervals);
+            if (!intervals.values().removeIf(filter)) {
+                continue;
+            }
+
+            if (intervals.isEmpty()) {
+                updated.remove(entry.getKey());
+            } else {
+                updated.put(entry.getKey(), build(intervals));
+            }
+        }
+
+        snapshots = updated;
+    }
+
+    /**
+     * Gets the billboard a channel's schedules show at a minute of the week
+     * @param channel - Channel name, or null for the schedules for every screen
+     * @param day (1-7) - Day to check
+     * @param minutes - Minutes into the day to check
+     * @return Billboard ID, or null if nothing is scheduled
+     */
+    public static Integer getBillboardAt(String channel, int day, int minutes) {
+        Snapshot current = snapshots.get(key(channel));
+        if (current == null) {
+            return null;
+        }
+
+        Interval interval = current.slots[slot(day, minutes)];
+
+        return interval == null ? null : interval.billboardId;
+    }
+
+    /**
+     * Gets the next minute of the day at which the billboard a channel's schedules show changes
+     * @param channel - Channel name, or null for the schedules for every screen
+     * @param day (1-7) - Day to check
+     * @param minutes - Minutes into the day to check
+     * @return Minutes into the day of the next transition, or the end of the day if there are none
+     */
+    public static int getNextTransition(String channel, int day, int minutes) {
+        Snapshot current = snapshots.get(key(channel));
+        if (current == null) {
+            return MINUTES_IN_A_DAY;
+        }
+
+        return current.runEnds[slot(day, minutes)];
+    }
+
+    /**
+     * Gets what a channel's schedules show over a range of a day
+     * @param channel - Channel name, or null for the schedules for every screen
+     * @param day (1-7) - Day to check
+     * @param fromMinutes - First minute of the range
+     * @param toMinutes - Minute the range ends (exclusive)
+     * @return Each run of minutes showing the same billboard, in order
+     */
+    public static ArrayList<Showing> getShowings(String channel, int day, int fromMinutes, int toMinutes) {
+        Snapshot current = snapshots.get(key(channel));
+        if (current == null) {
+            current = build(new HashMap<Integer, Interval>());
+        }
+
+        ArrayList<Showing> showings = new ArrayList<Showing>();
+
+        int minutes = Math.max(fromMinutes, 0);
+        int end = Math.min(toMinutes, MINUTES_IN_A_DAY);
+        while (minutes < end) {
+            int index = slot(day, minutes);
+            int runEnd = Math.min(current.runEnds[index], end);
+            Interval interval = current.slots[index];
+
+            showings.add(new Showing(day, minutes, runEnd, interval == null ? null : interval.billboardId));
+
+            minutes = runEnd;
+        }
+
+        return showings;
+    }
+
+    /**
+     * Gets the slot for a minute of the week
+     * @param day (1-7) - Day
+     * @param minutes - Minutes into the day
+     * @return Slot index
+     */
+    private static int slot(int day, int minutes) {
+        return (day - 1) * MINUTES_IN_A_DAY + minutes;
+    }
+
+    /**
+     * Builds a new version of the index from scratch
+     * @param intervals - Every schedule time, by scheduleTimeId
+     * @return New version of the index
+     */
+    private static Snapshot build(HashMap<Integer, Interval> intervals) {
+        Interval[] slots = new Interval[DAYS_IN_A_WEEK * MINUTES_IN_A_DAY];
+        int[] runEnds = new int[DAYS_IN_A_WEEK * MINUTES_IN_A_DAY];
+
+        // Paint the oldest first so the newest ends up on top
+        ArrayList<Interval> sorted = new ArrayList<Interval>(intervals.values());
+        sorted.sort((a, b) -> Integer.compare(a.scheduleTimeId, b.scheduleTimeId));
+
+        int maxScheduleTimeId = 0;
+        for (Interval interval : sorted) {
+            paint(slots, interval);
+            maxScheduleTimeId = interval.scheduleTimeId;
+        }
+
+        for (int day = 1; day <= DAYS_IN_A_WEEK; day++) {
+            computeRunEnds(slots, runEnds, day);
+        }
+
+        return new Snapshot(intervals, slots, runEnds, maxScheduleTimeId);
+    }
+
+    /**
+     * Marks the minutes a schedule time shows at
+     * @param slots - Slots to mark
+     * @param interval - Schedule time
+     */
+    private static void paint(Interval[] slots, Interval interval) {
+        if (interval.day < 1 || interval.day > DAYS_IN_A_WEEK) {
+            return;
+        }
+
+        int first = Math.max(interval.startMinutes + 1, 0);
+        int last = Math.min(interval.endMinutes, MINUTES_IN_A_DAY);
+        for (int minutes = first; minutes < last; minutes++) {
+            slots[slot(interval.day, minutes)] = interval;
+        }
+    }
+
+    /**
+     * Works out where each run of the same billboard ends for a day
+     * @param slots - Painted slots
+     * @param runEnds - Run ends to fill in
+     * @param day (1-7) - Day to work out
+     */
+    private static void computeRunEnds(Interval[] slots, int[] runEnds, int day) {
+        int runEnd = MINUTES_IN_A_DAY;
+        for (int minutes = MINUTES_IN_A_DAY - 1; minutes >= 0; minutes--) {
+            int index = slot(day, minutes);
+            runEnds[index] = runEnd;
+
+            if (minutes > 0 && !sameBillboard(slots[index], slots[index - 1])) {
+                runEnd = minutes;
+            }
+        }
+    }
+
+    /**
+     * Checks whether two schedule times show the same billboard
+     * @param a - First time (or null)
+     * @param b - Second time (or null)
+     * @return Whether they show the same billboard
+     */
+    private static boolean sameBillboard(Interval a, Interval b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+
+        return a.billboardId == b.billboardId;
+    }
+}
@@ -0,0 +1,188 @@
+package billboard.server;
+
+import java.util.ArrayList;
+
+/**
+ * A schedule's recurrence rule, from its Schedule row, which works out when the schedule shows without
+ * needing its ScheduleTimes rows.
+ *
+ * Times are counted in minutes from the start of the week (Monday 00:00). Showing k starts at
+ * {@code (day - 1) * 1440 + minutesStart + k * minutesRepeatGap} and lasts minutesDuration, and as with the
+ * timetable it shows at minute M if it started before M and ends after M. Showings stop at the end of the week.
+ */
+public class ScheduleRule {
+    static final int MINUTES_IN_A_WEEK = DbSchedule.DAYS_IN_A_WEEK * DbSchedule.MINUTES_IN_A_DAY;
+
+    /**
+     * Helper class for holding one showing of a schedule
+     */
+    public static class Occurrence {
+        public final int scheduleId;
+        public final int billboardId;
+        public final int start; // Minutes into the week
+        public final int end;
+
+        public Occurrence(int scheduleId, int billboardId, int start, int end) {
+            this.scheduleId = scheduleId;
+            this.billboardId = billboardId;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    public final int scheduleId;
+    public final int billboardId;
+    public final String channel; // Null for every screen
+
+    private final int firstStart; // Minutes into the week of the first showing
+    private final int duration;
+    private final int gap; // Minutes between showings, 0 if it doesn't repeat
+    private final int lastIndex; // Index of the last showing that starts within the week
+
+    /**
+     * Creates a rule from a schedule's settings
+     * @param scheduleId - Schedule ID
+     * @param billboardId - Billboard ID the schedule shows
+     * @param day (1-7) - Schedule day
+     * @param minutesStart - Schedule starting minutes
+     * @param minutesDuration - Schedule duration minutes
+     * @param repeating - Whether the schedule repeats
+     * @param minutesRepeatGap - Minutes between the start of each repeat
+     * @param channel - Channel the schedule is for, or null for every screen
+     */
+    public ScheduleRule(int scheduleId, int billboardId, int day, int minutesStart, int minutesDuration, boolean repeating, int minutesRepeatGap, String channel) {
+        this.scheduleId = scheduleId;
+        this.billboardId = billboardId;
+        this.channel = channel;
+
+        this.firstStart = (day - 1) * DbSchedule.MINUTES_IN_A_DAY + minutesStart;
+        this.duration = Math.max(minutesDuration, 0);
+        this.gap = repeating && minutesRepeatGap > 0 ? minutesRepeatGap : 0;
+
+        if (firstStart < 0 || firstStart >= MINUTES_IN_A_WEEK) {
+            this.lastIndex = -1; // Never shows
+        } else if (gap == 0) {
+            this.lastIndex = 0;
+        } else {
+            this.lastIndex = (MINUTES_IN_A_WEEK - 1 - firstStart) / gap;
+        }
+    }
+
+    /**
+     * Gets when a showing starts
+     * @param index - Showing index
+     * @return Minutes into the week
+     */
+    private int startOf(int index) {
+        return firstStart + index * gap;
+    }
+
+    /**
+     * Gets when a showing ends
+     * @param index - Showing index
+     * @return Minutes into the week
+     */
+    private int endOf(int index) {
+        return Math.min(startOf(index) + duration, MINUTES_IN_A_WEEK);
+    }
+
+    /**
+     * Gets the last showing that started before a minute
+     * @param minutes - Minutes into the week
+     * @return Showing index, or -1 if none have started
+     */
+    private int lastStartedBefore(int minutes) {
+        if (lastIndex < 0 || minutes - 1 < firstStart) {
+            return -1;
+        }
+
+        if (gap == 0) {
+            return 0;
+        }
+
+        return Math.min((minutes - 1 - firstStart) / gap, lastIndex);
+    }
+
+    /**
+     * Checks whether the schedule is showing at a minute
+     * @param minutes - Minutes into the week
+     * @return Whether it is showing
+     */
+    public boolean isActiveAt(int minutes) {
+        // The latest showing to start also ends the latest, so only it needs checking
+        int index = lastStartedBefore(minutes);
+
+        return index >= 0 && minutes < endOf(index);
+    }
+
+    /**
+     * Gets the next minute at which the schedule could start or stop showing
+     * @param minutes - Minutes into the week
+     * @return Minutes into the week of the next change, or the end of the week if there are none
+     */
+    public int getNextTransition(int minutes) {
+        int next = MINUTES_IN_A_WEEK;
+
+        int index = lastStartedBefore(minutes);
+        if (index >= 0 && endOf(index) > minutes) {
+            next = endOf(index);
+        }
+
+        // Showings first show the minute after they start
+        int nextIndex = index + 1;
+        if (nextIndex <= lastIndex) {
+            next = Math.min(next, startOf(nextIndex) + 1);
+        }
+
+        return next;
+    }
+
+    /**
+     * Gets the showings that overlap a range of the week
+     * @param from - Start of the range (minutes into the week)
+     * @param to - End of the range (exclusive)
+     * @return Each overlapping showing, in order
+     */
+    public ArrayList<Occurrence> getOccurrences(int from, int to) {
+        ArrayList<Occurrence> occurrences = new ArrayList<Occurrence>();
+        if (lastIndex < 0) {
+            return occurrences;
+        }
+
+        // First showing still going at the start of the range
+        int index = 0;
+        if (gap != 0) {
+            index = Math.max(Math.floorDiv(from - duration - firstStart, gap) + 1, 0);
+        }
+
+        for (; index <= lastIndex && startOf(index) < to; index++) {
+            if (endOf(index) > from) {
+                occurrences.add(new Occurrence(scheduleId, billboardId, startOf(index), endOf(index)));
+            }
+        }
+
+        return occurrences;
+    }
+
+    /**
+     * Gets every showing split up into days, in the same format as the ScheduleTimes table
+     * @return Times for each day the schedule shows on
+     */
+    ArrayList<DbSchedule.ScheduleTime> getScheduleTimes() {
+        ArrayList<DbSchedule.ScheduleTime> times = new ArrayList<DbSchedule.ScheduleTime>();
+
+        for (Occurrence occurrence : getOccurrences(0, MINUTES_IN_A_WEEK)) {
+            int start = occurrence.start;
+            while (start < occurrence.end) {
+                int dayStart = start / DbSchedule.MINUTES_IN_A_DAY * DbSchedule.MINUTES_IN_A_DAY;
+                int end = Math.min(occurrence.end, dayStart + DbSchedule.MINUTES_IN_A_DAY);
+
+                times.add(new DbSchedule.ScheduleTime(dayStart / DbSchedule.MINUTES_IN_A_DAY + 1, start - dayStart, end - dayStart));
+
+                start = end;
+            }
+        }
+
+        return times;
+    }
+}
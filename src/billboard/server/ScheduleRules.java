@@ -0,0 +1,223 @@
+package billboard.server;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+
+/**
+ * Rule-based schedule engine, used instead of the ScheduleTimes table when server.scheduleEngine is set to "rules".
+ *
+ * Only the Schedule rows are stored, and each one's {@link ScheduleRule} works out when it shows as needed, so
+ * adding or deleting a schedule costs the same however often it repeats. As with the timetable, the newest
+ * schedule wins when several are showing at once. Dated schedules are left to {@link CalendarSchedules}.
+ * The rules are kept per channel (with the ones for every screen under ""), and lookups only look at the
+ * one channel they are given.
+ */
+public class ScheduleRules {
+    private static volatile boolean enabled = false;
+
+    // Each channel's rules, newest schedule first. Replaced rather than changed, so it can be read without locking
+    private static volatile HashMap<String, ScheduleRule[]> rulesByChannel = new HashMap<String, ScheduleRule[]>();
+
+    /**
+     * Sets whether the rule engine is used instead of the timetable
+     * @param useRules - Whether to use rules
+     */
+    public static void setEnabled(boolean useRules) {
+        enabled = useRules;
+    }
+
+    /**
+     * Gets whether the rule engine is used instead of the timetable
+     * @return Whether rules are used
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Loads every schedule's rule from the database
+     * @throws SQLException if an SQL exception occurs
+     */
+    public static synchronized void load() throws SQLException {
+        Connection connection = DbConnection.getInstance();
+
+        Statement statement = connection.createStatement();
+        ResultSet rs = statement.executeQuery("SELECT * FROM Schedule WHERE startDate IS NULL ORDER BY scheduleId DESC");
+
+        ArrayList<ScheduleRule> loaded = new ArrayList<ScheduleRule>();
+        while (rs.next()) {
+            loaded.add(fromRow(rs));
+        }
+
+        rulesByChannel = group(loaded);
+    }
+
+    /**
+     * Splits rules up by channel
+     * @param rules - Every rule
+     * @return Each channel's rules, newest schedule first
+     */
+    private static HashMap<String, ScheduleRule[]> group(Collection<ScheduleRule> rules) {
+        HashMap<String, ArrayList<ScheduleRule>> grouped = new HashMap<String, ArrayList<ScheduleRule>>();
+        for (ScheduleRule rule : rules) {
+            grouped.computeIfAbsent(key(rule.channel), channel -> new ArrayList<ScheduleRule>()).add(rule);
+        }
+
+        HashMap<String, ScheduleRule[]> byChannel = new HashMap<String, ScheduleRule[]>();
+        for (var entry : grouped.entrySet()) {
+            entry.getValue().sort((a, b) -> Integer.compare(b.scheduleId, a.scheduleId));
+            byChannel.put(entry.getKey(), entry.getValue().toArray(new ScheduleRule[0]));
+        }
+
+        return byChannel;
+    }
+
+    /**
+     * Gets every rule across all channels
+     * @return Every rule
+     */
+    private static ArrayList<ScheduleRule> allRules() {
+        ArrayList<ScheduleRule> all = new ArrayList<ScheduleRule>();
+        for (ScheduleRule[] rules : rulesByChannel.values()) {
+            all.addAll(Arrays.asList(rules));
+        }
+
+        return all;
+    }
+
+    /**
+     * Gets the key a channel's rules are stored under
+     * @param channel - Channel name, or null for every screen
+     * @return Channel key
+     */
+    private static String key(String channel) {
+        return channel == null ? "" : channel;
+    }
+
+    /**
+     * Gets a channel's rules
+     * @param channel - Channel name, or null for every screen
+     * @return Channel's rules, newest schedule first
+     */
+    private static ScheduleRule[] getRules(String channel) {
+        return rulesByChannel.getOrDefault(key(channel), new ScheduleRule[0]);
+    }
+
+    /**
+     * Gets whether any rules are for a channel
+     * @param channel - Channel name
+     * @return Whether the channel has its own schedules
+     */
+    public static boolean hasChannel(String channel) {
+        return rulesByChannel.containsKey(key(channel));
+    }
+
+    /**
+     * Creates a rule from a Schedule row
+     * @param rs - Result set on the row
+     * @return Schedule's rule
+     * @throws SQLException if an SQL exception occurs
+     */
+    static ScheduleRule fromRow(ResultSet rs) throws SQLException {
+        return new ScheduleRule(rs.getInt("scheduleId"), rs.getInt("billboardId"), rs.getInt("day"), rs.getInt("minutesStart"),
+                rs.getInt("minutesDuration"), rs.getBoolean("repeating"), rs.getInt("minutesRepeatGap"), rs.getString("channel"));
+    }
+
+    /**
+     * Adds a schedule's rule, after it has been added to the database
+     * @param rule - Rule to add
+     */
+    public static synchronized void add(ScheduleRule rule) {
+        ArrayList<ScheduleRule> updated = new ArrayList<ScheduleRule>(Arrays.asList(getRules(rule.channel)));
+        updated.add(rule);
+        updated.sort((a, b) -> Integer.compare(b.scheduleId, a.scheduleId));
+
+        HashMap<String, ScheduleRule[]> byChannel = new HashMap<String, ScheduleRule[]>(rulesByChannel);
+        byChannel.put(key(rule.channel), updated.toArray(new ScheduleRule[0]));
+
+        rulesByChannel = byChannel;
+    }
+
+    /**
+     * Removes a schedule's rule
+     * @param scheduleId - Schedule ID to remove
+     */
+    public static synchronized void removeSchedule(int scheduleId) {
+        ArrayList<ScheduleRule> all = allRules();
+        if (all.removeIf(rule -> rule.scheduleId == scheduleId)) {
+            rulesByChannel = group(all);
+        }
+    }
+
+    /**
+     * Removes the rules of every schedule for a billboard
+     * @param billboardId - Billboard ID to remove
+     */
+    public static synchronized void removeBillboard(int billboardId) {
+        ArrayList<ScheduleRule> all = allRules();
+        if (all.removeIf(rule -> rule.billboardId == billboardId)) {
+            rulesByChannel = group(all);
+        }
+    }
+
+    /**
+     * Gets the billboard a channel's schedules show at a minute of the week
+     * @param channel - Channel name, or null for the schedules for every screen
+     * @param day (1-7) - Day to check
+     * @param minutes - Minutes into the day to check
+     * @return Billboard ID, or null if nothing is scheduled
+     */
+    public static Integer getBillboardAt(String channel, int day, int minutes) {
+        int weekMinutes = (day - 1) * DbSchedule.MINUTES_IN_A_DAY + minutes;
+
+        // Newest first, so the first one showing wins
+        for (ScheduleRule rule : getRules(channel)) {
+            if (rule.isActiveAt(weekMinutes)) {
+                return rule.billboardId;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Gets the next minute of the day at which the billboard a channel's schedules show could change
+     * @param channel - Channel name, or null for the schedules for every screen
+     * @param day (1-7) - Day to check
+     * @param minutes - Minutes into the day to check
+     * @return Minutes into the day of the next transition, or the end of the day if there are none
+     */
+    public static int getNextTransition(String channel, int day, int minutes) {
+        int dayStart = (day - 1) * DbSchedule.MINUTES_IN_A_DAY;
+
+        int next = dayStart + DbSchedule.MINUTES_IN_A_DAY;
+        for (ScheduleRule rule : getRules(channel)) {
+            next = Math.min(next, rule.getNextTransition(dayStart + minutes));
+        }
+
+        return next - dayStart;
+    }
+
+    /**
+     * Gets every showing of a channel's schedules that overlaps a range of the week
+     * @param channel - Channel name, or null for the schedules for every screen
+     * @param from - Start of the range (minutes into the week)
+     * @param to - End of the range (exclusive)
+     * @return Showings of each schedule, newest schedule first
+     */
+    public static ArrayList<ScheduleRule.Occurrence> getOccurrences(String channel, int from, int to) {
+        ArrayList<ScheduleRule.Occurrence> occurrences = new ArrayList<ScheduleRule.Occurrence>();
+
+        for (ScheduleRule rule : getRules(channel)) {
+            occurrences.addAll(rule.getOccurrences(from, to));
+        }
+
+        return occurrences;
+    }
+}
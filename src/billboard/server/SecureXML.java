@@ -0,0 +1,50 @@
+package billboard.server;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+/**
+ * Parser for billboard XML sent by clients.
+ *
+ * Billboard XML comes straight from users, so DOCTYPE declarations are refused and external entities, external
+ * DTDs and XInclude are turned off. Otherwise a billboard could pull server files or URLs into its content
+ * through an entity, and have them stored and handed back with the billboard.
+ */
+public class SecureXML {
+    private static final DocumentBuilderFactory factory = createFactory();
+
+    /**
+     * Creates the hardened parser factory
+     * @return Parser factory
+     */
+    private static DocumentBuilderFactory createFactory() {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+
+        try {
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            factory.setFeature("http://xml.org/sax/features/external-general-entities", false);
+            factory.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
+            factory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+        } catch (ParserConfigurationException e) {
+            // The JDK's parser supports all of these, so this only happens if another parser has been plugged in
+            throw new IllegalStateException("XML parser can't be secured", e);
+        }
+
+        factory.setXIncludeAware(false);
+        factory.setExpandEntityReferences(false);
+
+        return factory;
+    }
+
+    /**
+     * Creates a parser for billboard XML
+     * @return Parser that refuses DOCTYPE declarations
+     * @throws ParserConfigurationException if the parser can't be created
+     */
+    public static synchronized DocumentBuilder newDocumentBuilder() throws ParserConfigurationException {
+        return factory.newDocumentBuilder();
+    }
+}
@@ -3,6 +3,8 @@ package billboard.server;
 import java.io.*;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.security.NoSuchAlgorithmException;
 import java.sql.Connection;
 import java.sql.SQLException;
@@ -10,20 +12,54 @@ import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Properties;
+import java.util.concurrent.*;
 
 /**
  * Main server class
  */
 public class Server {
+    private static int port = 4000; // Default port
+
+    // Concurrency settings, loaded from server.props
+    private static String mode = "single";
+    private static int threads = 0;
+    private static int queueSize = 64;
+    private static String rejectionPolicy = "callerRuns";
+    private static int readTimeoutMs = 10000;
+    private static int writeTimeoutMs = 10000;
+
+    // Persistent session settings, loaded from server.props
+    private static boolean sessionsEnabled = true;
+    private static int maxSessions = 256;
+    private static int sessionIdleTimeoutMs = 300000;
+
+    // How often expired login sessions are cleared out
+    private static long sessionSweepIntervalMs = 60000;
+
+    // "timetable" stores every schedule time in the ScheduleTimes table, "rules" works them out from each schedule
+    private static String scheduleEngine = "timetable";
+
+    // Viewer subscription settings, loaded from server.props
+    private static boolean subscriptionsEnabled = true;
+    private static int maxSubscribers = 10000;
+    private static long subscriptionKeepaliveMs = 30000;
+    private static int subscriptionWriters = 8;
+
+    private static ExecutorService executor = null;
+
+    // Used to close connections that take too long to write a response to
+    private static final ScheduledExecutorService timeoutTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "server-write-timeout");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     /**
-     * Main server function, starts the server and handles requests
-     * @throws IOException if socket functions fail
-     * @throws SQLException if an SQL exception occurs
+     * Loads the server hosting information from the server.props file
      */
-    public static void startServer() throws IOException, SQLException {
-        int port = 4000; // Default port
-
+    private static void loadProperties() {
         // Opening the server.props file to get the server hosting information
         try {
             FileInputStream in = new FileInputStream("resources/server.props");
@@ -33,10 +69,99 @@ public class Server {
 
             // Get the data from the props file
             port = Integer.parseInt(props.getProperty("port"));
+
+            mode = props.getProperty("server.mode", mode);
+            threads = Integer.parseInt(props.getProperty("server.threads", String.valueOf(threads)));
+            queueSize = Integer.parseInt(props.getProperty("server.queueSize", String.valueOf(queueSize)));
+            rejectionPolicy = props.getProperty("server.rejectionPolicy", rejectionPolicy);
+            readTimeoutMs = Integer.parseInt(props.getProperty("server.readTimeoutMs", String.valueOf(readTimeoutMs)));
+            writeTimeoutMs = Integer.parseInt(props.getProperty("server.writeTimeoutMs", String.valueOf(writeTimeoutMs)));
+
+            sessionsEnabled = Boolean.parseBoolean(props.getProperty("server.sessions", String.valueOf(sessionsEnabled)));
+            maxSessions = Integer.parseInt(props.getProperty("server.maxSessions", String.valueOf(maxSessions)));
+            sessionIdleTimeoutMs = Integer.parseInt(props.getProperty("server.sessionIdleTimeoutMs", String.valueOf(sessionIdleTimeoutMs)));
+
+            sessionSweepIntervalMs = Long.parseLong(props.getProperty("server.sessionSweepIntervalMs", String.valueOf(sessionSweepIntervalMs)));
+
+            scheduleEngine = props.getProperty("server.scheduleEngine", scheduleEngine);
+
+            subscriptionsEnabled = Boolean.parseBoolean(props.getProperty("server.subscriptions", String.valueOf(subscriptionsEnabled)));
+            maxSubscribers = Integer.parseInt(props.getProperty("server.maxSubscribers", String.valueOf(maxSubscribers)));
+            subscriptionKeepaliveMs = Long.parseLong(props.getProperty("server.subscriptionKeepaliveMs", String.valueOf(subscriptionKeepaliveMs)));
+            subscriptionWriters = Integer.parseInt(props.getProperty("server.subscriptionWriters", String.valueOf(subscriptionWriters)));
         }
         catch (Exception e){
             e.printStackTrace();
         }
+    }
+
+    /**
+     * Creates the executor that accepted connections are handed to
+     * @return Executor, or null if connections should be handled on the accept thread
+     */
+    private static ExecutorService createExecutor() {
+        if (mode.equals("virtual")) {
+            return createVirtualThreadExecutor();
+        }
+
+        if (!mode.equals("pool")) {
+            return null;
+        }
+
+        // Default to two threads per core, as most of a request is spent waiting on the database
+        int poolThreads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors() * 2;
+
+        // Rejected connections are either handled by the accept thread (slowing down accepting) or turned away
+        RejectedExecutionHandler rejectionHandler;
+        if (rejectionPolicy.equals("reject")) {
+            rejectionHandler = new ThreadPoolExecutor.AbortPolicy();
+        } else {
+            rejectionHandler = new ThreadPoolExecutor.CallerRunsPolicy();
+        }
+
+        ThreadFactory threadFactory = new ThreadFactory() {
+            private int count = 0;
+
+            @Override
+            public synchronized Thread newThread(Runnable runnable) {
+                count++;
+                return new Thread(runnable, "server-worker-" + count);
+            }
+        };
+
+        System.out.printf("Handling requests with a pool of %d threads (queue size %d, rejection policy %s)\n", poolThreads, queueSize, rejectionPolicy);
+
+        return new ThreadPoolExecutor(poolThreads, poolThreads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize), threadFactory, rejectionHandler);
+    }
+
+    /**
+     * Creates an executor that runs every connection on its own virtual thread.
+     * Looked up reflectively so the server still builds and runs on JDKs without virtual threads
+     * @return Executor
+     */
+    private static ExecutorService createVirtualThreadExecutor() {
+        try {
+            ExecutorService executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+
+            System.out.println("Handling requests with a virtual thread per connection");
+
+            return executor;
+        } catch (ReflectiveOperationException e) {
+            // Virtual threads need Java 21, fall back to an unbounded pool of platform threads
+            System.out.println("Virtual threads are not supported by this JDK, using a thread per connection instead");
+
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * Main server function, starts the server and handles requests
+     * @throws IOException if socket functions fail
+     * @throws SQLException if an SQL exception occurs
+     */
+    public static void startServer() throws IOException, SQLException {
+        loadProperties();
 
         // Create the server socket
         ServerSocket serverSocket = new ServerSocket(port);
@@ -53,13 +178,125 @@ public class Server {
             e.printStackTrace();
         }
 
+        // Load the schedules into memory, if the timetable can't be loaded then the database is queried instead
+        try {
+            if (scheduleEngine.equals("rules")) {
+                ScheduleRules.setEnabled(true);
+                ScheduleRules.load();
+            } else {
+                // Schedules added with the rule engine don't have times yet
+                DbSchedule.addMissingTimes();
+                ScheduleIndex.load();
+            }
+
+            CalendarSchedules.load();
+        } catch (SQLException e) {
+            System.out.println("- Error: Failed to load the schedules: " + e.getMessage());
+        }
+
+        // Give the startup connection back to the pool for the request handlers
+        DbConnection.release();
+
+        // Clear out expired login sessions in the background, rather than on every request
+        SessionCache.startSweeper(sessionSweepIntervalMs);
+
+        // Push billboard changes to subscribed viewers
+        if (subscriptionsEnabled) {
+            BillboardBroadcaster.start(subscriptionKeepaliveMs, subscriptionWriters);
+        }
+
+        executor = createExecutor();
+
         while (true) {
             //opening the socket
             Socket socket = serverSocket.accept();
 
+            // Don't let a stalled client hold on to a thread forever
+            socket.setSoTimeout(readTimeoutMs);
+
+            if (executor == null) {
+                handleConnection(socket);
+                continue;
+            }
+
+            try {
+                executor.execute(() -> handleConnection(socket));
+            } catch (RejectedExecutionException e) {
+                rejectConnection(socket);
+            }
+        }
+    }
+
+    /**
+     * Turns away a connection when the server is too busy to handle it
+     * @param socket - Client socket
+     */
+    private static void rejectConnection(Socket socket) {
+        System.out.println("- Error: Server busy, connection rejected");
+
+        try {
+            ObjectOutputStream oos = new ObjectOutputStream(socket.getOutputStream());
+
+            ServerResponse returnData = new ServerResponse();
+            returnData.error = "Server busy";
+            oos.writeObject(returnData);
+            oos.flush();
+        } catch (IOException e) {
+            // The client has gone already, nothing else to do
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Prints a request to the server log
+     * @param request - Request type
+     */
+    static void logRequest(String request) {
+        DateTimeFormatter dtf = DateTimeFormatter.ofPattern("yyyy/MM/dd HH:mm:ss");
+        LocalDateTime now = LocalDateTime.now();
+        String timeString = dtf.format(now);
+        System.out.printf("[%s] Request: %s\n", timeString, request);
+    }
+
+    /**
+     * Starts closing a socket after the write timeout, so a client that stops receiving can't hold up the server.
+     * The returned future should be cancelled once the write has finished
+     * @param socket - Client socket
+     * @return Scheduled timeout
+     */
+    static ScheduledFuture<?> startWriteTimeout(Socket socket) {
+        return timeoutTimer.schedule(() -> {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, writeTimeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Reads a request from a client socket, handles it and sends back the response
+     * @param socket - Client socket
+     */
+    private static void handleConnection(Socket socket) {
+        boolean keepOpen = false;
+
+        try {
             //NOTE: input stream gets information and Output stream sends out information
             //code for handling requests to the server
-            InputStream inputStream = socket.getInputStream();
+            InputStream inputStream = new BufferedInputStream(socket.getInputStream());
+
+            // Clients using the binary protocol start with its header instead of a serialization header
+            if (BinaryProtocol.readHeader(inputStream)) {
+                keepOpen = handleBinaryConnection(socket, inputStream);
+                return;
+            }
+
             ObjectInputStream ois = new ObjectInputStream(inputStream);
 
             //for sending data back to the client
@@ -73,461 +310,914 @@ public class Server {
             String token = ois.readUTF();
 
             // Print the request
-            DateTimeFormatter dtf = DateTimeFormatter.ofPattern("yyyy/MM/dd HH:mm:ss");
-            LocalDateTime now = LocalDateTime.now();
-            String timeString = dtf.format(now);
-            System.out.printf("[%s] Request: %s\n", timeString, request);
+            logRequest(request);
 
-            // Handle request
-            ServerResponse returnData = new ServerResponse();
+            // The client wants to keep this connection open and send many requests over it
+            if (request.equals("openSession")) {
+                keepOpen = openSession(socket, ois, oos);
+                return;
+            }
+
+            // A viewer wants billboard changes pushed to it over this connection, followed by the viewer's channel
+            if (request.equals("subscribeCurrentBillboard")) {
+                Object channel;
+                try {
+                    channel = ois.readObject();
+                } catch (ClassNotFoundException e) {
+                    channel = null;
+                }
+
+                keepOpen = subscribe(socket, getChannel(channel), true, response -> {
+                    oos.writeObject(response);
+
+                    // Don't keep references to every response sent in the stream's handle table
+                    oos.reset();
+
+                    oos.flush();
+                });
+                return;
+            }
+
+            ServerResponse returnData = handleRequest(request, token, ois::readObject);
+
+            // Finalise request, closing the socket if the client takes too long to receive it
+            ScheduledFuture<?> writeTimeout = startWriteTimeout(socket);
             try {
-                switch (request){
-                    case "getUsernames": {
-                        int userId = DbLogin.checkToken(token);
-                        HashMap<String, Boolean> permissions = DbUser.getUserPermissions(userId);
+                oos.writeObject(returnData);
 
-                        // Permissions required: "Edit Users".
-                        if (!permissions.get("editUsers")) {
-                            throw new DBException("Insufficient permissions");
-                        }
+                oos.flush();
+            } finally {
+                writeTimeout.cancel(false);
+            }
 
-                        HashMap<Integer, String> usernames = DbUser.getUsernames();
+            oos.close();
+            ois.close();
+        } catch (IOException e) {
+            System.out.println("- Error: " + e.getMessage());
+        } finally {
+            // Give this request's database connection back to the pool
+            DbConnection.release();
+
+            if (!keepOpen) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
 
-                        returnData.data = usernames;
+    /**
+     * Handles a connection using the binary protocol. If the first request is "openSession" the connection is
+     * turned into a session, otherwise only one request is handled before the connection is closed
+     * @param socket - Client socket
+     * @param inputStream - Socket input stream, after the binary header
+     * @return Whether the connection was kept open as a session or subscription
+     * @throws IOException if reading or writing fails
+     */
+    private static boolean handleBinaryConnection(Socket socket, InputStream inputStream) throws IOException {
+        DataInputStream in = new DataInputStream(inputStream);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
 
-                        break;
-                    }
+        RequestFrame frame = BinaryProtocol.readRequest(in);
 
-                    case "getUserData": {
-                        int userId = DbLogin.checkToken(token);
-                        HashMap<String, Boolean> permissions = DbUser.getUserPermissions(userId);
+        logRequest(frame.request);
 
-                        int requestingUserId = (int) ois.readObject();
+        if (frame.request.equals("subscribeCurrentBillboard")) {
+            return subscribe(socket, getChannel(frame.data), true, response -> {
+                BinaryProtocol.writeResponse(out, frame.requestId, response);
+                out.flush();
+            });
+        }
 
-                        // Permissions required: if a user is requesting their own details, none. To get details for other users, "Edit Users" permission is required.
-                        if (requestingUserId != userId) {
-                            if (!permissions.get("editUsers")) {
-                                throw new DBException("Insufficient permissions");
-                            }
-                        }
+        ServerResponse returnData;
+        boolean startSession = false;
+        if (frame.request.equals("openSession")) {
+            // Sessions hand their requests to the worker pool, so they can't be used when handling one connection at a time
+            returnData = new ServerResponse();
+            if (!sessionsEnabled || executor == null) {
+                returnData.error = "Sessions not supported";
+            } else if (!ServerSession.reserve(maxSessions)) {
+                returnData.error = "Too many sessions";
+            } else {
+                startSession = true;
+            }
+        } else {
+            returnData = handleRequest(frame.request, frame.token, () -> frame.data);
+        }
+
+        ScheduledFuture<?> writeTimeout = startWriteTimeout(socket);
+        try {
+            BinaryProtocol.writeResponse(out, frame.requestId, returnData);
+            out.flush();
+        } catch (IOException e) {
+            if (startSession) {
+                ServerSession.unreserve();
+            }
+            throw e;
+        } finally {
+            writeTimeout.cancel(false);
+        }
 
-                        var userData = DbUser.getUserData(requestingUserId);
+        if (!startSession) {
+            return false;
+        }
 
-                        returnData.data = userData;
+        // Sessions sit idle between requests, so they get a longer timeout
+        socket.setSoTimeout(sessionIdleTimeoutMs);
 
-                        break;
-                    }
+        new ServerSession(socket, in, out, executor).start();
 
-                    case "listBillboards": {
-                        // All users will be able to access a list of all billboards on the system and preview their contents.
-                        var billboards = DbBillboard.listBillboards();
+        return true;
+    }
 
-                        returnData.data = billboards;
+    /**
+     * Turns a connection into a persistent session, if sessions are available
+     * @param socket - Client socket
+     * @param ois - Socket input stream
+     * @param oos - Socket output stream
+     * @return Whether the session was opened
+     * @throws IOException if replying to the client fails
+     */
+    private static boolean openSession(Socket socket, ObjectInputStream ois, ObjectOutputStream oos) throws IOException {
+        ServerResponse returnData = new ServerResponse();
+
+        // Sessions hand their requests to the worker pool, so they can't be used when handling one connection at a time
+        if (!sessionsEnabled || executor == null) {
+            returnData.error = "Sessions not supported";
+        } else if (!ServerSession.reserve(maxSessions)) {
+            returnData.error = "Too many sessions";
+        }
 
-                        break;
-                    }
+        ScheduledFuture<?> writeTimeout = startWriteTimeout(socket);
+        try {
+            oos.writeObject(returnData);
+            oos.flush();
+        } catch (IOException e) {
+            if (returnData.error == null) {
+                ServerSession.unreserve();
+            }
+            throw e;
+        } finally {
+            writeTimeout.cancel(false);
+        }
 
-                    case "createBillboard": {
-                        int userId = DbLogin.checkToken(token);
-                        HashMap<String, Boolean> permissions = DbUser.getUserPermissions(userId);
+        if (returnData.error != null) {
+            return false;
+        }
 
-                        // Users with the "Create Billboards" permission can create new billboards
-                        if (!permissions.get("createBillboards")) {
-                            throw new DBException("Insufficient permissions");
-                        }
+        // Sessions sit idle between requests, so they get a longer timeout
+        socket.setSoTimeout(sessionIdleTimeoutMs);
 
-                        HashMap data = (HashMap) ois.readObject();
-                        String billboardName = (String) data.get("billboardName");
-                        String billboardData = (String) data.get("billboardData");
+        new ServerSession(socket, ois, oos, executor).start();
 
-                        DbBillboard.createBillboard(billboardName, billboardData, userId);
+        return true;
+    }
 
-                        break;
-                    }
+    /**
+     * Gets the channel a viewer sent with its request
+     * @param data - Request data
+     * @return Channel name, or null if the viewer isn't on one
+     */
+    static String getChannel(Object data) {
+        if (!(data instanceof String) || ((String) data).isBlank() || ((String) data).length() > DbSchedule.MAX_CHANNEL_LENGTH) {
+            return null;
+        }
+
+        return (String) data;
+    }
 
-                    case "updateBillboard": {
-                        int userId = DbLogin.checkToken(token);
-                        HashMap<String, Boolean> permissions = DbUser.getUserPermissions(userId);
+    /**
+     * Subscribes a connection to billboard changes, sending back an error if subscriptions aren't available
+     * @param socket - Client socket
+     * @param channel - Channel the viewer is on, or null if it isn't on one
+     * @param dedicated - Whether the connection is only for the subscription, rather than a session that keeps
+     * reading requests (and keeps its idle timeout)
+     * @param writer - Writer for pushing responses to the connection
+     * @return Whether the connection was subscribed, and so needs to be kept open
+     * @throws IOException if replying to the client fails
+     */
+    static boolean subscribe(Socket socket, String channel, boolean dedicated, BillboardBroadcaster.PushWriter writer) throws IOException {
+        ServerResponse returnData = new ServerResponse();
 
-                        // To edit own billboard, as long as it is not currently scheduled, must have
-                        // "Create Billboards" permission. To edit another user’s billboard or edit a billboard
-                        // that is currently scheduled, must have "Edit All Billboards" permission.)
+        if (!subscriptionsEnabled) {
+            returnData.error = "Subscriptions not supported";
+        } else {
+            try {
+                // Nothing is read from subscribed connections, dead viewers are found by the keepalives instead
+                if (dedicated) {
+                    socket.setSoTimeout(0);
+                }
 
-                        HashMap data = (HashMap) ois.readObject();
-                        String billboardName = (String) data.get("billboardName");
-                        String billboardData = (String) data.get("billboardData");
-                        Integer billboardId = (Integer) data.get("billboardId");
+                if (BillboardBroadcaster.subscribe(socket, writer, channel, maxSubscribers)) {
+                    return true;
+                }
 
-                        int creatorId = DbBillboard.getBillboardCreatorId(billboardId);
+                returnData.error = "Too many subscribers";
+            } catch (SQLException e) {
+                returnData.error = "Internal server error";
+            }
+        }
 
-                        // Permissions required:
-                        if (userId == creatorId) { // To edit own billboard
-                            ArrayList<HashMap> billboardSchedule = DbSchedule.getBillboardSchedule(billboardId);
-                            if (billboardSchedule.isEmpty()) { // as long as it is not currently scheduled, must have "Create Billboards" permission.
-                                if (!permissions.get("createBillboards")) {
-                                    throw new DBException("Insufficient permissions");
-                                }
-                            } else {
-                                if (!permissions.get("editBillboards")) { // edit a billboard that is currently scheduled, must have "Edit All Billboards" permission.)
-                                    throw new DBException("Insufficient permissions");
-                                }
-                            }
-                        } else { // To edit another user’s billboard, must have "Edit All Billboards" permission.)
-                            if (!permissions.get("editBillboards")) {
-                                throw new DBException("Insufficient permissions");
-                            }
-                        }
+        ScheduledFuture<?> writeTimeout = startWriteTimeout(socket);
+        try {
+            writer.write(returnData);
+        } finally {
+            writeTimeout.cancel(false);
+        }
 
-                        DbBillboard.updateBillboard(billboardName, billboardData, billboardId);
+        return false;
+    }
 
-                        break;
-                    }
+    /**
+     * Checks a user can edit a billboard. To edit their own billboard, as long as it is not currently scheduled,
+     * a user must have the "Create Billboards" permission. To edit another user's billboard or a billboard that is
+     * currently scheduled, they must have the "Edit All Billboards" permission
+     * @param auth - User's auth context
+     * @param billboardId - Billboard ID
+     * @throws SQLException if an SQL exception occurs
+     * @throws DBException if the user can't edit the billboard
+     */
+    private static void checkCanEditBillboard(AuthContext auth, int billboardId) throws SQLException, DBException {
+        HashMap<String, Boolean> permissions = auth.permissions;
 
-                    case "billboardNameExists": {
-                        int userId = DbLogin.checkToken(token);
-                        HashMap<String, Boolean> permissions = DbUser.getUserPermissions(userId);
+        int creatorId = DbBillboard.getBillboardCreatorId(billboardId);
 
-                        String billboardName = (String) ois.readObject();
+        if (auth.userId == creatorId) { // To edit own billboard
+            ArrayList<HashMap> billboardSchedule = DbSchedule.getBillboardSchedule(billboardId);
+            if (billboardSchedule.isEmpty()) { // as long as it is not currently scheduled, must have "Create Billboards" permission.
+                if (!permissions.get("createBillboards")) {
+                    throw new DBException("Insufficient permissions");
+                }
+            } else {
+                if (!permissions.get("editBillboards")) { // edit a billboard that is currently scheduled, must have "Edit All Billboards" permission.)
+                    throw new DBException("Insufficient permissions");
+                }
+            }
+        } else { // To edit another user’s billboard, must have "Edit All Billboards" permission.)
+            if (!permissions.get("editBillboards")) {
+                throw new DBException("Insufficient permissions");
+            }
+        }
+    }
 
-                        returnData.data = DbBillboard.billboardNameExists(billboardName);
+    /**
+     * Checks a user could use an upload, as they can create or edit billboards
+     * @param auth - User's auth context
+     * @throws DBException if the user can't create or edit billboards
+     */
+    private static void checkCanUpload(AuthContext auth) throws DBException {
+        if (!auth.permissions.get("createBillboards") && !auth.permissions.get("editBillboards")) {
+            throw new DBException("Insufficient permissions");
+        }
+    }
 
-                        break;
+    /**
+     * Handles a single request
+     * @param request - Request type
+     * @param token - Session token sent with the request
+     * @param reader - Reader for the request data
+     * @return Response to send back to the client
+     * @throws IOException if reading the request data fails
+     */
+    static ServerResponse handleRequest(String request, String token, RequestReader reader) throws IOException {
+        // Handle request
+        ServerResponse returnData = new ServerResponse();
+        try {
+            switch (request){
+                case "getUsernames": {
+                    AuthContext auth = DbLogin.getAuthContext(token);
+                    int userId = auth.userId;
+                    HashMap<String, Boolean> permissions = auth.permissions;
+
+                    // Permissions required: "Edit Users".
+                    if (!permissions.get("editUsers")) {
+                        throw new DBException("Insufficient permissions");
                     }
 
-                    case "getBillboardData": {
-                        int billboardId = (int) ois.readObject();
+                    HashMap<Integer, String> usernames = DbUser.getUsernames();
 
-                        String billboardData = DbBillboard.getBillboardData(billboardId);
+                    returnData.data = usernames;
 
-                        returnData.data = billboardData;
+                    break;
+                }
+
+                case "listUsersPage": {
+                    AuthContext auth = DbLogin.getAuthContext(token);
+                    HashMap<String, Boolean> permissions = auth.permissions;
 
-                        break;
+                    // Permissions required: "Edit Users".
+                    if (!permissions.get("editUsers")) {
+                        throw new DBException("Insufficient permissions");
                     }
 
-                    case "getBillboardCreatorName": {
-                        int billboardId = (int) ois.readObject();
+                    HashMap data = reader.read(HashMap.class);
+                    String filter = RequestReader.optionalField(data, "filter", String.class);
+                    boolean descending = Boolean.TRUE.equals(data.get("descending"));
+                    String after = RequestReader.optionalField(data, "after", String.class);
+                    int limit = RequestReader.field(data, "limit", Integer.class);
+
+                    returnData.data = DbUser.listUsersPage(filter, descending, after, limit);
 
-                        String billboardData = DbBillboard.getBillboardCreatorName(billboardId);
+                    break;
+                }
+
+                case "getUserData": {
+                    AuthContext auth = DbLogin.getAuthContext(token);
+                    int userId = auth.userId;
+                    HashMap<String, Boolean> permissions = auth.permissions;
 
-                        returnData.data = billboardData;
+                    int requestingUserId = reader.read(Integer.class);
 
-                        break;
+                    // Permissions required: if a user is requesting their own details, none. To get details for other users, "Edit Users" permission is required.
+                    if (requestingUserId != userId) {
+                        if (!permissions.get("editUsers")) {
+                            throw new DBException("Insufficient permissions");
+                        }
                     }
 
-                    case "getBillboardName": {
-                        // Permissions required: none.
+                    var userData = DbUser.getUserData(requestingUserId);
 
-                        int billboardId = (int) ois.readObject();
+                    returnData.data = userData;
 
-                        String billboardName = DbBillboard.getBillboardName(billboardId);
+                    break;
+                }
 
-                        returnData.data = billboardName;
+                case "listBillboards": {
+                    // All users will be able to access a list of all billboards on the system and preview their contents.
+                    var billboards = DbBillboard.listBillboards();
 
-                        break;
+                    returnData.data = billboards;
+
+                    break;
+                }
+
+                case "listBillboardsPage": {
+                    HashMap data = reader.read(HashMap.class);
+                    String sort = RequestReader.optionalField(data, "sort", String.class);
+                    boolean descending = Boolean.TRUE.equals(data.get("descending"));
+                    String filter = RequestReader.optionalField(data, "filter", String.class);
+                    HashMap after = RequestReader.optionalField(data, "after", HashMap.class);
+                    int limit = RequestReader.field(data, "limit", Integer.class);
+
+                    returnData.data = DbBillboard.listBillboardsPage(sort, descending, filter, after, limit);
+
+                    break;
+                }
+
+                case "searchBillboards": {
+                    HashMap data = reader.read(HashMap.class);
+                    String query = RequestReader.optionalField(data, "query", String.class);
+                    int limit = RequestReader.field(data, "limit", Integer.class);
+
+                    returnData.data = DbBillboard.searchBillboards(query, limit);
+
+                    break;
+                }
+
+                case "createBillboard": {
+                    AuthContext auth = DbLogin.getAuthContext(token);
+                    int userId = auth.userId;
+                    HashMap<String, Boolean> permissions = auth.permissions;
+
+                    // Users with the "Create Billboards" permission can create new billboards
+                    if (!permissions.get("createBillboards")) {
+                        throw new DBException("Insufficient permissions");
                     }
 
-                    case "getBillboardId": {
-                        // Permissions required: none.
+                    HashMap data = reader.read(HashMap.class);
+                    String billboardName = RequestReader.field(data, "billboardName", String.class);
+                    String billboardData = RequestReader.field(data, "billboardData", String.class);
 
-                        String billboardName = (String) ois.readObject();
+                    DbBillboard.createBillboard(billboardName, billboardData, userId);
 
-                        int billboardId = DbBillboard.getBillboardId(billboardName);
+                    break;
+                }
 
-                        returnData.data = billboardId;
+                case "updateBillboard": {
+                    AuthContext auth = DbLogin.getAuthContext(token);
 
-                        break;
+                    HashMap data = reader.read(HashMap.class);
+                    String billboardName = RequestReader.field(data, "billboardName", String.class);
+                    String billboardData = RequestReader.field(data, "billboardData", String.class);
+                    Integer billboardId = RequestReader.field(data, "billboardId", Integer.class);
+
+                    checkCanEditBillboard(auth, billboardId);
+
+                    DbBillboard.updateBillboard(billboardName, billboardData, billboardId);
+
+                    break;
+                }
+
+                case "beginBillboardUpload": {
+                    // The exact permission is checked when the upload is finished, once it's known what it's for,
+                    // but users who can't create or edit any billboard can't take up space on the server
+                    AuthContext auth = DbLogin.getAuthContext(token);
+                    checkCanUpload(auth);
+
+                    try {
+                        HashMap upload = new HashMap();
+                        upload.put("uploadId", BillboardTransfer.beginUpload(auth.userId));
+                        upload.put("limit", BillboardTransfer.getChunkChars());
+
+                        returnData.data = upload;
+                    } catch (IOException e) {
+                        // Temporary files failing isn't the client's fault, so the connection is kept open
+                        e.printStackTrace();
+
+                        returnData.error = "Internal server error";
                     }
 
-                    case "deleteBillboard": {
-                        int userId = DbLogin.checkToken(token);
-                        HashMap<String, Boolean> permissions = DbUser.getUserPermissions(userId);
-
-                        int billboardId = (int) ois.readObject();
-
-                        int creatorId = DbBillboard.getBillboardCreatorId(billboardId);
-
-                        // (Permissions required: if deleting
-                        // own billboard and that billboard is not currently scheduled, must have "Create
-                        // Billboards" permission. To delete any other billboards, including those currently
-                        // scheduled, must have "Edit All Billboards" permission.)
-
-                        // Permissions required:
-                        if (userId == creatorId) {  // if deleting own billboard
-                            ArrayList<HashMap> billboardSchedule = DbSchedule.getBillboardSchedule(billboardId);
-                            if (billboardSchedule.isEmpty()) { // and that billboard is not currently scheduled, must have "Create Billboards" permission.
-                                if (!permissions.get("createBillboards")) {
-                                    throw new DBException("Insufficient permissions");
-                                }
-                            } else { // To delete any other billboards, including those currently scheduled, must have "Edit All Billboards" permission.)
-                                if (!permissions.get("editBillboards")) {
-                                    throw new DBException("Insufficient permissions");
-                                }
-                            }
-                        } else { // To delete any other billboards, including those currently scheduled, must have "Edit All Billboards" permission.)
-                            if (!permissions.get("editBillboards")) {
-                                throw new DBException("Insufficient permissions");
-                            }
-                        }
+                    break;
+                }
+
+                case "uploadBillboardChunk": {
+                    AuthContext auth = DbLogin.getAuthContext(token);
+                    checkCanUpload(auth);
 
-                        DbBillboard.deleteBillboard(billboardId);
+                    HashMap data = reader.read(HashMap.class);
+                    String uploadId = RequestReader.field(data, "uploadId", String.class);
+                    String chunk = RequestReader.field(data, "data", String.class);
 
-                        break;
+                    try {
+                        BillboardTransfer.appendChunk(uploadId, auth.userId, chunk);
+                    } catch (IOException e) {
+                        // Temporary files failing isn't the client's fault, so the connection is kept open
+                        e.printStackTrace();
+
+                        returnData.error = "Internal server error";
                     }
 
-                    case "addSchedule": {
-                        int userId = DbLogin.checkToken(token);
-                        HashMap<String, Boolean> permissions = DbUser.getUserPermissions(userId);
+                    break;
+                }
+
+                case "finishBillboardUpload": {
+                    AuthContext auth = DbLogin.getAuthContext(token);
+                    HashMap<String, Boolean> permissions = auth.permissions;
 
-                        // Permissions required: "Schedule Billboards".
-                        if (!permissions.get("scheduleBillboards")) {
+                    HashMap data = reader.read(HashMap.class);
+                    String uploadId = RequestReader.field(data, "uploadId", String.class);
+                    String billboardName = RequestReader.field(data, "billboardName", String.class);
+                    Integer billboardId = RequestReader.optionalField(data, "billboardId", Integer.class); // Null for a new billboard
+
+                    // Same permissions as createBillboard and updateBillboard
+                    if (billboardId == null) {
+                        if (!permissions.get("createBillboards")) {
                             throw new DBException("Insufficient permissions");
                         }
+                    } else {
+                        checkCanEditBillboard(auth, billboardId);
+                    }
 
-                        var scheduleData = (HashMap) ois.readObject();
-                        int billboardId = (int) scheduleData.get("billboardId");
-                        int day = (int) scheduleData.get("day");
-                        int minutesStart = (int) scheduleData.get("minutesStart");
-                        int minutesDuration = (int) scheduleData.get("minutesDuration");
-                        boolean repeating = (boolean) scheduleData.get("repeating");
-                        int minutesRepeatGap = (int) scheduleData.get("minutesRepeatGap");
-                        DbSchedule.addSchedule(billboardId, day, minutesStart, minutesDuration, repeating, minutesRepeatGap, userId);
+                    try {
+                        Path upload = BillboardTransfer.finishUpload(uploadId, auth.userId);
+                        try {
+                            if (billboardId == null) {
+                                DbBillboard.createBillboard(billboardName, upload, auth.userId);
+                            } else {
+                                DbBillboard.updateBillboard(billboardName, upload, billboardId);
+                            }
+                        } finally {
+                            Files.deleteIfExists(upload);
+                        }
+                    } catch (IOException e) {
+                        // Temporary files failing isn't the client's fault, so the connection is kept open
+                        e.printStackTrace();
 
-                        break;
+                        returnData.error = "Internal server error";
                     }
 
-                    case "logoutUser": {
-                        DbLogin.logoutUser(token);
+                    break;
+                }
 
-                        break;
-                    }
+                case "cancelBillboardUpload": {
+                    AuthContext auth = DbLogin.getAuthContext(token);
+
+                    String uploadId = reader.read(String.class);
+
+                    BillboardTransfer.cancelUpload(uploadId, auth.userId);
 
-                    case "getAllSchedules": {
-                        int userId = DbLogin.checkToken(token);
-                        HashMap<String, Boolean> permissions = DbUser.getUserPermissions(userId);
-                        
-                        var schedule = DbSchedule.getAllSchedules();
+                    break;
+                }
+
+                case "getBillboardDataChunk": {
+                    HashMap data = reader.read(HashMap.class);
+                    int billboardId = RequestReader.field(data, "billboardId", Integer.class);
+                    long offset = RequestReader.field(data, "offset", Number.class).longValue();
+                    int limit = RequestReader.field(data, "limit", Integer.class);
 
-                        returnData.data = schedule;
+                    try {
+                        returnData.data = DbBillboard.getBillboardDataChunk(billboardId, offset, limit);
+                    } catch (IOException e) {
+                        // Not the client's fault, so the connection is kept open
+                        e.printStackTrace();
 
-                        break;
+                        returnData.error = "Internal server error";
                     }
 
-                    case "getBillboardSchedule": {
-                        int userId = DbLogin.checkToken(token);
-                        HashMap<String, Boolean> permissions = DbUser.getUserPermissions(userId);
+                    break;
+                }
 
-                        // Permissions required: "Schedule Billboards".
-                        if (!permissions.get("scheduleBillboards")) {
-                            throw new DBException("Insufficient permissions");
-                        }
+                case "billboardNameExists": {
+                    AuthContext auth = DbLogin.getAuthContext(token);
+                    int userId = auth.userId;
+                    HashMap<String, Boolean> permissions = auth.permissions;
 
-                        int scheduleId = (int) ois.readObject();
+                    String billboardName = reader.read(String.class);
 
-                        var schedule = DbSchedule.getBillboardSchedule(scheduleId);
+                    returnData.data = DbBillboard.billboardNameExists(billboardName);
 
-                        returnData.data = schedule;
+                    break;
+                }
 
-                        break;
-                    }
+                case "getBillboardData": {
+                    int billboardId = reader.read(Integer.class);
 
-                    case "deleteSchedule": {
-                        int userId = DbLogin.checkToken(token);
-                        HashMap<String, Boolean> permissions = DbUser.getUserPermissions(userId);
+                    String billboardData = DbBillboard.getBillboardData(billboardId);
 
-                        // Permissions required: "Schedule Billboards".
-                        if (!permissions.get("scheduleBillboards")) {
-                            throw new DBException("Insufficient permissions");
-                        }
+                    returnData.data = billboardData;
 
-                        int scheduleId = (int) ois.readObject();
+                    break;
+                }
 
-                        DbSchedule.deleteSchedule(scheduleId);
+                case "getBillboardCreatorName": {
+                    int billboardId = reader.read(Integer.class);
 
-                        break;
-                    }
+                    String billboardData = DbBillboard.getBillboardCreatorName(billboardId);
 
-                    case "getUserId": {
-                        int userId = DbLogin.checkToken(token);
+                    returnData.data = billboardData;
 
-                        String username = (String) ois.readObject();
+                    break;
+                }
 
-                        returnData.data = DbUser.getUserId(username);
+                case "getBillboardName": {
+                    // Permissions required: none.
 
-                        break;
-                    }
+                    int billboardId = reader.read(Integer.class);
+
+                    String billboardName = DbBillboard.getBillboardName(billboardId);
 
-                    case "getOwnPermissions": {
-                        int userId = DbLogin.checkToken(token);
-                        var userPermissions = DbUser.getUserPermissions(userId);
+                    returnData.data = billboardName;
+
+                    break;
+                }
 
-                        // Permissions required: if a user is requesting their own details, none
+                case "getBillboardId": {
+                    // Permissions required: none.
 
-                        returnData.data = userPermissions;
+                    String billboardName = reader.read(String.class);
+
+                    int billboardId = DbBillboard.getBillboardId(billboardName);
+
+                    returnData.data = billboardId;
+
+                    break;
+                }
+
+                case "deleteBillboard": {
+                    AuthContext auth = DbLogin.getAuthContext(token);
+
+                    int billboardId = reader.read(Integer.class);
+
+                    // (Permissions required: if deleting own billboard and that billboard is not currently scheduled,
+                    // must have "Create Billboards" permission. To delete any other billboards, including those
+                    // currently scheduled, must have "Edit All Billboards" permission.) The same as editing it
+                    checkCanEditBillboard(auth, billboardId);
+
+                    DbBillboard.deleteBillboard(billboardId);
+
+                    break;
+                }
 
-                        break;
+                case "addSchedule": {
+                    AuthContext auth = DbLogin.getAuthContext(token);
+                    int userId = auth.userId;
+                    HashMap<String, Boolean> permissions = auth.permissions;
+
+                    // Permissions required: "Schedule Billboards".
+                    if (!permissions.get("scheduleBillboards")) {
+                        throw new DBException("Insufficient permissions");
                     }
 
-                    case "getPermissions": {
-                        int userId = DbLogin.checkToken(token);
-                        HashMap<String, Boolean> permissions = DbUser.getUserPermissions(userId);
+                    var scheduleData = reader.read(HashMap.class);
+                    int billboardId = RequestReader.field(scheduleData, "billboardId", Integer.class);
+                    int day = RequestReader.field(scheduleData, "day", Integer.class);
+                    int minutesStart = RequestReader.field(scheduleData, "minutesStart", Integer.class);
+                    int minutesDuration = RequestReader.field(scheduleData, "minutesDuration", Integer.class);
+                    boolean repeating = RequestReader.field(scheduleData, "repeating", Boolean.class);
+                    int minutesRepeatGap = RequestReader.field(scheduleData, "minutesRepeatGap", Integer.class);
+
+                    // Schedules with a start date only show between their dates, rather than every week
+                    String startDate = RequestReader.optionalField(scheduleData, "startDate", String.class);
+                    String channel = RequestReader.optionalField(scheduleData, "channel", String.class);
+                    if (startDate != null) {
+                        DbSchedule.addDatedSchedule(billboardId, day, minutesStart, minutesDuration, repeating, minutesRepeatGap, userId, startDate,
+                                RequestReader.optionalField(scheduleData, "endDate", String.class), RequestReader.optionalField(scheduleData, "timezone", String.class), RequestReader.optionalList(scheduleData, "exceptionDates", String.class), channel);
+                    } else {
+                        DbSchedule.addSchedule(billboardId, day, minutesStart, minutesDuration, repeating, minutesRepeatGap, userId, channel);
+                    }
 
-                        int requestingUserId = (int) ois.readObject();
+                    break;
+                }
 
-                        // Permissions required: if a user is requesting their own details, none. To get details for other users, "Edit Users" permission is required
-                        if (requestingUserId != userId) {
-                            if (!permissions.get("editUsers")) {
-                                throw new DBException("Insufficient permissions");
-                            }
-                        }
+                case "logoutUser": {
+                    DbLogin.logoutUser(token);
 
-                        var userPermissions = DbUser.getUserPermissions(requestingUserId);
+                    break;
+                }
 
-                        returnData.data = userPermissions;
+                case "getAllSchedules": {
+                    AuthContext auth = DbLogin.getAuthContext(token);
+                    int userId = auth.userId;
+                    HashMap<String, Boolean> permissions = auth.permissions;
+                    
+                    var schedule = DbSchedule.getAllSchedules();
 
-                        break;
+                    returnData.data = schedule;
+
+                    break;
+                }
+
+                case "getBillboardSchedule": {
+                    AuthContext auth = DbLogin.getAuthContext(token);
+                    int userId = auth.userId;
+                    HashMap<String, Boolean> permissions = auth.permissions;
+
+                    // Permissions required: "Schedule Billboards".
+                    if (!permissions.get("scheduleBillboards")) {
+                        throw new DBException("Insufficient permissions");
                     }
 
-                    case "updatePassword": {
-                        int userId = DbLogin.checkToken(token);
-                        HashMap<String, Boolean> permissions = DbUser.getUserPermissions(userId);
+                    int scheduleId = reader.read(Integer.class);
 
-                        var userData = (HashMap) ois.readObject();
+                    var schedule = DbSchedule.getBillboardSchedule(scheduleId);
 
-                        Integer requestUserId = (Integer) userData.get("userId");
-                        String newPasswordHash = (String) userData.get("newPasswordHash");
+                    returnData.data = schedule;
 
-                        // Note that all users will be able to change their own passwords, though only
-                        // users with "Edit Users" permission can change the passwords of other users.
-                        if (requestUserId != userId) {
-                            if (!permissions.get("editUsers")) {
-                                throw new DBException("Insufficient permissions");
-                            }
-                        }
+                    break;
+                }
 
-                        DbUser.updatePassword(requestUserId, newPasswordHash);
+                case "deleteSchedule": {
+                    AuthContext auth = DbLogin.getAuthContext(token);
+                    int userId = auth.userId;
+                    HashMap<String, Boolean> permissions = auth.permissions;
 
-                        break;
+                    // Permissions required: "Schedule Billboards".
+                    if (!permissions.get("scheduleBillboards")) {
+                        throw new DBException("Insufficient permissions");
                     }
 
-                    case "updateUserPermissions": {
-                        int userId = DbLogin.checkToken(token);
-                        HashMap<String, Boolean> permissions = DbUser.getUserPermissions(userId);
+                    int scheduleId = reader.read(Integer.class);
+
+                    DbSchedule.deleteSchedule(scheduleId);
+
+                    break;
+                }
+
+                case "getUserId": {
+                    int userId = DbLogin.checkToken(token);
+
+                    String username = reader.read(String.class);
+
+                    returnData.data = DbUser.getUserId(username);
+
+                    break;
+                }
+
+                case "getOwnPermissions": {
+                    AuthContext auth = DbLogin.getAuthContext(token);
+                    var userPermissions = new HashMap<String, Boolean>(auth.permissions);
+
+                    // Permissions required: if a user is requesting their own details, none
+
+                    returnData.data = userPermissions;
+
+                    break;
+                }
+
+                case "getPermissions": {
+                    AuthContext auth = DbLogin.getAuthContext(token);
+                    int userId = auth.userId;
+                    HashMap<String, Boolean> permissions = auth.permissions;
 
-                        // Permissions required: "Edit Users".
+                    int requestingUserId = reader.read(Integer.class);
+
+                    // Permissions required: if a user is requesting their own details, none. To get details for other users, "Edit Users" permission is required
+                    if (requestingUserId != userId) {
                         if (!permissions.get("editUsers")) {
                             throw new DBException("Insufficient permissions");
                         }
+                    }
 
-                        var userPermissions = (HashMap) ois.readObject();
+                    // A user's own permissions are already known from their session
+                    var userPermissions = requestingUserId == userId ? new HashMap<String, Boolean>(permissions) : DbUser.getUserPermissions(requestingUserId);
 
-                        Integer requestUserId = (Integer) userPermissions.get("userId");
-                        Boolean editBillboards = (Boolean) userPermissions.get("editBillboards");
-                        Boolean createBillboards = (Boolean) userPermissions.get("createBillboards");
-                        Boolean scheduleBillboards = (Boolean) userPermissions.get("scheduleBillboards");
-                        Boolean editUsers = (Boolean) userPermissions.get("editUsers");
+                    returnData.data = userPermissions;
 
-                        // Note that no user has the ability to remove their own "Edit Users" permission.
-                        if (requestUserId == userId) {
-                            editUsers = true; // can't remove own
-                        }
+                    break;
+                }
 
-                        DbUser.updateUserPermissions(requestUserId, editBillboards, createBillboards,scheduleBillboards, editUsers);
+                case "updatePassword": {
+                    AuthContext auth = DbLogin.getAuthContext(token);
+                    int userId = auth.userId;
+                    HashMap<String, Boolean> permissions = auth.permissions;
 
-                        break;
-                    }
+                    var userData = reader.read(HashMap.class);
 
-                    case "addUser": {
-                        int userId = DbLogin.checkToken(token);
-                        HashMap<String, Boolean> permissions = DbUser.getUserPermissions(userId);
+                    Integer requestUserId = RequestReader.field(userData, "userId", Integer.class);
+                    String newPasswordHash = RequestReader.field(userData, "newPasswordHash", String.class);
 
-                        // Permissions required: "Edit Users".)
+                    // Note that all users will be able to change their own passwords, though only
+                    // users with "Edit Users" permission can change the passwords of other users.
+                    if (requestUserId != userId) {
                         if (!permissions.get("editUsers")) {
                             throw new DBException("Insufficient permissions");
                         }
+                    }
+
+                    DbUser.updatePassword(requestUserId, newPasswordHash);
 
-                        var userData = (HashMap) ois.readObject();
-                        String username = (String) userData.get("username");
-                        String passwordHash = (String) userData.get("passwordHash");
-                        Boolean editBillboards = (Boolean) userData.get("editBillboards");
-                        Boolean createBillboards = (Boolean) userData.get("createBillboards");
-                        Boolean scheduleBillboards = (Boolean) userData.get("scheduleBillboards");
-                        Boolean editUsers = (Boolean) userData.get("editUsers");
+                    break;
+                }
 
-                        DbUser.addUser(username, passwordHash, editBillboards, createBillboards, scheduleBillboards, editUsers);
+                case "updateUserPermissions": {
+                    AuthContext auth = DbLogin.getAuthContext(token);
+                    int userId = auth.userId;
+                    HashMap<String, Boolean> permissions = auth.permissions;
 
-                        break;
+                    // Permissions required: "Edit Users".
+                    if (!permissions.get("editUsers")) {
+                        throw new DBException("Insufficient permissions");
                     }
 
-                    case "deleteUser": {
-                        int userId = DbLogin.checkToken(token);
-                        HashMap<String, Boolean> permissions = DbUser.getUserPermissions(userId);
+                    var userPermissions = reader.read(HashMap.class);
 
-                        // (Permissions required: "Edit Users".
-                        if (!permissions.get("editUsers")) {
-                            throw new DBException("Insufficient permissions");
-                        }
+                    Integer requestUserId = RequestReader.field(userPermissions, "userId", Integer.class);
+                    Boolean editBillboards = RequestReader.field(userPermissions, "editBillboards", Boolean.class);
+                    Boolean createBillboards = RequestReader.field(userPermissions, "createBillboards", Boolean.class);
+                    Boolean scheduleBillboards = RequestReader.field(userPermissions, "scheduleBillboards", Boolean.class);
+                    Boolean editUsers = RequestReader.field(userPermissions, "editUsers", Boolean.class);
 
-                        int deletingId = (int) ois.readObject();
+                    // Note that no user has the ability to remove their own "Edit Users" permission.
+                    if (requestUserId == userId) {
+                        editUsers = true; // can't remove own
+                    }
 
-                        // Note that no user has the ability to remove themselves.)
-                        if (deletingId == userId) {
-                            throw new DBException("Can't delete your own account");
-                        }
+                    DbUser.updateUserPermissions(requestUserId, editBillboards, createBillboards,scheduleBillboards, editUsers);
+
+                    break;
+                }
 
-                        DbUser.deleteUser(deletingId);
+                case "addUser": {
+                    AuthContext auth = DbLogin.getAuthContext(token);
+                    int userId = auth.userId;
+                    HashMap<String, Boolean> permissions = auth.permissions;
 
-                        break;
+                    // Permissions required: "Edit Users".)
+                    if (!permissions.get("editUsers")) {
+                        throw new DBException("Insufficient permissions");
                     }
 
-                    case "loginUser": {
-                        var userData = (HashMap) ois.readObject();
+                    var userData = reader.read(HashMap.class);
+                    String username = RequestReader.field(userData, "username", String.class);
+                    String passwordHash = RequestReader.field(userData, "passwordHash", String.class);
+                    Boolean editBillboards = RequestReader.field(userData, "editBillboards", Boolean.class);
+                    Boolean createBillboards = RequestReader.field(userData, "createBillboards", Boolean.class);
+                    Boolean scheduleBillboards = RequestReader.field(userData, "scheduleBillboards", Boolean.class);
+                    Boolean editUsers = RequestReader.field(userData, "editUsers", Boolean.class);
 
-                        String username = (String) userData.get("username");
-                        String passwordHash = (String) userData.get("passwordHash");
+                    DbUser.addUser(username, passwordHash, editBillboards, createBillboards, scheduleBillboards, editUsers);
 
-                        var data = DbLogin.loginUser(username, passwordHash);
+                    break;
+                }
 
-                        returnData.data = data;
+                case "deleteUser": {
+                    AuthContext auth = DbLogin.getAuthContext(token);
+                    int userId = auth.userId;
+                    HashMap<String, Boolean> permissions = auth.permissions;
 
-                        break;
+                    // (Permissions required: "Edit Users".
+                    if (!permissions.get("editUsers")) {
+                        throw new DBException("Insufficient permissions");
                     }
 
-                    case "checkSession": {
-                        DbLogin.checkToken(token); // If it's not valid then it'll throw an error
+                    int deletingId = reader.read(Integer.class);
 
-                        break;
+                    // Note that no user has the ability to remove themselves.)
+                    if (deletingId == userId) {
+                        throw new DBException("Can't delete your own account");
                     }
 
-                    case "getCurrentBillboard": {
-                        HashMap currentBillboard = DbSchedule.getCurrentBillboard();
+                    DbUser.deleteUser(deletingId);
 
-                        returnData.data = currentBillboard;
+                    break;
+                }
+
+                case "loginUser": {
+                    var userData = reader.read(HashMap.class);
+
+                    String username = RequestReader.field(userData, "username", String.class);
+                    String passwordHash = RequestReader.field(userData, "passwordHash", String.class);
+
+                    var data = DbLogin.loginUser(username, passwordHash);
 
-                        break;
+                    returnData.data = data;
+
+                    break;
+                }
+
+                case "checkSession": {
+                    DbLogin.checkToken(token); // If it's not valid then it'll throw an error
+
+                    break;
+                }
+
+                case "getCurrentBillboard": {
+                    // Sent without data, so older viewers that don't know about channels still work
+                    HashMap currentBillboard = DbSchedule.getCurrentBillboard(null);
+
+                    returnData.data = currentBillboard;
+
+                    break;
+                }
+
+                case "getChannelBillboard": {
+                    // Viewers on a channel send its name
+                    HashMap currentBillboard = DbSchedule.getCurrentBillboard(getChannel(reader.readObject()));
+
+                    returnData.data = currentBillboard;
+
+                    break;
+                }
+
+                case "getCurrentBillboardIfChanged": {
+                    // Either the known hash, or the known hash and the viewer's channel
+                    Object requestData = reader.readObject();
+
+                    String knownHash;
+                    String channel = null;
+                    if (requestData instanceof HashMap) {
+                        knownHash = RequestReader.optionalField((HashMap) requestData, "dataHash", String.class);
+                        channel = getChannel(((HashMap) requestData).get("channel"));
+                    } else if (requestData == null || requestData instanceof String) {
+                        knownHash = (String) requestData;
+                    } else {
+                        throw new DBException("Invalid request");
                     }
 
-                    default: {
-                        throw new DBException("Request type unknown");
+                    HashMap currentBillboard = DbSchedule.getCurrentBillboard(channel);
+
+                    // No data means the viewer already has the current billboard
+                    if (knownHash == null || !knownHash.equals(currentBillboard.get("dataHash"))) {
+                        returnData.data = currentBillboard;
                     }
+
+                    break;
                 }
-            } catch (DBException e) {
-                System.out.println("- Error: " + e.getMessage());
 
-                returnData.error = e.getMessage();
-            } catch (ClassNotFoundException | NoSuchAlgorithmException | PasswordHashException e) {
-                e.printStackTrace();
+                case "getBlob": {
+                    // Pictures are looked up by the hash of their bytes, from a billboard's XML
+                    String hash = reader.read(String.class);
 
-                returnData.error = "Internal server error";
+                    returnData.data = BlobStore.getBlob(hash);
+
+                    break;
+                }
+
+                case "getScheduleWindow": {
+                    HashMap requestData = reader.read(HashMap.class);
+
+                    String channel = getChannel(requestData.get("channel"));
+                    int minutes = RequestReader.field(requestData, "minutes", Integer.class);
+
+                    // Billboards the viewer already has, from an earlier sync
+                    ArrayList<String> knownHashes = RequestReader.optionalList(requestData, "knownHashes", String.class);
+                    HashSet<String> known = knownHashes == null ? new HashSet<String>() : new HashSet<String>(knownHashes);
+
+                    returnData.data = DbSchedule.getScheduleWindow(channel, minutes, known);
+
+                    break;
+                }
+
+                default: {
+                    throw new DBException("Request type unknown");
+                }
             }
+        } catch (DBException e) {
+            System.out.println("- Error: " + e.getMessage());
 
-            // Finalise request
-            oos.writeObject(returnData);
+            returnData.error = e.getMessage();
+        } catch (SQLException | ClassNotFoundException | NoSuchAlgorithmException | PasswordHashException e) {
+            e.printStackTrace();
 
-            oos.flush();
+            returnData.error = "Internal server error";
+        } catch (RuntimeException e) {
+            e.printStackTrace();
 
-            oos.close();
-            ois.close();
-            socket.close();
+            returnData.error = "Internal server error";
         }
+
+        return returnData;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,223 @@
+package billboard.server;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A persistent client connection that many requests are sent over.
+ *
+ * Each request frame is the request ID, request type, token and data object, either Java serialized or in the
+ * {@link BinaryProtocol} format. Requests are handed to the worker pool as they arrive, and each response is
+ * sent back with its request ID as soon as it is ready, so responses can come back in a different order to
+ * the requests.
+ */
+public class ServerSession extends Thread {
+    private static final AtomicInteger openSessions = new AtomicInteger();
+    private static final AtomicInteger sessionCount = new AtomicInteger();
+
+    private final Socket socket;
+    private final ExecutorService executor;
+    private final Object writeLock = new Object();
+
+    // Streams for Java serialized sessions
+    private ObjectInputStream ois = null;
+    private ObjectOutputStream oos = null;
+
+    // Streams for binary sessions
+    private DataInputStream binaryIn = null;
+    private DataOutputStream binaryOut = null;
+
+    /**
+     * Reserves a place for a new session
+     * @param maxSessions - Most sessions that can be open at once
+     * @return Whether there was room for the session
+     */
+    static boolean reserve(int maxSessions) {
+        if (openSessions.incrementAndGet() > maxSessions) {
+            openSessions.decrementAndGet();
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Gives back a place reserved for a session
+     */
+    static void unreserve() {
+        openSessions.decrementAndGet();
+    }
+
+    /**
+     * Creates a Java serialized session for a client connection, a place should already be reserved for it
+     * @param socket - Client socket
+     * @param ois - Socket input stream
+     * @param oos - Socket output stream
+     * @param executor - Executor to handle the session's requests on
+     */
+    ServerSession(Socket socket, ObjectInputStream ois, ObjectOutputStream oos, ExecutorService executor) {
+        this(socket, executor);
+
+        this.ois = ois;
+        this.oos = oos;
+    }
+
+    /**
+     * Creates a binary session for a client connection, a place should already be reserved for it
+     * @param socket - Client socket
+     * @param binaryIn - Socket input stream, after the binary header
+     * @param binaryOut - Socket output stream
+     * @param executor - Executor to handle the session's requests on
+     */
+    ServerSession(Socket socket, DataInputStream binaryIn, DataOutputStream binaryOut, ExecutorService executor) {
+        this(socket, executor);
+
+        this.binaryIn = binaryIn;
+        this.binaryOut = binaryOut;
+    }
+
+    /**
+     * Sets up the session thread
+     * @param socket - Client socket
+     * @param executor - Executor to handle the session's requests on
+     */
+    private ServerSession(Socket socket, ExecutorService executor) {
+        super("server-session-" + sessionCount.incrementAndGet());
+        setDaemon(true);
+
+        this.socket = socket;
+        this.executor = executor;
+    }
+
+    /**
+     * Reads the next request frame
+     * @return Request
+     * @throws IOException if reading fails
+     * @throws ClassNotFoundException if the request data can't be deserialized
+     */
+    private RequestFrame readRequest() throws IOException, ClassNotFoundException {
+        if (binaryIn != null) {
+            return BinaryProtocol.readRequest(binaryIn);
+        }
+
+        int requestId = ois.readInt();
+        String request = ois.readUTF();
+        String token = ois.readUTF();
+        Object data = ois.readObject();
+
+        return new RequestFrame(requestId, request, token, data);
+    }
+
+    /**
+     * Reads request frames until the client closes the connection
+     */
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                RequestFrame frame = readRequest();
+
+                Server.logRequest(frame.request);
+
+                // Sessions are already open by now, so just confirm it
+                if (frame.request.equals("openSession")) {
+                    sendResponse(frame.requestId, new ServerResponse());
+                    continue;
+                }
+
+                try {
+                    executor.execute(() -> handleRequest(frame));
+                } catch (RejectedExecutionException e) {
+                    ServerResponse returnData = new ServerResponse();
+                    returnData.error = "Server busy";
+
+                    sendResponse(frame.requestId, returnData);
+                }
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            // The client closed the session, or it went idle for too long
+        } finally {
+            close();
+            unreserve();
+        }
+    }
+
+    /**
+     * Handles a request from the session on a worker thread
+     * @param frame - Request
+     */
+    private void handleRequest(RequestFrame frame) {
+        try {
+            // Billboard changes get pushed back with the subscription request's ID
+            if (frame.request.equals("subscribeCurrentBillboard")) {
+                Server.subscribe(socket, Server.getChannel(frame.data), false, response -> sendResponse(frame.requestId, response));
+                return;
+            }
+
+            ServerResponse returnData = Server.handleRequest(frame.request, frame.token, () -> frame.data);
+
+            sendResponse(frame.requestId, returnData);
+        } catch (RuntimeException e) {
+            // A request that fails still gets a response, so the client isn't left waiting for its timeout
+            e.printStackTrace();
+
+            ServerResponse returnData = new ServerResponse();
+            returnData.error = "Internal server error";
+
+            try {
+                sendResponse(frame.requestId, returnData);
+            } catch (IOException ex) {
+                close();
+            }
+        } catch (IOException e) {
+            close();
+        } finally {
+            // Give this request's database connection back to the pool
+            DbConnection.release();
+        }
+    }
+
+    /**
+     * Sends a response back to the client
+     * @param requestId - Client's ID for the request
+     * @param returnData - Response to send
+     * @throws IOException if the write fails
+     */
+    private void sendResponse(int requestId, ServerResponse returnData) throws IOException {
+        // Responses can be finished by several workers at once, so only one writes at a time
+        synchronized (writeLock) {
+            ScheduledFuture<?> writeTimeout = Server.startWriteTimeout(socket);
+            try {
+                if (binaryOut != null) {
+                    BinaryProtocol.writeResponse(binaryOut, requestId, returnData);
+                    binaryOut.flush();
+                } else {
+                    oos.writeInt(requestId);
+                    oos.writeObject(returnData);
+
+                    // Don't keep references to every response sent in the stream's handle table
+                    oos.reset();
+
+                    oos.flush();
+                }
+            } finally {
+                writeTimeout.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Closes the session's socket
+     */
+    private void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
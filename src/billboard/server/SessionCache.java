@@ -0,0 +1,183 @@
+package billboard.server;
+
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory cache of login sessions and their users' permissions, so checking a token doesn't need the database
+ */
+public class SessionCache {
+    /**
+     * Helper class for holding a cached session
+     */
+    private static class Session {
+        public int userId;
+        public long expiry;
+        public volatile AuthContext auth; // Null until the permissions have been loaded
+
+        public Session(int userId, long expiry, AuthContext auth) {
+            this.userId = userId;
+            this.expiry = expiry;
+            this.auth = auth;
+        }
+    }
+
+    private static final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<String, Session>();
+
+    // Bumped whenever permissions change, so permissions read before the change aren't cached
+    private static final AtomicLong permissionsGeneration = new AtomicLong();
+
+    private static ScheduledExecutorService sweeper = null;
+
+    /**
+     * Adds a session to the cache
+     * @param sessionKey - Session token
+     * @param userId - User ID the session belongs to
+     * @param expiry - Time the session expires (ms since the epoch)
+     */
+    public static void put(String sessionKey, int userId, long expiry) {
+        sessions.put(sessionKey, new Session(userId, expiry, null));
+    }
+
+    /**
+     * Adds a session to the cache along with its user's permissions
+     * @param sessionKey - Session token
+     * @param expiry - Time the session expires (ms since the epoch)
+     * @param auth - User ID and permissions for the session
+     * @param generation - Permissions generation from before the session was read
+     */
+    public static void put(String sessionKey, long expiry, AuthContext auth, long generation) {
+        // If permissions or users changed while this was being read it may be out of date, so don't cache it
+        if (generation != permissionsGeneration.get()) {
+            return;
+        }
+
+        Session session = new Session(auth.userId, expiry, auth);
+        sessions.put(sessionKey, session);
+
+        // Permissions may have changed between the check and the put, after the change had already gone through
+        // the cached sessions, so check again and take it back out if they did
+        if (generation != permissionsGeneration.get()) {
+            sessions.remove(sessionKey, session);
+        }
+    }
+
+    /**
+     * Gets the current permissions generation, to pass to {@link #put(String, long, AuthContext, long)}
+     * @return Permissions generation
+     */
+    public static long getPermissionsGeneration() {
+        return permissionsGeneration.get();
+    }
+
+    /**
+     * Gets the user ID for a cached session
+     * @param sessionKey - Session token
+     * @return User ID, or null if the session isn't cached or has expired
+     */
+    public static Integer getUserId(String sessionKey) {
+        Session session = sessions.get(sessionKey);
+        if (session == null) {
+            return null;
+        }
+
+        if (session.expiry < System.currentTimeMillis()) {
+            sessions.remove(sessionKey, session);
+            return null;
+        }
+
+        return session.userId;
+    }
+
+    /**
+     * Gets the user ID and permissions for a cached session
+     * @param sessionKey - Session token
+     * @return Auth context, or null if the session or its permissions aren't cached, or it has expired
+     */
+    public static AuthContext getAuthContext(String sessionKey) {
+        Session session = sessions.get(sessionKey);
+        if (session == null) {
+            return null;
+        }
+
+        if (session.expiry < System.currentTimeMillis()) {
+            sessions.remove(sessionKey, session);
+            return null;
+        }
+
+        return session.auth;
+    }
+
+    /**
+     * Forgets the cached permissions for a user's sessions, they will be read again on the next request
+     * @param userId - User ID whose permissions changed
+     */
+    public static void invalidateUser(int userId) {
+        permissionsGeneration.incrementAndGet();
+
+        for (Session session : sessions.values()) {
+            if (session.userId == userId) {
+                session.auth = null;
+            }
+        }
+    }
+
+    /**
+     * Removes all of a user's sessions from the cache
+     * @param userId - User ID to remove sessions for
+     */
+    public static void removeUser(int userId) {
+        permissionsGeneration.incrementAndGet();
+
+        sessions.values().removeIf(session -> session.userId == userId);
+    }
+
+    /**
+     * Removes a session from the cache
+     * @param sessionKey - Session token
+     */
+    public static void remove(String sessionKey) {
+        sessions.remove(sessionKey);
+    }
+
+    /**
+     * Removes expired sessions from the cache
+     */
+    public static void evictExpired() {
+        long now = System.currentTimeMillis();
+
+        sessions.values().removeIf(session -> session.expiry < now);
+    }
+
+    /**
+     * Starts the background thread that clears out expired sessions, from both the cache and the database
+     * @param intervalMs - Time between sweeps
+     */
+    public static synchronized void startSweeper(long intervalMs) {
+        if (sweeper != null) {
+            return;
+        }
+
+        sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "session-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        sweeper.scheduleWithFixedDelay(() -> {
+            evictExpired();
+
+            try {
+                DbLogin.deleteOldTokens();
+            } catch (SQLException e) {
+                System.out.println("- Error: Failed to delete expired sessions: " + e.getMessage());
+            } finally {
+                DbConnection.release();
+            }
+        }, 0, intervalMs, TimeUnit.MILLISECONDS);
+    }
+}
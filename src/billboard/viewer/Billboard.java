@@ -18,6 +18,7 @@ import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 import java.awt.*;
+import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.io.StringReader;
 import java.io.StringWriter;
@@ -63,7 +64,8 @@ public class Billboard extends JFrame {
     }
 
     /**
-     * Scales an image to fit inside bounds
+     * Scales an image to fit inside bounds. The scaled image is drawn straight away (rather than with
+     * getScaledInstance, which scales when it's first painted), so this can be done off the event dispatch thread
      * @param icon - Image
      * @param bounds - Bounds to scale image to fit inside
      * @return ImageIcon
@@ -77,21 +79,40 @@ public class Billboard extends JFrame {
             newWidth = (icon.getIconWidth() * newHeight) / icon.getIconHeight();
         }
 
-        return new ImageIcon(icon.getImage().getScaledInstance(newWidth, newHeight, Image.SCALE_DEFAULT));
+        BufferedImage scaled = new BufferedImage(Math.max(newWidth, 1), Math.max(newHeight, 1), BufferedImage.TYPE_INT_ARGB);
+
+        Graphics2D graphics = scaled.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        graphics.drawImage(icon.getImage(), 0, 0, scaled.getWidth(), scaled.getHeight(), null);
+        graphics.dispose();
+
+        return new ImageIcon(scaled);
+    }
+
+    /**
+     * Scales an image to fit inside bounds, drawing the scaled image straight away
+     * @param image - Image
+     * @param bounds - Bounds to scale image to fit inside
+     * @return Scaled image
+     */
+    public static BufferedImage ScaleImage(BufferedImage image, Dimension bounds) {
+        return (BufferedImage) ScaleImage(new ImageIcon(image), bounds).getImage();
     }
 
     /**
      * Adds an element with options for placement in the grid
+     * @param content
      * @param element
      * @param gbc
      * @param row
      * @param weighty
      */
-    private void AddElement(JComponent element, GridBagConstraints gbc, int row, double weighty) {
+    private static void AddElement(JPanel content, JComponent element, GridBagConstraints gbc, int row, double weighty) {
         gbc.gridy = row;
         gbc.weighty = weighty;
 
-        add(element, gbc);
+        content.add(element, gbc);
     }
 
     /**
@@ -146,8 +167,18 @@ public class Billboard extends JFrame {
      * @throws IOException if loading the picture fails
      */
     public void LoadFromXML(Document doc) throws IOException {
-        // Reset the billboard elements
-        elements = new BillboardElements();
+        elements = ParseElements(doc);
+    }
+
+    /**
+     * Reads billboard elements from an XML file, without changing the billboard. Pictures are downloaded or
+     * decoded here, so this can take a while
+     * @param doc - XML Document
+     * @return Billboard elements
+     * @throws IOException if loading the picture fails
+     */
+    public static BillboardElements ParseElements(Document doc) throws IOException {
+        BillboardElements elements = new BillboardElements();
 
         Element root = doc.getDocumentElement();
         root.normalize();
@@ -184,6 +215,8 @@ public class Billboard extends JFrame {
                 }
             }
         }
+
+        return elements;
     }
 
     /**
@@ -259,17 +292,25 @@ public class Billboard extends JFrame {
      * Draws the billboard using the stored elements
      */
     public void DrawBillboard() {
-        Initialise();
+        ShowContent(CreateContent(elements));
+    }
 
+    /**
+     * Lays out billboard elements into a new panel, ready to be swapped in with {@link #ShowContent}. The panel
+     * isn't shown yet, so this can be done off the event dispatch thread
+     * @param elements - Billboard elements
+     * @return Billboard content
+     */
+    public JPanel CreateContent(BillboardElements elements) {
         // Set layout (centered)
-        setLayout(new GridBagLayout());
+        JPanel content = new JPanel(new GridBagLayout());
         GridBagConstraints gbc = new GridBagConstraints();
         gbc.fill = GridBagConstraints.BOTH;
         gbc.weightx = 1;
         gbc.weighty = 1;
 
         // Set background colour
-        getContentPane().setBackground(elements.backgroundColour);
+        content.setBackground(elements.backgroundColour);
 
         // One element visible
         if (elements.message.Valid() && !elements.information.Valid() && !elements.picture.Valid()) {
@@ -278,7 +319,7 @@ public class Billboard extends JFrame {
 
             JLabel label = elements.message.Create(billboardSize);
 
-            add(label, gbc);
+            content.add(label, gbc);
         }
         else if (!elements.message.Valid() && elements.information.Valid() && !elements.picture.Valid()) {
             // Information only
@@ -287,7 +328,7 @@ public class Billboard extends JFrame {
             Dimension bounds = new Dimension((int)(billboardSize.width * 0.75f), (int)(billboardSize.height * 0.5f));
             JLabel label = elements.information.Create(bounds);
 
-            add(label, gbc);
+            content.add(label, gbc);
         }
         else if (!elements.message.Valid() && !elements.information.Valid() && elements.picture.Valid()) {
             // Picture only
@@ -296,7 +337,7 @@ public class Billboard extends JFrame {
             Dimension bounds = new Dimension((int)(billboardSize.width * 0.5f), (int)(billboardSize.height * 0.5f));
             JLabel label = elements.picture.Create(bounds);
 
-            add(label, gbc);
+            content.add(label, gbc);
         }
 
         // Two elements visible
@@ -310,8 +351,8 @@ public class Billboard extends JFrame {
             Dimension informationBounds = new Dimension((int)(billboardSize.width * 0.75f), (int)(billboardSize.height * 0.5f));
             JLabel informationLabel = elements.information.Create(informationBounds);
 
-            AddElement(messageLabel, gbc, 0, 1);
-            AddElement(informationLabel, gbc, 1, 1);
+            AddElement(content, messageLabel, gbc, 0, 1);
+            AddElement(content, informationLabel, gbc, 1, 1);
         }
         else if (elements.message.Valid() && !elements.information.Valid() && elements.picture.Valid()) {
             // Message and picture
@@ -324,8 +365,8 @@ public class Billboard extends JFrame {
             Dimension pictureBounds = new Dimension((int)(billboardSize.width * 0.5f), (int)(billboardSize.height * 0.5f));
             JLabel pictureLabel = elements.picture.Create(pictureBounds);
 
-            AddElement(messageLabel, gbc, 0, 1);
-            AddElement(pictureLabel, gbc, 1, 2);
+            AddElement(content, messageLabel, gbc, 0, 1);
+            AddElement(content, pictureLabel, gbc, 1, 2);
         }
         else if (!elements.message.Valid() && elements.information.Valid() && elements.picture.Valid()) {
             // Information and picture
@@ -338,8 +379,8 @@ public class Billboard extends JFrame {
             Dimension pictureBounds = new Dimension((int)(billboardSize.width * 0.5f), (int)(billboardSize.height * 0.5f));
             JLabel pictureLabel = elements.picture.Create(pictureBounds);
 
-            AddElement(pictureLabel, gbc, 0, 2);
-            AddElement(informationLabel, gbc, 1, 1);
+            AddElement(content, pictureLabel, gbc, 0, 2);
+            AddElement(content, informationLabel, gbc, 1, 1);
         }
 
         // Three elements visible
@@ -358,48 +399,53 @@ public class Billboard extends JFrame {
             Dimension informationBounds = new Dimension((int)(billboardSize.width * 0.75f), (int)(billboardSize.height * 1/3));
             JLabel informationLabel = elements.information.Create(informationBounds);
 
-            AddElement(messageLabel, gbc, 0, 1);
-            AddElement(pictureLabel, gbc, 1, 1);
-            AddElement(informationLabel, gbc, 2, 1);
+            AddElement(content, messageLabel, gbc, 0, 1);
+            AddElement(content, pictureLabel, gbc, 1, 1);
+            AddElement(content, informationLabel, gbc, 2, 1);
         }
 
-        Finalise();
+        return content;
     }
 
     /**
      * Shows the error billboard
      */
     public void ShowErrorBillboard(){
-        Initialise();
+        ShowContent(CreateErrorContent());
+    }
 
+    /**
+     * Lays out the error billboard into a new panel, ready to be swapped in with {@link #ShowContent}
+     * @return Error billboard content
+     */
+    public static JPanel CreateErrorContent() {
         // Set layout (centered)
-        setLayout(new GridBagLayout());
+        JPanel content = new JPanel(new GridBagLayout());
         GridBagConstraints gbc = new GridBagConstraints();
         gbc.gridwidth = GridBagConstraints.REMAINDER;
 
         // Add error screen content
         JLabel titleLabel = new JLabel("Error");
         titleLabel.setFont(new Font("Default", Font.BOLD, 30));
-        add(titleLabel, gbc);
+        content.add(titleLabel, gbc);
 
         JLabel label = new JLabel("Failed to get current billboard");
         label.setFont(new Font("Default", Font.PLAIN, 18));
-        add(label, gbc);
+        content.add(label, gbc);
 
-        Finalise();
+        return content;
     }
 
     /**
-     * Initialises the billboard for drawing
+     * Swaps in laid out billboard content in one go, so the old billboard is never shown half cleared.
+     * Must be called on the event dispatch thread
+     * @param content - Content from {@link #CreateContent} or {@link #CreateErrorContent}
      */
-    private void Initialise() {
-        getContentPane().removeAll();
-    }
+    public void ShowContent(JPanel content) {
+        setContentPane(content);
+        revalidate();
+        repaint();
 
-    /**
-     * Finalises the billboard drawing
-     */
-    private void Finalise() {
         setVisible(true); // Update JFrame
     }
 
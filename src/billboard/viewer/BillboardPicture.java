@@ -10,6 +10,7 @@ import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URL;
 import java.util.Base64;
 
@@ -18,6 +19,8 @@ public class BillboardPicture implements BillboardElement {
     private boolean loaded;
     private String url;
     private String data;
+    private String blob; // Hash of the picture in the server's blob store
+    private String cacheKey; // Key in the image cache, null if the picture isn't cached
 
     /**
      * Creates the billboard picture GUI element
@@ -25,7 +28,15 @@ public class BillboardPicture implements BillboardElement {
      * @return Created JLabel
      */
     public JLabel Create(Dimension bounds) {
-        JLabel label = new JLabel(Billboard.ScaleImage(new ImageIcon(image), bounds), SwingConstants.CENTER);
+        ImageIcon icon;
+        if (cacheKey != null) {
+            // Picture is only scaled the first time it's shown at this size
+            icon = new ImageIcon(ImageCache.getScaled(cacheKey, bounds, () -> Billboard.ScaleImage(image, bounds)));
+        } else {
+            icon = Billboard.ScaleImage(new ImageIcon(image), bounds);
+        }
+
+        JLabel label = new JLabel(icon, SwingConstants.CENTER);
 
         return label;
     }
@@ -48,8 +59,13 @@ public class BillboardPicture implements BillboardElement {
 
         if (this.url != null) { // URL image
             e.setAttribute("url", this.url);
-        } else if (this.data != null) { // Base64 image
-            e.setAttribute("data", this.data);
+        } else if (this.data != null || this.blob != null) { // Base64 image
+            // Blob store images are written out as base64 too, so exported XML stands on its own
+            try {
+                e.setAttribute("data", loadData());
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
         }
 
         return e;
@@ -63,16 +79,24 @@ public class BillboardPicture implements BillboardElement {
     public BillboardPicture(Element element) throws IOException {
         String url = element.getAttribute("url");
         String data = element.getAttribute("data");
-
-        if (url != "") {
+        String blob = element.getAttribute("blob");
+
+        // Pictures come from the image cache, so showing a billboard again doesn't download or decode them again
+        if (!blob.isEmpty()) {
+            // Load image from the server's blob store
+            this.cacheKey = "blob:" + blob;
+            this.image = ImageCache.getDecoded(cacheKey, () -> ImageIO.read(new ByteArrayInputStream(BlobCache.get(blob))));
+            this.blob = blob;
+        } else if (url != "") {
             // Load image from URL
             URL urlObject = new URL(url);
-            this.image = ImageIO.read(urlObject);
+            this.cacheKey = ImageCache.keyForURL(url);
+            this.image = ImageCache.getDecoded(cacheKey, () -> ImageIO.read(urlObject));
             this.url = url;
         } else {
             // Load image from base64
-            byte[] btDataFile = Base64.getDecoder().decode(data);
-            this.image = ImageIO.read(new ByteArrayInputStream(btDataFile));
+            this.cacheKey = ImageCache.keyForData(data);
+            this.image = ImageCache.getDecoded(cacheKey, () -> ImageIO.read(new ByteArrayInputStream(Base64.getDecoder().decode(data))));
             this.data = data;
         }
 
@@ -129,6 +153,25 @@ public class BillboardPicture implements BillboardElement {
      * @return Image data
      */
     public String getData() {
+        try {
+            return loadData();
+        } catch (IOException e) {
+            e.printStackTrace();
+
+            return null;
+        }
+    }
+
+    /**
+     * Gets the image's base64 data, downloading it from the server's blob store the first time for blob store images
+     * @return Image data, or null if it isn't a base64 or blob store image
+     * @throws IOException if downloading the image fails
+     */
+    private String loadData() throws IOException {
+        if (this.data == null && this.blob != null) {
+            this.data = Base64.getEncoder().encodeToString(BlobCache.get(this.blob));
+        }
+
         return data;
     }
 }
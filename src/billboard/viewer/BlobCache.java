@@ -0,0 +1,134 @@
+package billboard.viewer;
+
+import billboard.controlpanel.BillboardServerException;
+import billboard.controlpanel.ServerBillboards;
+import billboard.server.PasswordHash;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+/**
+ * On-disk cache of billboard pictures from the server's blob store, so each picture is only downloaded once.
+ *
+ * Pictures are stored in files named by their hash, and as a picture's hash is the hash of its bytes a stored file
+ * never goes out of date. The least recently used files are deleted once the cache goes over client.blobCacheMb.
+ */
+public class BlobCache {
+    private static final long DEFAULT_BUDGET_BYTES = 256L * 1024 * 1024;
+
+    // Settings, loaded from server.props
+    private static boolean propsLoaded = false;
+    private static Path directory = Paths.get("blob-cache");
+    private static long budgetBytes = DEFAULT_BUDGET_BYTES;
+
+    /**
+     * Loads the blob cache settings from server.props, the first time they are needed
+     */
+    private static synchronized void loadProps() {
+        if (propsLoaded) {
+            return;
+        }
+
+        propsLoaded = true;
+
+        Properties props = new Properties();
+        try (FileInputStream in = new FileInputStream("resources/server.props")) {
+            props.load(in);
+
+            directory = Paths.get(props.getProperty("client.blobCacheDir", directory.toString()));
+            budgetBytes = Long.parseLong(props.getProperty("client.blobCacheMb", String.valueOf(DEFAULT_BUDGET_BYTES / 1024 / 1024))) * 1024 * 1024;
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Gets a picture, downloading it from the server if it isn't stored yet
+     * @param hash - Picture's hash
+     * @return Picture bytes
+     * @throws IOException if the picture can't be read or downloaded
+     */
+    public static byte[] get(String hash) throws IOException {
+        loadProps();
+
+        if (!isValidHash(hash)) {
+            throw new IOException("Invalid picture hash");
+        }
+
+        Path file = directory.resolve(hash);
+        try {
+            byte[] bytes = Files.readAllBytes(file);
+
+            // Mark it as recently used
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+
+            return bytes;
+        } catch (NoSuchFileException e) {
+            // Not downloaded yet
+        }
+
+        byte[] bytes;
+        try {
+            bytes = ServerBillboards.getBlob(hash);
+        } catch (BillboardServerException e) {
+            throw new IOException("Failed to download picture: " + e.getMessage(), e);
+        }
+
+        if (!PasswordHash.hashContent(bytes).equals(hash)) {
+            throw new IOException("Downloaded picture doesn't match its hash");
+        }
+
+        Files.createDirectories(directory);
+        OfflineCache.write(file, bytes);
+        trim();
+
+        return bytes;
+    }
+
+    /**
+     * Deletes the least recently used pictures until the cache fits in its budget
+     * @throws IOException if listing the cache fails
+     */
+    private static synchronized void trim() throws IOException {
+        ArrayList<Path> files = new ArrayList<Path>();
+        long totalBytes = 0;
+
+        try (Stream<Path> listing = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) listing::iterator) {
+                if (isValidHash(file.getFileName().toString())) {
+                    files.add(file);
+                    totalBytes += Files.size(file);
+                }
+            }
+        }
+
+        if (totalBytes <= budgetBytes) {
+            return;
+        }
+
+        files.sort(Comparator.comparingLong(file -> file.toFile().lastModified()));
+        for (Path file : files) {
+            if (totalBytes <= budgetBytes) {
+                break;
+            }
+
+            totalBytes -= Files.size(file);
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Checks a picture hash is safe to use as a file name
+     * @param hash - Picture hash
+     * @return Whether it is a hex SHA-256 hash
+     */
+    private static boolean isValidHash(String hash) {
+        return hash != null && hash.length() == 64 && hash.chars().allMatch(c -> Character.digit(c, 16) >= 0);
+    }
+}
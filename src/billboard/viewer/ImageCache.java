@@ -0,0 +1,184 @@
+package billboard.viewer;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.function.Supplier;
+
+/**
+ * In-memory cache of decoded and scaled billboard pictures, so a billboard shown again doesn't download, decode or
+ * scale its picture again.
+ *
+ * Decoded pictures are stored by their source (the URL, or a hash of the base64 data) and scaled ones by their
+ * source and the bounds they were scaled to. Both share one least recently used list, and the oldest pictures are
+ * thrown away once the total size of the images goes over the budget set by client.imageCacheMb in server.props.
+ */
+public class ImageCache {
+    /**
+     * Loads an image on a cache miss
+     */
+    public interface Loader {
+        BufferedImage load() throws IOException;
+    }
+
+    private static final long DEFAULT_BUDGET_BYTES = 128L * 1024 * 1024;
+
+    // Least recently used first
+    private static final LinkedHashMap<String, BufferedImage> images = new LinkedHashMap<String, BufferedImage>(16, 0.75f, true);
+
+    private static long totalBytes = 0;
+    private static long budgetBytes = -1; // Loaded from server.props the first time it is needed
+
+    /**
+     * Gets the cache key for a picture from a URL
+     * @param url - Picture URL
+     * @return Cache key
+     */
+    public static String keyForURL(String url) {
+        return "url:" + url;
+    }
+
+    /**
+     * Gets the cache key for a picture from base64 data, which is a hash of the data rather than the data itself
+     * @param data - Base64 picture data
+     * @return Cache key
+     */
+    public static String keyForData(String data) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+
+            return "data:" + Base64.getEncoder().encodeToString(md.digest(data.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 unavailable", e);
+        }
+    }
+
+    /**
+     * Gets a decoded picture, loading it if it isn't cached
+     * @param key - Picture's cache key
+     * @param loader - Downloads or decodes the picture
+     * @return Decoded picture, or null if it couldn't be read as an image
+     * @throws IOException if loading the picture fails
+     */
+    public static BufferedImage getDecoded(String key, Loader loader) throws IOException {
+        return get(key, loader);
+    }
+
+    /**
+     * Gets a picture scaled to fit inside bounds, scaling it if it isn't cached
+     * @param key - Picture's cache key
+     * @param bounds - Bounds the picture was scaled to fit inside
+     * @param scaler - Scales the picture
+     * @return Scaled picture
+     */
+    public static BufferedImage getScaled(String key, Dimension bounds, Supplier<BufferedImage> scaler) {
+        try {
+            return get(key + "@" + bounds.width + "x" + bounds.height, scaler::get);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // Scaling doesn't do any IO
+        }
+    }
+
+    /**
+     * Gets an image, loading and caching it if it isn't cached. Loading happens outside the lock, so two threads
+     * can load the same image at once, but a slow download never holds up other lookups
+     * @param key - Cache key
+     * @param loader - Loads the image
+     * @return Image, or null if the loader gave none
+     * @throws IOException if loading the image fails
+     */
+    private static BufferedImage get(String key, Loader loader) throws IOException {
+        synchronized (images) {
+            BufferedImage image = images.get(key);
+            if (image != null) {
+                return image;
+            }
+        }
+
+        BufferedImage image = loader.load();
+        if (image != null) {
+            put(key, image);
+        }
+
+        return image;
+    }
+
+    /**
+     * Adds an image to the cache, throwing away the least recently used images until it fits in the budget
+     * @param key - Cache key
+     * @param image - Image to add
+     */
+    private static void put(String key, BufferedImage image) {
+        long size = sizeOf(image);
+
+        synchronized (images) {
+            long budget = getBudget();
+            if (size > budget) {
+                return; // Would push everything else out
+            }
+
+            BufferedImage previous = images.put(key, image);
+            if (previous != null) {
+                totalBytes -= sizeOf(previous);
+            }
+            totalBytes += size;
+
+            Iterator<Map.Entry<String, BufferedImage>> oldest = images.entrySet().iterator();
+            while (totalBytes > budget && oldest.hasNext()) {
+                Map.Entry<String, BufferedImage> entry = oldest.next();
+                if (entry.getKey().equals(key)) {
+                    continue;
+                }
+
+                totalBytes -= sizeOf(entry.getValue());
+                oldest.remove();
+            }
+        }
+    }
+
+    /**
+     * Gets how much memory an image's pixels take up
+     * @param image - Image
+     * @return Size in bytes
+     */
+    private static long sizeOf(BufferedImage image) {
+        DataBuffer buffer = image.getRaster().getDataBuffer();
+
+        return (long) buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+    }
+
+    /**
+     * Gets the cache's budget, loading it from server.props the first time
+     * @return Budget in bytes
+     */
+    private static long getBudget() {
+        if (budgetBytes < 0) {
+            budgetBytes = DEFAULT_BUDGET_BYTES;
+
+            Properties props = new Properties();
+            try (FileInputStream in = new FileInputStream("resources/server.props")) {
+                props.load(in);
+
+                String megabytes = props.getProperty("client.imageCacheMb");
+                if (megabytes != null) {
+                    budgetBytes = Long.parseLong(megabytes.trim()) * 1024 * 1024;
+                }
+            } catch (IOException | NumberFormatException e) {
+                e.printStackTrace();
+            }
+        }
+
+        return budgetBytes;
+    }
+}
@@ -1,17 +1,38 @@
 package billboard.viewer;
 
+import billboard.controlpanel.BillboardServerException;
+import billboard.controlpanel.ServerConnection;
+
+import java.io.IOException;
+
 /**
  * Main class for running the billboard viewer
  */
 public class Main {
     /**
-     * Runs the billboard viewer, updating every 15 seconds
+     * Runs the billboard viewer, having the server push billboard changes if it can, otherwise updating every 15 seconds
      * @param args - Main args
      */
     public static void main(String[] args) {
         Viewer viewer = new Viewer();
 
+        boolean subscribe = ServerConnection.isSubscribeEnabled();
+
         while (viewer.open) {
+            if (subscribe) {
+                try {
+                    // Only returns once the connection drops
+                    viewer.SubscribeBillboard();
+                } catch (BillboardServerException e) {
+                    // The server won't push changes, so stick to polling
+                    System.out.println("Subscription unavailable: " + e.getMessage());
+                    subscribe = false;
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+
+            // Poll until the subscription can be tried again
             viewer.UpdateBillboard();
 
             final int secondsGap = 15;
@@ -22,4 +43,4 @@ public class Main {
             }
         }
     }
-}
+}
\ No newline at end of file
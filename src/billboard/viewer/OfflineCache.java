@@ -0,0 +1,325 @@
+package billboard.viewer;
+
+import billboard.controlpanel.BillboardServerException;
+import billboard.controlpanel.ServerSchedules;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * On-disk copy of what the viewer's channel will show over the coming hours, so the viewer can keep showing the
+ * right billboards while it can't reach the server.
+ *
+ * The schedule window is stored as a list of showings (start, end and data hash of each billboard), and each
+ * billboard's data in its own file named by its data hash. Syncing sends the server the hashes already stored,
+ * so only billboards the viewer hasn't seen before are downloaded again. Files are written to a temporary file
+ * and moved into place, so a viewer losing power mid-sync still has the last complete copy.
+ */
+public class OfflineCache {
+    /**
+     * Helper class for one billboard showing in the stored window
+     */
+    private static class Showing {
+        public final long start; // ms since the epoch
+        public final long end;
+        public final String dataHash;
+
+        public Showing(long start, long end, String dataHash) {
+            this.start = start;
+            this.end = end;
+            this.dataHash = dataHash;
+        }
+    }
+
+    private static final int WINDOW_FILE_VERSION = 1;
+
+    // Picture references in billboard XML
+    private static final Pattern BLOB_REFERENCE = Pattern.compile("blob=\"([0-9a-f]{64})\"");
+
+    // Settings, loaded from server.props
+    private static boolean propsLoaded = false;
+    private static boolean enabled = true;
+    private static Path directory = Paths.get("offline-cache");
+    private static int windowMinutes = 24 * 60;
+    private static int syncMinutes = 15;
+    private static int prefetchMinutes = 10;
+
+    // Stored window, newest sync. Replaced rather than changed, so it can be read without locking
+    private static volatile ArrayList<Showing> showings = new ArrayList<Showing>();
+
+    /**
+     * Loads the offline cache settings from server.props, the first time they are needed
+     */
+    private static synchronized void loadProps() {
+        if (propsLoaded) {
+            return;
+        }
+
+        propsLoaded = true;
+
+        Properties props = new Properties();
+        try (FileInputStream in = new FileInputStream("resources/server.props")) {
+            props.load(in);
+
+            enabled = Boolean.parseBoolean(props.getProperty("client.offlineCache", String.valueOf(enabled)));
+            directory = Paths.get(props.getProperty("client.offlineCacheDir", directory.toString()));
+            windowMinutes = Integer.parseInt(props.getProperty("client.offlineWindowMinutes", String.valueOf(windowMinutes)));
+            syncMinutes = Integer.parseInt(props.getProperty("client.offlineSyncMinutes", String.valueOf(syncMinutes)));
+            prefetchMinutes = Integer.parseInt(props.getProperty("client.prefetchMinutes", String.valueOf(prefetchMinutes)));
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Gets whether the viewer keeps an offline copy of its schedule
+     * @return Whether the offline cache is used
+     */
+    public static boolean isEnabled() {
+        loadProps();
+
+        return enabled;
+    }
+
+    /**
+     * Gets how often the stored window is synced with the server
+     * @return Minutes between syncs
+     */
+    public static int getSyncMinutes() {
+        loadProps();
+
+        return Math.max(syncMinutes, 1);
+    }
+
+    /**
+     * Gets how far ahead upcoming billboards are prepared before they show
+     * @return Minutes ahead, 0 if they aren't prepared
+     */
+    public static int getPrefetchMinutes() {
+        loadProps();
+
+        return Math.max(prefetchMinutes, 0);
+    }
+
+    /**
+     * Loads the window stored by an earlier run of the viewer, if there is one
+     */
+    public static synchronized void load() {
+        loadProps();
+
+        Path windowFile = directory.resolve("window.dat");
+        if (!Files.exists(windowFile)) {
+            return;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(windowFile)))) {
+            if (in.readInt() != WINDOW_FILE_VERSION) {
+                return; // Written by a different version, it'll be replaced on the next sync
+            }
+
+            int count = in.readInt();
+
+            ArrayList<Showing> loaded = new ArrayList<Showing>(count);
+            for (int i = 0; i < count; i++) {
+                loaded.add(new Showing(in.readLong(), in.readLong(), in.readUTF()));
+            }
+
+            showings = loaded;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Fetches the coming schedule window from the server and stores it, only downloading billboards that aren't
+     * already stored. Billboards no longer in the window are deleted
+     * @param channel - Channel the viewer is on, or null if it isn't on one
+     * @throws IOException if writing to the cache fails
+     * @throws BillboardServerException if the server can't be reached or sends back an error
+     */
+    public static synchronized void sync(String channel) throws IOException, BillboardServerException {
+        loadProps();
+
+        Path billboardDirectory = directory.resolve("billboards");
+        Files.createDirectories(billboardDirectory);
+
+        HashSet<String> stored = getStoredHashes(billboardDirectory);
+
+        HashMap window = ServerSchedules.getScheduleWindow(channel, windowMinutes, stored);
+
+        // Store the new billboards before the window that refers to them
+        HashMap<String, String> billboards = (HashMap<String, String>) window.get("billboards");
+        for (var entry : billboards.entrySet()) {
+            if (isValidHash(entry.getKey())) {
+                write(billboardDirectory.resolve(entry.getKey() + ".xml"), entry.getValue().getBytes(StandardCharsets.UTF_8));
+                stored.add(entry.getKey());
+
+                downloadPictures(entry.getValue());
+            }
+        }
+
+        ArrayList<Showing> synced = new ArrayList<Showing>();
+        for (HashMap showing : (ArrayList<HashMap>) window.get("showings")) {
+            String dataHash = (String) showing.get("dataHash");
+            if (stored.contains(dataHash)) {
+                synced.add(new Showing((long) showing.get("start"), (long) showing.get("end"), dataHash));
+            }
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(WINDOW_FILE_VERSION);
+        out.writeInt(synced.size());
+        for (Showing showing : synced) {
+            out.writeLong(showing.start);
+            out.writeLong(showing.end);
+            out.writeUTF(showing.dataHash);
+        }
+        out.flush();
+
+        write(directory.resolve("window.dat"), bytes.toByteArray());
+
+        showings = synced;
+
+        // Clear out billboards that aren't showing any more
+        HashSet<String> needed = new HashSet<String>();
+        for (Showing showing : synced) {
+            needed.add(showing.dataHash);
+        }
+
+        for (String dataHash : stored) {
+            if (!needed.contains(dataHash)) {
+                Files.deleteIfExists(billboardDirectory.resolve(dataHash + ".xml"));
+            }
+        }
+    }
+
+    /**
+     * Downloads the pictures a billboard refers to into the blob cache, so it can still be drawn while the server
+     * can't be reached
+     * @param billboardData - Billboard XML
+     */
+    private static void downloadPictures(String billboardData) {
+        Matcher blob = BLOB_REFERENCE.matcher(billboardData);
+        while (blob.find()) {
+            try {
+                BlobCache.get(blob.group(1));
+            } catch (IOException e) {
+                System.out.println("Failed to download picture " + blob.group(1) + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Gets the billboard the stored window says is showing at a time
+     * @param time - Time to check (ms since the epoch)
+     * @return HashMap containing the billboard's data and data hash, or null if the time isn't in the stored window
+     */
+    public static HashMap getBillboardAt(long time) {
+        for (Showing showing : showings) {
+            if (showing.start <= time && time < showing.end) {
+                return readBillboard(showing);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Gets the billboards the stored window says will start showing within a range of time
+     * @param from - Start of the range (ms since the epoch, exclusive)
+     * @param to - End of the range
+     * @return HashMaps containing each billboard's data, data hash and the time it starts showing, in order
+     */
+    public static ArrayList<HashMap> getUpcoming(long from, long to) {
+        ArrayList<HashMap> upcoming = new ArrayList<HashMap>();
+
+        for (Showing showing : showings) {
+            if (showing.start > from && showing.start <= to) {
+                HashMap billboard = readBillboard(showing);
+                if (billboard != null) {
+                    billboard.put("start", showing.start);
+                    upcoming.add(billboard);
+                }
+            }
+        }
+
+        return upcoming;
+    }
+
+    /**
+     * Reads a showing's billboard from disk
+     * @param showing - Showing in the stored window
+     * @return HashMap containing the billboard's data and data hash, or null if it couldn't be read
+     */
+    private static HashMap readBillboard(Showing showing) {
+        try {
+            byte[] data = Files.readAllBytes(directory.resolve("billboards").resolve(showing.dataHash + ".xml"));
+
+            HashMap billboard = new HashMap();
+            billboard.put("data", new String(data, StandardCharsets.UTF_8));
+            billboard.put("dataHash", showing.dataHash);
+
+            return billboard;
+        } catch (IOException e) {
+            e.printStackTrace();
+
+            return null;
+        }
+    }
+
+    /**
+     * Gets the data hashes of the billboards stored on disk
+     * @param billboardDirectory - Directory the billboards are stored in
+     * @return Stored data hashes
+     * @throws IOException if listing the directory fails
+     */
+    private static HashSet<String> getStoredHashes(Path billboardDirectory) throws IOException {
+        HashSet<String> stored = new HashSet<String>();
+
+        try (Stream<Path> files = Files.list(billboardDirectory)) {
+            files.forEach(file -> {
+                String name = file.getFileName().toString();
+                if (name.endsWith(".xml") && isValidHash(name.substring(0, name.length() - 4))) {
+                    stored.add(name.substring(0, name.length() - 4));
+                }
+            });
+        }
+
+        return stored;
+    }
+
+    /**
+     * Checks a data hash is safe to use as a file name
+     * @param dataHash - Data hash
+     * @return Whether it is a hex string
+     */
+    private static boolean isValidHash(String dataHash) {
+        return dataHash != null && !dataHash.isEmpty() && dataHash.length() <= 128 && dataHash.chars().allMatch(c -> Character.digit(c, 16) >= 0);
+    }
+
+    /**
+     * Writes a file by writing a temporary file and moving it into place, so it's never left half written
+     * @param file - File to write
+     * @param contents - File contents
+     * @throws IOException if writing fails
+     */
+    static void write(Path file, byte[] contents) throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(temporary, contents);
+
+        try {
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
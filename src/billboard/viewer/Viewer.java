@@ -2,34 +2,88 @@ package billboard.viewer;
 
 
 import billboard.controlpanel.BillboardServerException;
+import billboard.controlpanel.ServerConnection;
 import billboard.controlpanel.ServerSchedules;
 import org.w3c.dom.Document;
 import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
 
+import javax.swing.*;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
 import java.awt.event.*;
 import java.io.File;
 import java.io.IOException;
-import java.io.StringReader;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Class for the billboard viewer
+ *
+ * Billboards are drawn in stages: fetching and parsing (including downloading or decoding the picture) and laying
+ * out the next billboard into a panel all happen on a background renderer thread, and the event dispatch thread
+ * only swaps the finished panel in. A slow picture never freezes the window, and the old billboard stays up
+ * until the new one is ready.
  */
 public class Viewer {
-    public boolean open = true;
+    public volatile boolean open = true;
 
     private Billboard currentBillboard;
 
+    // Data hash of the billboard being shown, so it is only downloaded and drawn again when it changes
+    private volatile String currentHash = null;
+
+    // Background thread billboards are parsed and laid out on, one at a time
+    private final ExecutorService renderer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "billboard-renderer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Number of the latest billboard sent to the renderer, so an older one finishing late isn't shown over it
+    private final AtomicLong latestRender = new AtomicLong();
+
+    // Keeps the offline copy of the schedule up to date, null if the offline cache is turned off
+    private ScheduledExecutorService offlineSync = null;
+
+    // Billboards coming up in the schedule, already laid out so they can be swapped in as soon as they're current
+    private final ConcurrentHashMap<String, JPanel> prerendered = new ConcurrentHashMap<String, JPanel>();
+
     /**
      * Creates the billboard viewer
      */
     public Viewer(){
-        // Create billboard
-        currentBillboard = new Billboard(true);
+        // Create billboard, on the event dispatch thread as with all Swing components
+        try {
+            SwingUtilities.invokeAndWait(() -> currentBillboard = new Billboard(true));
+        } catch (InterruptedException | InvocationTargetException e) {
+            throw new RuntimeException("Failed to create billboard window", e);
+        }
+
+        // Keep a copy of the coming schedule on disk, to fall back on if the server can't be reached
+        if (OfflineCache.isEnabled()) {
+            OfflineCache.load();
+
+            offlineSync = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "offline-sync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            offlineSync.scheduleWithFixedDelay(this::SyncOffline, 0, OfflineCache.getSyncMinutes(), TimeUnit.MINUTES);
+
+            // Prepare the billboards the schedule says are coming up, so their pictures are downloaded before they show
+            if (OfflineCache.getPrefetchMinutes() > 0) {
+                offlineSync.scheduleWithFixedDelay(this::Prefetch, 0, 1, TimeUnit.MINUTES);
+            }
+        }
 
 
         // Close when window closed
@@ -67,12 +121,7 @@ public class Viewer {
      * @param doc - XML Document
      */
     public void LoadXML(Document doc) {
-        try {
-            currentBillboard.LoadFromXML(doc);
-            currentBillboard.DrawBillboard();
-        } catch (IOException e) {
-            currentBillboard.ShowErrorBillboard();
-        }
+        Render(() -> Billboard.ParseElements(doc));
     }
 
     /**
@@ -80,12 +129,70 @@ public class Viewer {
      * @param xmlString - XML String
      */
     public void LoadXMLString(String xmlString) {
-        try {
-            currentBillboard.LoadFromXMLString(xmlString);
-            currentBillboard.DrawBillboard();
-        } catch (IOException | ParserConfigurationException | SAXException e) {
-            currentBillboard.ShowErrorBillboard();
-        }
+        Render(() -> Billboard.ParseElements(Billboard.XMLStringToDocument(xmlString)));
+    }
+
+    /**
+     * Parses and lays out a billboard on the renderer thread, then swaps it in on the event dispatch thread.
+     * Returns straight away. If the billboard can't be parsed, the error billboard is shown instead
+     * @param parse - Reads the billboard's elements
+     */
+    private void Render(Callable<BillboardElements> parse) {
+        Render(parse, null);
+    }
+
+    /**
+     * Parses and lays out a billboard on the renderer thread, then swaps it in on the event dispatch thread.
+     * Returns straight away. If the billboard can't be parsed, the error billboard is shown instead, and its hash is
+     * forgotten so the next poll fetches it again rather than leaving the error up
+     * @param parse - Reads the billboard's elements
+     * @param dataHash - Hash of the billboard's data, or null if it didn't come from the server
+     */
+    private void Render(Callable<BillboardElements> parse, String dataHash) {
+        long render = latestRender.incrementAndGet();
+
+        renderer.execute(() -> {
+            // A newer billboard has already been sent, no point drawing this one
+            if (render != latestRender.get()) {
+                return;
+            }
+
+            JPanel content;
+            try {
+                content = currentBillboard.CreateContent(parse.call());
+            } catch (Exception e) {
+                e.printStackTrace();
+                content = Billboard.CreateErrorContent();
+
+                if (dataHash != null && dataHash.equals(currentHash)) {
+                    currentHash = null;
+                }
+            }
+
+            Swap(render, content);
+        });
+    }
+
+    /**
+     * Shows the error billboard, replacing any billboard still being drawn
+     */
+    private void RenderError() {
+        long render = latestRender.incrementAndGet();
+
+        renderer.execute(() -> Swap(render, Billboard.CreateErrorContent()));
+    }
+
+    /**
+     * Swaps laid out content into the window on the event dispatch thread, unless a newer billboard was sent since
+     * @param render - Number of the billboard the content is for
+     * @param content - Laid out billboard
+     */
+    private void Swap(long render, JPanel content) {
+        SwingUtilities.invokeLater(() -> {
+            if (open && render == latestRender.get()) {
+                currentBillboard.ShowContent(content);
+            }
+        });
     }
 
     /**
@@ -94,20 +201,107 @@ public class Viewer {
      */
     public void UpdateBillboard(){
         try {
-            // Get the current billboard from the server
-            HashMap billboard = ServerSchedules.getCurrentBillboard();
-
-            // getting the data
-            String billboardData = (String) billboard.get("data");
+            // Get the current billboard from the server, if it's different to the one being shown
+            HashMap billboard = ServerSchedules.getCurrentBillboardIfChanged(ServerConnection.getChannel(), currentHash);
+            if (billboard == null) {
+                return; // Still showing the right billboard
+            }
 
-            // loading it into an XML file to be displayed
-            LoadXMLString(billboardData);
+            ShowBillboard(billboard);
         }
         catch (Exception e) { // Catch all exceptions
             e.printStackTrace();
 
-            currentBillboard.ShowErrorBillboard();
+            // Show what the offline copy of the schedule says should be showing, if there is one
+            HashMap offlineBillboard = offlineSync == null ? null : OfflineCache.getBillboardAt(System.currentTimeMillis());
+            if (offlineBillboard != null) {
+                ShowBillboard(offlineBillboard);
+                return;
+            }
+
+            currentHash = null;
+            RenderError();
+        }
+    }
+
+    /**
+     * Parses and lays out the billboards starting within the prefetch window on the renderer thread, and throws away
+     * ones that are no longer coming up
+     */
+    private void Prefetch() {
+        long now = System.currentTimeMillis();
+        ArrayList<HashMap> upcoming = OfflineCache.getUpcoming(now, now + OfflineCache.getPrefetchMinutes() * 60000L);
+
+        HashSet<String> upcomingHashes = new HashSet<String>();
+        for (HashMap billboard : upcoming) {
+            upcomingHashes.add((String) billboard.get("dataHash"));
+        }
+        prerendered.keySet().retainAll(upcomingHashes);
+
+        for (HashMap billboard : upcoming) {
+            String dataHash = (String) billboard.get("dataHash");
+            if (prerendered.containsKey(dataHash) || dataHash.equals(currentHash)) {
+                continue;
+            }
+
+            renderer.execute(() -> {
+                try {
+                    Document doc = Billboard.XMLStringToDocument((String) billboard.get("data"));
+                    prerendered.put(dataHash, currentBillboard.CreateContent(Billboard.ParseElements(doc)));
+                } catch (Exception e) {
+                    e.printStackTrace(); // It'll be tried again when it's current
+                }
+            });
+        }
+    }
+
+    /**
+     * Updates the offline copy of the schedule from the Billboard Server
+     */
+    private void SyncOffline() {
+        try {
+            OfflineCache.sync(ServerConnection.getChannel());
+        } catch (Exception e) { // Keep the last copy, and try again next time
+            System.out.println("Offline cache sync failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Subscribes to the Billboard Server and displays the current billboard each time it changes.
+     * This blocks until the connection to the server drops
+     * @throws IOException if the connection fails
+     * @throws BillboardServerException if the server won't accept the subscription
+     */
+    public void SubscribeBillboard() throws IOException, BillboardServerException {
+        ServerSchedules.subscribeCurrentBillboard(ServerConnection.getChannel(), this::ShowBillboard);
+    }
+
+    /**
+     * Displays a billboard received from the server, unless it is already being shown
+     * @param billboard - HashMap containing the billboard's data and data hash
+     */
+    private void ShowBillboard(HashMap billboard) {
+        String dataHash = (String) billboard.get("dataHash");
+        if (dataHash != null && dataHash.equals(currentHash)) {
+            return;
         }
+
+        // Set before it is drawn, so the next poll doesn't download it again while it is. Render clears it again if
+        // the billboard can't be drawn
+        currentHash = dataHash;
+
+        // Swap it straight in if it was prepared ahead of time
+        JPanel ready = dataHash == null ? null : prerendered.remove(dataHash);
+        if (ready != null) {
+            Swap(latestRender.incrementAndGet(), ready);
+            return;
+        }
+
+        // getting the data
+        String billboardData = (String) billboard.get("data");
+
+        // loading it into an XML file to be displayed
+        Render(() -> Billboard.ParseElements(Billboard.XMLStringToDocument(billboardData)), dataHash);
     }
 
     static final int testingBillboards = 16;
@@ -117,23 +311,18 @@ public class Viewer {
      * Updates the billboard viewer, iterating through the testing files
      */
     public void UpdateTestBillboard(){
-        try {
-            billboard++;
-            if (billboard > testingBillboards) billboard = 1;
-            String billboardFile = "testing/billboard_test_xmls/" + billboard + ".xml";
+        billboard++;
+        if (billboard > testingBillboards) billboard = 1;
+        String billboardFile = "testing/billboard_test_xmls/" + billboard + ".xml";
 
+        Render(() -> {
             File xmlFile = new File(billboardFile);
             DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
             DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
             Document doc = dBuilder.parse(xmlFile);
 
-            currentBillboard.LoadFromXML(doc);
-            currentBillboard.DrawBillboard();
-        }
-        catch (Exception e){
-            e.printStackTrace();
-            currentBillboard.ShowErrorBillboard();
-        }
+            return Billboard.ParseElements(doc);
+        });
     }
 
     /**
@@ -141,6 +330,10 @@ public class Viewer {
      */
     void Close() {
         open = false;
+        renderer.shutdownNow();
+        if (offlineSync != null) {
+            offlineSync.shutdownNow();
+        }
         currentBillboard.Close();
     }
 }
\ No newline at end of file